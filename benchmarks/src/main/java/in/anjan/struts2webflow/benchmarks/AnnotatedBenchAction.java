@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import com.opensymphony.xwork2.ActionSupport;
+
+import in.anjan.struts2webflow.annotations.FlowIn;
+import in.anjan.struts2webflow.annotations.FlowOut;
+
+/**
+ * Action binding the flow execution scope by annotations.
+ */
+public class AnnotatedBenchAction
+        extends ActionSupport {
+
+    /**
+     * Bound to the flow execution scope.
+     */
+    @FlowIn
+    @FlowOut
+    private String name;
+    /**
+     * Bound to the flow execution scope.
+     */
+    @FlowIn
+    @FlowOut
+    private Integer amount;
+
+    /**
+     * @return bound to the flow execution scope
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return bound to the flow execution scope
+     */
+    public Integer getAmount() {
+        return amount;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import com.opensymphony.xwork2.ActionSupport;
+
+/**
+ * Action binding the flow execution scope by the flow scope keys.
+ */
+public class BenchAction
+        extends ActionSupport {
+
+    /**
+     * Bound to the flow execution scope.
+     */
+    private String name;
+    /**
+     * Bound to the flow execution scope.
+     */
+    private Integer amount;
+
+    /**
+     * @return bound to the flow execution scope
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name bound to the flow execution scope
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return bound to the flow execution scope
+     */
+    public Integer getAmount() {
+        return amount;
+    }
+
+    /**
+     * @param amount bound to the flow execution scope
+     */
+    public void setAmount(Integer amount) {
+        this.amount = amount;
+    }
+}
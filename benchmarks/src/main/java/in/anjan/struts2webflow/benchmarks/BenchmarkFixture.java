@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.struts2.dispatcher.Dispatcher;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+import com.opensymphony.xwork2.ActionContext;
+import com.opensymphony.xwork2.ActionProxy;
+import com.opensymphony.xwork2.ActionProxyFactory;
+import com.opensymphony.xwork2.config.entities.ActionConfig;
+import com.opensymphony.xwork2.config.entities.InterceptorMapping;
+import com.opensymphony.xwork2.util.ValueStack;
+import com.opensymphony.xwork2.util.ValueStackFactory;
+
+import in.anjan.struts2webflow.PluginConfiguration;
+
+/**
+ * A Struts 2 dispatcher on the benchmark {@code struts.xml}, over a servlet
+ * context whose Spring web application context has the
+ * {@link StandInFlowExecutor stand-in flow executor} as the flow executor.
+ */
+final class BenchmarkFixture {
+
+    /**
+     * Struts namespace of the benchmark actions.
+     */
+    static final String NAMESPACE = "/bench";
+    /**
+     * Id of the stand-in flow.
+     */
+    static final String FLOW_ID = "bench";
+    /**
+     * View the stand-in flow pauses on.
+     */
+    static final String VIEW = "view";
+    /**
+     * Paused key of the stand-in flow execution.
+     */
+    static final String PAUSED_KEY = "e1s1";
+
+    /**
+     * The servlet context.
+     */
+    private final MockServletContext servletContext = new MockServletContext();
+    /**
+     * The Spring web application context.
+     */
+    private final GenericWebApplicationContext context;
+    /**
+     * The Struts dispatcher.
+     */
+    private final Dispatcher dispatcher;
+
+    /**
+     * @param flowScopeSize number of entries in the flow execution scope, on
+     *                      top of the ones the benchmark actions bind
+     */
+    BenchmarkFixture(int flowScopeSize) {
+        StandInFlowExecutionRepository repository =
+                new StandInFlowExecutionRepository(FLOW_ID, PAUSED_KEY, flowScopeSize);
+
+        context = new GenericWebApplicationContext(servletContext);
+        context.getBeanFactory().registerSingleton(
+                PluginConfiguration.DEFAULT_FLOW_EXECUTOR_BEAN,
+                new StandInFlowExecutor(repository, PAUSED_KEY, VIEW));
+        context.refresh();
+        servletContext.setAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE, context);
+
+        dispatcher = new Dispatcher(servletContext, new HashMap<String, String>());
+        dispatcher.init();
+        Dispatcher.setInstance(dispatcher);
+    }
+
+    /**
+     * @param paused {@code true} to have the paused key in session,
+     *               {@code false} otherwise
+     * @return a new request
+     */
+    MockHttpServletRequest newRequest(boolean paused) {
+        MockHttpServletRequest request = new MockHttpServletRequest(servletContext);
+        if (paused)
+            request.getSession().setAttribute(PluginConfiguration.DEFAULT_PAUSED_KEY_SESSION_KEY, PAUSED_KEY);
+
+        return request;
+    }
+
+    /**
+     * @param request the request
+     * @return a new action context of the request, as the Struts filter
+     *         prepares it
+     */
+    ActionContext newActionContext(HttpServletRequest request) {
+        Dispatcher.setInstance(dispatcher);
+
+        ValueStack stack = dispatcher.getContainer().getInstance(ValueStackFactory.class).createValueStack();
+        stack.getContext().putAll(dispatcher.createContextMap(request, new MockHttpServletResponse(), null));
+        return new ActionContext(stack.getContext());
+    }
+
+    /**
+     * Executes the benchmark action on the request, as the Struts filter
+     * does.
+     *
+     * @param action  the benchmark action
+     * @param request the request
+     * @return the result
+     * @throws Exception in case of failure
+     */
+    String execute(String action, HttpServletRequest request)
+            throws Exception {
+        Dispatcher.setInstance(dispatcher);
+
+        Map<String, Object> extraContext = dispatcher.createContextMap(request, new MockHttpServletResponse(), null);
+        ActionProxy proxy =
+                dispatcher.getContainer()
+                          .getInstance(ActionProxyFactory.class)
+                          .createActionProxy(NAMESPACE, action, null, extraContext, true, true);
+        return proxy.execute();
+    }
+
+    /**
+     * @param action the benchmark action
+     * @param type   type of the interceptor
+     * @param <T>    type of the interceptor
+     * @return the interceptor of the action, as configured
+     */
+    <T> T getInterceptor(String action, Class<T> type) {
+        ActionConfig config =
+                dispatcher.getConfigurationManager()
+                          .getConfiguration()
+                          .getRuntimeConfiguration()
+                          .getActionConfig(NAMESPACE, action);
+        for (InterceptorMapping mapping : config.getInterceptors())
+            if (type.isInstance(mapping.getInterceptor()))
+                return type.cast(mapping.getInterceptor());
+
+        throw new IllegalArgumentException("No " + type.getName() + " on action " + action);
+    }
+
+    /**
+     * Shuts down the Struts dispatcher and the Spring web application
+     * context.
+     */
+    void close() {
+        dispatcher.cleanup();
+        Dispatcher.setInstance(null);
+        ActionContext.setContext(null);
+        context.close();
+    }
+}
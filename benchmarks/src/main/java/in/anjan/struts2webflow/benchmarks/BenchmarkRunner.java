@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks as the JMH main does, always with the
+ * {@link GCProfiler gc profiler} to report the allocation rate along with the
+ * throughput; lists them, or the JMH options, as asked.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * @param args JMH command line options
+     * @throws Exception in case of failure
+     */
+    public static void main(String[] args)
+            throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        Options options =
+                new OptionsBuilder()
+                        .parent(commandLineOptions)
+                        .addProfiler(GCProfiler.class)
+                        .build();
+        Runner runner = new Runner(options);
+
+        // asked for help or a listing?
+        // if yes, as the JMH main does, and no run
+        if (commandLineOptions.shouldHelp())
+            commandLineOptions.showHelp();
+        else if (commandLineOptions.shouldList())
+            runner.list();
+        else if (commandLineOptions.shouldListWithParams())
+            runner.listWithParams(commandLineOptions);
+        else if (commandLineOptions.shouldListProfilers())
+            commandLineOptions.listProfilers();
+        else if (commandLineOptions.shouldListResultFormats())
+            commandLineOptions.listResultFormats();
+        else
+            runner.run();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistryImpl;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.engine.impl.FlowExecutionImplFactory;
+import org.springframework.webflow.execution.FlowExecution;
+
+import in.anjan.struts2webflow.repository.ClientFlowExecutionRepository;
+import in.anjan.struts2webflow.repository.CompactSnapshotCodec;
+import in.anjan.struts2webflow.repository.JavaSnapshotCodec;
+
+/**
+ * {@link ClientFlowExecutionRepository Client flow execution repository}
+ * signing a flow execution into its key (put) and verifying and restoring it
+ * back (get), by codec, compression and conversation scope size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientFlowExecutionRepositoryBenchmark {
+
+    /**
+     * Id of the benchmarked flow.
+     */
+    private static final String FLOW_ID = "bench";
+
+    /**
+     * Snapshot codec, {@code java} or {@code compact}.
+     */
+    @Param({"java", "compact"})
+    public String codec;
+    /**
+     * Whether to compress the snapshot.
+     */
+    @Param({"true", "false"})
+    public boolean compress;
+    /**
+     * Number of conversation scope entries.
+     */
+    @Param({"10", "100"})
+    public int scopeSize;
+
+    /**
+     * The repository.
+     */
+    private ClientFlowExecutionRepository repository;
+    /**
+     * The flow execution put again and again.
+     */
+    private FlowExecution flowExecution;
+    /**
+     * Key of the flow execution as put once, fetched again and again.
+     */
+    private String encodedKey;
+
+    /**
+     * Sets up the repository and a paused flow execution.
+     */
+    @Setup
+    public void setUp() {
+        Flow flow = new Flow(FLOW_ID);
+        FlowDefinitionRegistryImpl registry = new FlowDefinitionRegistryImpl();
+        registry.registerFlowDefinition(flow);
+
+        FlowExecutionImplFactory factory = new FlowExecutionImplFactory();
+        repository = new ClientFlowExecutionRepository();
+        repository.setFlowDefinitionLocator(registry);
+        repository.setFlowExecutionFactory(factory);
+        repository.setSecret("benchmark");
+        repository.setSnapshotCodec("compact".equals(codec) ? new CompactSnapshotCodec() : new JavaSnapshotCodec());
+        repository.setCompress(compress);
+
+        LocalAttributeMap<Object> conversationScope = new LocalAttributeMap<Object>();
+        for (int i = 0; i < scopeSize; i++)
+            conversationScope.put("attribute" + i, "value of attribute " + i);
+        flowExecution = factory.restoreFlowExecution(
+                factory.createFlowExecution(flow),
+                flow,
+                repository.getKey(null),
+                conversationScope,
+                registry);
+
+        repository.putFlowExecution(flowExecution);
+        encodedKey = flowExecution.getKey().toString();
+    }
+
+    /**
+     * @return the encoded key
+     */
+    @Benchmark
+    public String put() {
+        repository.putFlowExecution(flowExecution);
+        return flowExecution.getKey().toString();
+    }
+
+    /**
+     * @return the restored flow execution
+     */
+    @Benchmark
+    public FlowExecution get() {
+        return repository.getFlowExecution(repository.parseFlowExecutionKey(encodedKey));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link in.anjan.struts2webflow.FlowAction Flow action} launching and
+ * resuming a flow execution, through its action proxy and the paused key
+ * interceptor.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlowActionBenchmark {
+
+    /**
+     * The fixture.
+     */
+    private BenchmarkFixture fixture;
+
+    /**
+     * Sets up the fixture.
+     */
+    @Setup
+    public void setUp() {
+        fixture = new BenchmarkFixture(10);
+    }
+
+    /**
+     * Tears down the fixture.
+     */
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * @return the result
+     * @throws Exception in case of failure
+     */
+    @Benchmark
+    public String launch()
+            throws Exception {
+        return fixture.execute("flow", fixture.newRequest(false));
+    }
+
+    /**
+     * @return the result
+     * @throws Exception in case of failure
+     */
+    @Benchmark
+    public String resume()
+            throws Exception {
+        return fixture.execute("flow", fixture.newRequest(true));
+    }
+}
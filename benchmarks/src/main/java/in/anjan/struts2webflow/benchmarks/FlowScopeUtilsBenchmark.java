@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opensymphony.xwork2.ActionContext;
+
+import in.anjan.struts2webflow.FlowScopeUtils;
+import in.anjan.struts2webflow.PluginConfiguration;
+
+/**
+ * {@link FlowScopeUtils Flow scope utils} finding the flow execution scope
+ * through the flow execution repository: first time in a request (cold), and
+ * again within the same request (warm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlowScopeUtilsBenchmark {
+
+    /**
+     * The plugin configuration.
+     */
+    private final PluginConfiguration configuration = new PluginConfiguration();
+
+    /**
+     * The fixture.
+     */
+    private BenchmarkFixture fixture;
+    /**
+     * Action context of the request looked up again and again.
+     */
+    private ActionContext warmContext;
+
+    /**
+     * Sets up the fixture.
+     */
+    @Setup
+    public void setUp() {
+        fixture = new BenchmarkFixture(10);
+        warmContext = fixture.newActionContext(fixture.newRequest(true));
+    }
+
+    /**
+     * Tears down the fixture.
+     */
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * @return the flow execution scope
+     */
+    @Benchmark
+    public Map coldLookup() {
+        ActionContext.setContext(fixture.newActionContext(fixture.newRequest(true)));
+        return lookup();
+    }
+
+    /**
+     * @return the flow execution scope
+     */
+    @Benchmark
+    public Map warmLookup() {
+        ActionContext.setContext(warmContext);
+        return lookup();
+    }
+
+    /**
+     * @return the flow execution scope, if any
+     */
+    private Map lookup() {
+        return FlowScopeUtils.hasFlowScope(configuration) ? FlowScopeUtils.getFlowScopeAsMap(configuration) : null;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.engine.impl.FlowExecutionImplFactory;
+
+import in.anjan.struts2webflow.repository.CompactSnapshotCodec;
+import in.anjan.struts2webflow.repository.JavaSnapshotCodec;
+import in.anjan.struts2webflow.repository.SnapshotCodec;
+
+/**
+ * {@link SnapshotCodec Snapshot codecs} encoding and decoding a flow
+ * execution along with its conversation scope, the Java serialization
+ * against the compact encoding, by scope size. The encoded size is reported
+ * along with the encoding throughput, as the {@link Size#encodedBytes}
+ * secondary result.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotCodecBenchmark {
+
+    /**
+     * Snapshot codec, {@code java} or {@code compact}.
+     */
+    @Param({"java", "compact"})
+    public String codec;
+    /**
+     * Number of conversation scope entries.
+     */
+    @Param({"10", "100"})
+    public int scopeSize;
+
+    /**
+     * The codec.
+     */
+    private SnapshotCodec snapshotCodec;
+    /**
+     * The object graph encoded again and again.
+     */
+    private Object[] graph;
+    /**
+     * The object graph as encoded once, decoded again and again.
+     */
+    private byte[] encoded;
+
+    /**
+     * Sets up the codec and the object graph, a mix of the usual scope
+     * values.
+     *
+     * @throws IOException in case of encoding failure
+     */
+    @Setup
+    public void setUp()
+            throws IOException {
+        snapshotCodec = "compact".equals(codec) ? new CompactSnapshotCodec() : new JavaSnapshotCodec();
+
+        LocalAttributeMap<Object> conversationScope = new LocalAttributeMap<Object>();
+        List<Object> shared = new ArrayList<Object>();
+        for (int i = 0; i < scopeSize; i++) {
+            switch (i % 5) {
+                case 0:
+                    conversationScope.put("string" + i, "value of attribute " + i);
+                    break;
+                case 1:
+                    conversationScope.put("number" + i, (long) i * 1000);
+                    break;
+                case 2:
+                    conversationScope.put("date" + i, new Date(1500000000000L + i));
+                    break;
+                case 3:
+                    conversationScope.put("unit" + i, TimeUnit.SECONDS);
+                    break;
+                default:
+                    shared.add(i);
+                    conversationScope.put("list" + i, shared);
+                    break;
+            }
+        }
+
+        Flow flow = new Flow("bench");
+        graph = new Object[]{conversationScope, new FlowExecutionImplFactory().createFlowExecution(flow)};
+
+        encoded = encodeGraph();
+    }
+
+    /**
+     * @param size the encoded size, to be reported
+     * @return the encoded object graph
+     * @throws IOException in case of encoding failure
+     */
+    @Benchmark
+    public byte[] encode(Size size)
+            throws IOException {
+        byte[] bytes = encodeGraph();
+        size.encodedBytes = bytes.length;
+        return bytes;
+    }
+
+    /**
+     * @return the decoded object graph
+     * @throws IOException            in case of decoding failure
+     * @throws ClassNotFoundException in case of a missing class
+     */
+    @Benchmark
+    public Object decode()
+            throws IOException, ClassNotFoundException {
+        return snapshotCodec.decode(new ByteArrayInputStream(encoded), getClass().getClassLoader());
+    }
+
+    /**
+     * @return the encoded object graph
+     * @throws IOException in case of encoding failure
+     */
+    private byte[] encodeGraph()
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        snapshotCodec.encode(graph, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The encoded size, reported as a secondary result of
+     * {@link #encode(Size)} (as is, not as a rate).
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+
+        /**
+         * Size of the encoded object graph in bytes.
+         */
+        public long encodedBytes;
+    }
+}
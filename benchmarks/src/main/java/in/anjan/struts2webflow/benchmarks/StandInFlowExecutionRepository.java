@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionKey;
+import org.springframework.webflow.execution.repository.FlowExecutionLock;
+import org.springframework.webflow.execution.repository.FlowExecutionRepository;
+import org.springframework.webflow.test.MockFlowExecutionContext;
+import org.springframework.webflow.test.MockFlowSession;
+
+/**
+ * Stand-in of the flow execution repository: hands out the same paused flow
+ * execution for every key, without restoring a snapshot, and locks nothing.
+ */
+final class StandInFlowExecutionRepository
+        implements FlowExecutionRepository {
+
+    /**
+     * The lock, locking nothing.
+     */
+    private static final FlowExecutionLock NO_LOCK = new FlowExecutionLock() {
+        @Override
+        public void lock() {
+            // no-op;
+        }
+
+        @Override
+        public void unlock() {
+            // no-op;
+        }
+    };
+
+    /**
+     * The flow execution.
+     */
+    private final StandInFlowExecution flowExecution;
+
+    /**
+     * @param flowId        the flow id
+     * @param pausedKey     paused key of the flow execution
+     * @param flowScopeSize number of entries in the flow execution scope, on
+     *                      top of the ones the benchmark actions bind
+     */
+    StandInFlowExecutionRepository(String flowId, String pausedKey, int flowScopeSize) {
+        MockFlowSession session = new MockFlowSession(new Flow(flowId));
+        session.getScope().put("name", "bench");
+        session.getScope().put("amount", 42);
+        for (int i = 0; i < flowScopeSize; i++)
+            session.getScope().put("key" + i, "value" + i);
+
+        flowExecution = new StandInFlowExecution(session);
+        flowExecution.setKey(new Key(pausedKey));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionKey parseFlowExecutionKey(String encodedKey) {
+        return new Key(encodedKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionLock getLock(FlowExecutionKey key) {
+        return NO_LOCK;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecution getFlowExecution(FlowExecutionKey key) {
+        return flowExecution;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putFlowExecution(FlowExecution flowExecution) {
+        // no-op;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeFlowExecution(FlowExecution flowExecution) {
+        // no-op;
+    }
+
+    /**
+     * Flow execution key, as encoded.
+     */
+    private static final class Key
+            extends FlowExecutionKey {
+
+        /**
+         * The encoded key.
+         */
+        private final String encodedKey;
+
+        /**
+         * @param encodedKey the encoded key
+         */
+        private Key(String encodedKey) {
+            this.encodedKey = encodedKey;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && encodedKey.equals(((Key) o).encodedKey);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return encodedKey.hashCode();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return encodedKey;
+        }
+    }
+
+    /**
+     * Paused flow execution, never to be started or resumed.
+     */
+    private static final class StandInFlowExecution
+            extends MockFlowExecutionContext
+            implements FlowExecution {
+
+        /**
+         * @param session the active flow session
+         */
+        private StandInFlowExecution(MockFlowSession session) {
+            super(session);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void start(MutableAttributeMap<?> input, ExternalContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void resume(ExternalContext context) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
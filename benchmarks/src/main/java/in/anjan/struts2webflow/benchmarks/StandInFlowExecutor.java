@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistryImpl;
+import org.springframework.webflow.engine.impl.FlowExecutionImplFactory;
+import org.springframework.webflow.executor.FlowExecutionResult;
+import org.springframework.webflow.executor.FlowExecutorImpl;
+
+import in.anjan.struts2webflow.JspViewResolver;
+
+/**
+ * Stand-in of the flow executor: every launch and resume pauses on the same
+ * view at once, as the plugin's view resolver would have it.
+ * <p/>
+ * A {@link FlowExecutorImpl} for the plugin to find its flow execution
+ * repository.
+ */
+final class StandInFlowExecutor
+        extends FlowExecutorImpl {
+
+    /**
+     * Paused key of every flow execution.
+     */
+    private final String pausedKey;
+    /**
+     * View every flow execution pauses on.
+     */
+    private final String view;
+
+    /**
+     * @param repository the flow execution repository
+     * @param pausedKey  paused key of every flow execution
+     * @param view       view every flow execution pauses on
+     */
+    StandInFlowExecutor(StandInFlowExecutionRepository repository, String pausedKey, String view) {
+        super(new FlowDefinitionRegistryImpl(), new FlowExecutionImplFactory(), repository);
+        this.pausedKey = pausedKey;
+        this.view = view;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionResult launchExecution(String flowId, MutableAttributeMap<?> input, ExternalContext context) {
+        return pause(flowId, context);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionResult resumeExecution(String flowExecutionKey, ExternalContext context) {
+        return pause(BenchmarkFixture.FLOW_ID, context);
+    }
+
+    /**
+     * @param flowId  the flow id
+     * @param context the external context
+     * @return the paused result
+     */
+    private FlowExecutionResult pause(String flowId, ExternalContext context) {
+        context.getRequestMap().put(JspViewResolver.DEFAULT_VIEW_ATTRIBUTE_NAME, view);
+        return FlowExecutionResult.createPausedResult(flowId, pausedKey);
+    }
+}
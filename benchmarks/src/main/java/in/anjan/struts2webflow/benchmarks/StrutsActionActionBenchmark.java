@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.webflow.engine.ActionState;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.test.MockFlowExecutionContext;
+import org.springframework.webflow.test.MockFlowSession;
+import org.springframework.webflow.test.MockRequestContext;
+
+import com.opensymphony.xwork2.ActionContext;
+
+import in.anjan.struts2webflow.StrutsActionAction;
+
+/**
+ * {@link StrutsActionAction Struts action action} dispatching an action
+ * state to its Struts action, by a literal and by a templated action name.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StrutsActionActionBenchmark {
+
+    /**
+     * The Struts action action.
+     */
+    private final StrutsActionAction action = new StrutsActionAction();
+
+    /**
+     * The fixture.
+     */
+    private BenchmarkFixture fixture;
+    /**
+     * Action context of the flow request.
+     */
+    private ActionContext actionContext;
+    /**
+     * Request context of an action state naming its Struts action literally.
+     */
+    private MockRequestContext literalContext;
+    /**
+     * Request context of an action state naming its Struts action by a
+     * template.
+     */
+    private MockRequestContext templatedContext;
+
+    /**
+     * Sets up the fixture.
+     */
+    @Setup
+    public void setUp() {
+        fixture = new BenchmarkFixture(10);
+        actionContext = fixture.newActionContext(fixture.newRequest(true));
+        literalContext = newRequestContext("target");
+        templatedContext = newRequestContext("%{'tar' + 'get'}");
+    }
+
+    /**
+     * Tears down the fixture.
+     */
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * @param strutsAction Struts action of the action state
+     * @return request context of the action state
+     */
+    private static MockRequestContext newRequestContext(String strutsAction) {
+        Flow flow = new Flow(BenchmarkFixture.FLOW_ID);
+        MockFlowSession session = new MockFlowSession(flow);
+        session.setState(new ActionState(flow, "dispatch"));
+
+        MockRequestContext context = new MockRequestContext(new MockFlowExecutionContext(session));
+        context.getAttributes().put("namespace", BenchmarkFixture.NAMESPACE);
+        context.getAttributes().put("action", strutsAction);
+        return context;
+    }
+
+    /**
+     * @return the event
+     * @throws Exception in case of failure
+     */
+    @Benchmark
+    public Event literal()
+            throws Exception {
+        ActionContext.setContext(actionContext);
+        return action.execute(literalContext);
+    }
+
+    /**
+     * @return the event
+     * @throws Exception in case of failure
+     */
+    @Benchmark
+    public Event templated()
+            throws Exception {
+        ActionContext.setContext(actionContext);
+        return action.execute(templatedContext);
+    }
+}
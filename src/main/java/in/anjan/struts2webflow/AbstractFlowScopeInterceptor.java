@@ -66,6 +66,14 @@ public abstract class AbstractFlowScopeInterceptor
         return FlowScopeUtils.getFlowScopeAsMap(configuration);
     }
 
+    /**
+     * Writes the flow execution scope changes back, if
+     * {@link PluginConfiguration#isFlowScopeWriteBack() configured} to.
+     */
+    protected final void writeBackFlowScope() {
+        FlowScopeUtils.writeBackFlowScope(configuration);
+    }
+
     /**
      * {@link
      *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
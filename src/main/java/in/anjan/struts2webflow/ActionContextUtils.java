@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.Map;
+
+import com.opensymphony.xwork2.ActionContext;
+import com.opensymphony.xwork2.util.ValueStack;
+import com.opensymphony.xwork2.util.ValueStackFactory;
+
+/**
+ * The action context utils.
+ */
+final class ActionContextUtils {
+
+    private ActionContextUtils() {
+    }
+
+    /**
+     * Copies the action context, to be handed to another thread while the
+     * current one carries on with the original.
+     *
+     * @param context action context to be copied
+     * @return action context with a copy of the context map and the value
+     *         stack
+     */
+    static ActionContext copy(ActionContext context) {
+        ValueStack stack = context.getContainer()
+                .getInstance(ValueStackFactory.class)
+                .createValueStack(context.getValueStack());
+
+        Map<String, Object> contextMap = stack.getContext();
+        contextMap.putAll(context.getContextMap());
+        contextMap.put(ActionContext.VALUE_STACK, stack);
+
+        return new ActionContext(contextMap);
+    }
+}
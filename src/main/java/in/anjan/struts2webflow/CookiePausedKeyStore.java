@@ -0,0 +1,286 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.struts2.ServletActionContext;
+
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+import com.opensymphony.xwork2.ActionContext;
+
+/**
+ * {@link PausedKeyStore Paused key store} keeping the paused key in a cookie,
+ * signed with HMAC-SHA256 by a configured secret (of at least
+ * {@value #MIN_SECRET_LENGTH} bytes).
+ * <p/>
+ * Needs no session; a cookie with an invalid signature is ignored. The
+ * cookie is HttpOnly, secure on secure requests and bound to the configured
+ * path (the context path, by default).
+ */
+public class CookiePausedKeyStore
+        implements PausedKeyStore {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CookiePausedKeyStore.class);
+
+    /**
+     * Default cookie name.
+     */
+    public static final String DEFAULT_COOKIE_NAME = "pausedKey";
+
+    /**
+     * Min length of the secret in bytes, as long as the HMAC-SHA256 output.
+     */
+    public static final int MIN_SECRET_LENGTH = 32;
+
+    /**
+     * MAC algorithm.
+     */
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    /**
+     * Separates the paused key and its signature in the cookie value.
+     */
+    private static final char SIGNATURE_SEPARATOR = '.';
+    /**
+     * Hex digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Request attribute name to remember the paused key written during the
+     * current request.
+     */
+    private static final String WRITTEN_PAUSED_KEY_ATTRIBUTE_NAME =
+            CookiePausedKeyStore.class.getName() + ".writtenPausedKey";
+
+    /**
+     * Cookie name.
+     * <p/>
+     * Can be set through {@link #setCookieName(String)}.
+     */
+    private String cookieName = DEFAULT_COOKIE_NAME;
+    /**
+     * Cookie max age in seconds, negative for a browser session cookie.
+     * <p/>
+     * Can be set through {@link #setMaxAge(int)}.
+     */
+    private int maxAge = -1;
+    /**
+     * Cookie path, {@code null} for the context path.
+     * <p/>
+     * Can be set through {@link #setCookiePath(String)}.
+     */
+    private String cookiePath;
+    /**
+     * Signing key.
+     * <p/>
+     * Must be set through {@link #setSecret(String)}.
+     */
+    private SecretKeySpec secret;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPausedKey(ActionContext context) {
+        HttpServletRequest request = ServletActionContext.getRequest();
+
+        // written already during this request?
+        // if yes, that is the latest one
+        if (request.getAttribute(WRITTEN_PAUSED_KEY_ATTRIBUTE_NAME) != null)
+            return emptyToNull((String) request.getAttribute(WRITTEN_PAUSED_KEY_ATTRIBUTE_NAME));
+
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null)
+            return null;
+
+        for (Cookie cookie : cookies) {
+            if (cookieName.equals(cookie.getName()))
+                return verify(cookie.getValue());
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean setPausedKey(ActionContext context, String pausedKey) {
+        // nothing changed?
+        // if yes, no need to send the cookie
+        if (ObjectUtils.nullSafeEquals(getPausedKey(context), pausedKey))
+            return false;
+
+        HttpServletRequest request = ServletActionContext.getRequest();
+        HttpServletResponse response = ServletActionContext.getResponse();
+
+        // flow execution ended?
+        // if yes, expire the cookie
+        Cookie cookie = new Cookie(cookieName, pausedKey != null ? sign(pausedKey) : "");
+        cookie.setPath(getCookiePath(request));
+        cookie.setSecure(request.isSecure());
+        cookie.setHttpOnly(true);
+        cookie.setMaxAge(pausedKey != null ? maxAge : 0);
+        response.addCookie(cookie);
+
+        request.setAttribute(WRITTEN_PAUSED_KEY_ATTRIBUTE_NAME, pausedKey != null ? pausedKey : "");
+        return true;
+    }
+
+    /**
+     * @param request the request
+     * @return cookie path as configured, or the context path
+     */
+    private String getCookiePath(HttpServletRequest request) {
+        if (StringUtils.hasLength(cookiePath))
+            return cookiePath;
+
+        return StringUtils.hasLength(request.getContextPath()) ? request.getContextPath() : "/";
+    }
+
+    /**
+     * @param pausedKey the paused key
+     * @return cookie value, the paused key along with its signature
+     */
+    private String sign(String pausedKey) {
+        return pausedKey + SIGNATURE_SEPARATOR + mac(pausedKey);
+    }
+
+    /**
+     * @param value cookie value
+     * @return the paused key, or {@code null} if the signature is invalid
+     */
+    private String verify(String value) {
+        int separator = value != null ? value.lastIndexOf(SIGNATURE_SEPARATOR) : -1;
+        if (separator <= 0)
+            return null;
+
+        String pausedKey = value.substring(0, separator);
+        String signature = value.substring(separator + 1);
+
+        try {
+            if (MessageDigest.isEqual(mac(pausedKey).getBytes("US-ASCII"), signature.getBytes("US-ASCII")))
+                return pausedKey;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        LOGGER.warn("ignoring paused key cookie with invalid signature");
+        return null;
+    }
+
+    /**
+     * @param pausedKey the paused key
+     * @return HMAC of the paused key, hex encoded
+     */
+    private String mac(String pausedKey) {
+        if (secret == null)
+            throw new IllegalStateException("Secret not set for " + getClass().getName());
+
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+
+            byte[] bytes = mac.doFinal(pausedKey.getBytes("UTF-8"));
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+                chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+            }
+
+            return new String(chars);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign paused key", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param value the value
+     * @return {@code null} if the value is empty, the value otherwise
+     */
+    private static String emptyToNull(String value) {
+        return StringUtils.hasLength(value) ? value : null;
+    }
+
+    /**
+     * Cookie name.
+     *
+     * @param cookieName cookie name to be set
+     */
+    public void setCookieName(String cookieName) {
+        this.cookieName = cookieName;
+    }
+
+    /**
+     * Cookie max age in seconds, negative for a browser session cookie
+     * (the default).
+     *
+     * @param maxAge cookie max age to be set
+     */
+    public void setMaxAge(int maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Cookie path, defaults to the context path.
+     *
+     * @param cookiePath cookie path to be set
+     */
+    public void setCookiePath(String cookiePath) {
+        this.cookiePath = cookiePath;
+    }
+
+    /**
+     * Secret to sign the paused key with; must be the same on every node,
+     * and at least {@value #MIN_SECRET_LENGTH} bytes long (in UTF-8).
+     *
+     * @param secret secret to be set
+     * @throws IllegalArgumentException if the secret is too short
+     */
+    public void setSecret(String secret) {
+        byte[] bytes;
+        try {
+            bytes = secret.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (bytes.length < MIN_SECRET_LENGTH)
+            throw new IllegalArgumentException(
+                    "Secret of " + getClass().getName() + " must be at least " + MIN_SECRET_LENGTH + " bytes long");
+
+        this.secret = new SecretKeySpec(bytes, MAC_ALGORITHM);
+    }
+}
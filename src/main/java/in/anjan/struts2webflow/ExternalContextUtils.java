@@ -16,6 +16,8 @@
 
 package in.anjan.struts2webflow;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.apache.struts2.ServletActionContext;
 
 import org.springframework.webflow.context.ExternalContext;
@@ -29,11 +31,92 @@ import com.opensymphony.xwork2.ActionInvocation;
  */
 public final class ExternalContextUtils {
 
+    /**
+     * Request attribute name to hold the
+     * {@link ExternalContext external context} of the current request.
+     */
+    private static final String EXTERNAL_CONTEXT_ATTRIBUTE_NAME =
+            ExternalContextUtils.class.getName() + ".externalContext";
+    /**
+     * Request attribute name to mark the
+     * {@link ExternalContext external context} of the current request handed
+     * to the flow executor.
+     */
+    private static final String EXECUTED_ATTRIBUTE_NAME =
+            ExternalContextUtils.class.getName() + ".executed";
+
+    /**
+     * Finds the {@link ExternalContext external context} of the current
+     * request, creating it once per request.
+     * <p/>
+     * Shared by the {@link FlowAction flow action}, the interceptors and the
+     * {@link FlowScopeUtils flow scope utils}; attaches the
+     * {@link ActionContext#getActionInvocation() action invocation} to its
+     * request map whenever it is a different one (chained actions). Keyed on
+     * the request itself, so a wrapped request (e.g. a branch of a
+     * {@link ParallelStrutsActionAction parallel action state}) gets its
+     * own.
+     * <p/>
+     * To be handed to the flow executor, use
+     * {@link #getExternalContextForExecution()} instead.
+     *
+     * @return {@link ExternalContext external context}
+     */
+    public static ExternalContext getExternalContext() {
+        HttpServletRequest request = ServletActionContext.getRequest();
+
+        // created for this very request?
+        // if not, create and keep it
+        ExternalContext context = (ExternalContext) request.getAttribute(EXTERNAL_CONTEXT_ATTRIBUTE_NAME);
+        if (context == null || context.getNativeRequest() != request) {
+            context = createExternalContext();
+            request.setAttribute(EXTERNAL_CONTEXT_ATTRIBUTE_NAME, context);
+            return context;
+        }
+
+        // need to keep the action invocation up to date
+        // need it later to execute Struts action
+        ActionInvocation invocation = ActionContext.getContext().getActionInvocation();
+        if (context.getRequestMap().get(ActionInvocation.class.getName()) != invocation)
+            context.getRequestMap().put(ActionInvocation.class.getName(), invocation);
+
+        return context;
+    }
+
+    /**
+     * Finds the {@link ExternalContext external context} of the current
+     * request to be handed to the flow executor.
+     * <p/>
+     * The {@link ServletExternalContext servlet external context} keeps the
+     * state of the response (redirects, completion) of the flow executor call
+     * it is handed to; so, once handed, it is replaced by a new one for the
+     * next call during the same request (e.g. a chained flow action). The
+     * flow scope lookups read no response state, sharing one either way.
+     *
+     * @return {@link ExternalContext external context}
+     */
+    public static ExternalContext getExternalContextForExecution() {
+        HttpServletRequest request = ServletActionContext.getRequest();
+
+        // handed to the flow executor already?
+        // if yes, a new one takes over
+        if (request.getAttribute(EXECUTED_ATTRIBUTE_NAME) != null)
+            request.removeAttribute(EXTERNAL_CONTEXT_ATTRIBUTE_NAME);
+
+        ExternalContext context = getExternalContext();
+        request.setAttribute(EXECUTED_ATTRIBUTE_NAME, Boolean.TRUE);
+
+        return context;
+    }
+
     /**
      * Creates the {@link ExternalContext external context} and additionally
      * attaches the
      * {@link ActionContext#getActionInvocation() action invocation} to its
      * request map.
+     * <p/>
+     * Better use {@link #getExternalContext()} to share the one of the
+     * current request.
      *
      * @return {@link ExternalContext external context}
      */
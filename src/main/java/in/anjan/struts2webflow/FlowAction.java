@@ -16,15 +16,45 @@
 
 package in.anjan.struts2webflow;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.struts2.ServletActionContext;
 import org.apache.struts2.dispatcher.DefaultActionSupport;
+import org.apache.struts2.dispatcher.Dispatcher;
+import org.apache.struts2.result.ServletDispatcherResult;
+import org.apache.struts2.result.StrutsResultSupport;
 
 import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.context.ExternalContextHolder;
 import org.springframework.webflow.executor.FlowExecutionResult;
 import org.springframework.webflow.executor.FlowExecutor;
 
+import com.opensymphony.xwork2.ActionContext;
+import com.opensymphony.xwork2.ActionInvocation;
+import com.opensymphony.xwork2.ObjectFactory;
+import com.opensymphony.xwork2.Result;
+import com.opensymphony.xwork2.config.entities.ActionConfig;
+import com.opensymphony.xwork2.config.entities.InterceptorMapping;
+import com.opensymphony.xwork2.config.entities.ResultConfig;
+import com.opensymphony.xwork2.util.TextParseUtil;
+import com.opensymphony.xwork2.util.ValueStack;
+
+import in.anjan.struts2webflow.metrics.FlowMetrics;
+import in.anjan.struts2webflow.metrics.PhaseTracer;
+
 /**
  * The adapter between the Struts 2 action layer and the Spring Web Flow
  * engine, enables to execute Spring Web Flow under the Struts 2.
@@ -44,6 +74,13 @@ import org.springframework.webflow.executor.FlowExecutor;
  *  org.springframework.webflow.definition.TransitionDefinition#getId()
  *  transition event id}
  * by the request parameter named as {@code _eventId} along with others.
+ * <p/>
+ * With an {@link PluginConfiguration#setAsyncExecutor(Executor) async
+ * executor} configured, the flow execution runs on that executor while the
+ * container thread is released; the Struts result is then completed from
+ * there, without going through the interceptors again. Unless a flow scope
+ * interceptor is in the stack of the flow action, then it executes
+ * synchronously (see {@link #isAsyncCompatible(List)}).
  */
 public class FlowAction
         extends DefaultActionSupport {
@@ -60,6 +97,16 @@ public class FlowAction
      */
     public static final String DEFAULT_PAUSED_KEY_EXPRESSION = "pausedKey";
 
+    /**
+     * Key to mark the action context of a request whose flow execution has
+     * been handed over to the async executor.
+     */
+    private static final String ASYNC_EXECUTION_KEY = FlowAction.class.getName() + ".asyncExecution";
+    /**
+     * Flow actions (by namespace and name) warned about executing
+     * synchronously in spite of the async executor, not to warn again.
+     */
+    private static final ConcurrentMap<String, Boolean> SYNC_WARNED = new ConcurrentHashMap<String, Boolean>();
 
     /**
      * The {@link PluginConfiguration plugin configuration} as configured.
@@ -85,42 +132,328 @@ public class FlowAction
      * <p/>
      * <p/>
      * Must be set through {@link #setPausedKey(String)}.
-     * <br/>Will be set every time either from the session or the value stack.
+     * <br/>Will be set every time either from the
+     * {@link PausedKeyStore paused key store} or the value stack.
      */
     private String pausedKey;
 
+    /**
+     * Whether the flow execution of the request of this action context has
+     * been handed over to the async executor.
+     * <p/>
+     * If so, the request thread must leave the paused key and the flow
+     * execution scope alone; the executor thread takes care of them.
+     *
+     * @param context action context of the request
+     * @return {@code true} if handed over, {@code false} otherwise
+     */
+    static boolean isExecutingAsync(ActionContext context) {
+        return context.get(ASYNC_EXECUTION_KEY) != null;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public String execute() {
-        // create the external context
-        ExternalContext context = ExternalContextUtils.createExternalContext();
+        // get the external context of this request
+        // (a new one, if handed to the flow executor already)
+        ExternalContext context = ExternalContextUtils.getExternalContextForExecution();
+        PausedKeyStore pausedKeyStore = configuration.getPausedKeyStore();
+
         // get the flow executor
         FlowExecutor executor = FlowExecutorUtils.getRequiredFlowExecutor(configuration.getFlowExecutorBean());
 
+        // don't have the paused key set?
+        // if yes, try the paused key store
+        if (pausedKey == null)
+            pausedKey = pausedKeyStore.getPausedKey(ActionContext.getContext());
+
         LOGGER.debug("old paused key {}", pausedKey);
 
+        // configured to execute asynchronously?
+        // if yes, hand it over and free the container thread
+        Executor asyncExecutor = configuration.getAsyncExecutor();
+        HttpServletRequest request = ServletActionContext.getRequest();
+        if (asyncExecutor != null && request.isAsyncSupported() && isAsyncCompatible()) {
+            executeAsync(asyncExecutor, executor, pausedKey, context, pausedKeyStore, request);
+            return NONE;
+        }
+
+        FlowExecutionResult result = executeFlow(executor, pausedKey, context);
+        storePausedKey(result, pausedKeyStore);
+        return getView(context);
+    }
+
+    /**
+     * Whether the flow action can execute asynchronously, warns (once per
+     * flow action) if not.
+     *
+     * @return {@code true} if compatible, {@code false} otherwise
+     * @see #isAsyncCompatible(List)
+     */
+    private boolean isAsyncCompatible() {
+        ActionConfig config = ActionContext.getContext().getActionInvocation().getProxy().getConfig();
+        if (isAsyncCompatible(config.getInterceptors()))
+            return true;
+
+        if (SYNC_WARNED.putIfAbsent(config.getPackageName() + "/" + config.getName(), Boolean.TRUE) == null)
+            LOGGER.warn("flow action {} has a flow scope interceptor in its stack, executing synchronously",
+                    config.getName());
+
+        return false;
+    }
+
+    /**
+     * Whether the flow action of the interceptor stack can execute
+     * asynchronously.
+     * <p/>
+     * Not if a {@link AbstractFlowScopeInterceptor flow scope interceptor} is
+     * in the stack: the flow action returns on the request thread as soon as
+     * the flow execution is handed over, so the interceptor's
+     * {@link com.opensymphony.xwork2.interceptor.PreResultListener pre result
+     * listener} would copy the values to the flow execution before it
+     * resumes (to be overwritten by it), rather than after as it does
+     * synchronously.
+     *
+     * @param interceptors interceptor stack of the flow action
+     * @return {@code true} if compatible, {@code false} otherwise
+     */
+    static boolean isAsyncCompatible(List<InterceptorMapping> interceptors) {
+        for (InterceptorMapping interceptor : interceptors) {
+            if (interceptor.getInterceptor() instanceof AbstractFlowScopeInterceptor)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Launches or resumes the flow execution.
+     *
+     * @param executor  {@link FlowExecutor flow executor}
+     * @param pausedKey {@link FlowExecutionResult#getPausedKey() flow
+     *                  execution paused key} to resume, {@code null} to
+     *                  launch
+     * @param context   {@link ExternalContext external context}
+     * @return {@link FlowExecutionResult flow execution result}
+     */
+    private FlowExecutionResult executeFlow(FlowExecutor executor, String pausedKey, ExternalContext context) {
+        // flow executor resets the external context holder
+        // so, need to restore the old one afterwards
+        ExternalContext oldContext = ExternalContextHolder.getExternalContext();
+
         // don't have the paused key?
         // if no, launch the flow execution
         // else, resume the flow execution
-        FlowExecutionResult result =
-                pausedKey == null
-                        ? executor.launchExecution(flowId, null, context)
-                        : executor.resumeExecution(pausedKey, context);
+        PhaseTracer.Phase phase = pausedKey == null ? PhaseTracer.Phase.FLOW_LAUNCH : PhaseTracer.Phase.FLOW_RESUME;
+        PhaseTracer.getInstance().begin(phase);
+        long start = System.nanoTime();
+        FlowExecutionResult result = null;
+        try {
+            result = pausedKey == null
+                    ? executor.launchExecution(flowId, null, context)
+                    : executor.resumeExecution(pausedKey, context);
+            return result;
+        } finally {
+            ExternalContextHolder.setExternalContext(oldContext);
+
+            recordExecution(flowId, pausedKey, result, System.nanoTime() - start);
+            PhaseTracer.getInstance().end(phase);
+        }
+    }
+
+    /**
+     * Records the latency of the flow launch or resume to the
+     * {@link FlowMetrics plugin metrics}.
+     * <p/>
+     * A resume is recorded under the flow id of the resumed flow execution,
+     * as the flow action resuming it need not know the flow id; not recorded
+     * at all if failed and the flow id is unknown.
+     *
+     * @param flowId    flow id as configured, if any
+     * @param pausedKey {@link FlowExecutionResult#getPausedKey() flow
+     *                  execution paused key} resumed, {@code null} if
+     *                  launched
+     * @param result    {@link FlowExecutionResult flow execution result}, or
+     *                  {@code null} if failed
+     * @param nanos     latency in nanoseconds
+     */
+    static void recordExecution(String flowId, String pausedKey, FlowExecutionResult result, long nanos) {
+        // launched?
+        // if yes, record under the flow id as configured
+        if (pausedKey == null) {
+            FlowMetrics.getInstance().recordLaunch(flowId, nanos);
+            return;
+        }
+
+        // need the flow id of the resumed flow execution
+        // unless failed, then the one configured (if any)
+        String resumedFlowId = result != null && result.getFlowId() != null ? result.getFlowId() : flowId;
+        if (resumedFlowId != null)
+            FlowMetrics.getInstance().recordResume(resumedFlowId, nanos);
+    }
 
+    /**
+     * Stores the new paused key.
+     *
+     * @param result         {@link FlowExecutionResult flow execution result}
+     * @param pausedKeyStore {@link PausedKeyStore paused key store}
+     */
+    private void storePausedKey(FlowExecutionResult result, PausedKeyStore pausedKeyStore) {
         // need to store the paused key
-        // will be put to the session
+        // will be put to the paused key store
         // so, next time, can resume the flow execution
         pausedKey = result.isEnded() ? null : result.getPausedKey();
+        if (pausedKeyStore.setPausedKey(ActionContext.getContext(), pausedKey))
+            FlowScopeUtils.resetFlowRequestState();
 
         LOGGER.debug("new paused key {}", pausedKey);
+    }
 
+    /**
+     * Picks the view.
+     *
+     * @param context {@link ExternalContext external context}
+     * @return the view, as the Struts result
+     */
+    private static String getView(ExternalContext context) {
         // hoping view resolver had put it correctly
         // let the Struts handle it
         return (String) context.getRequestMap().get(JspViewResolver.DEFAULT_VIEW_ATTRIBUTE_NAME);
     }
 
+    /**
+     * Starts an async request, launches or resumes the flow execution on the
+     * executor, stores the paused key and completes the Struts result from
+     * there.
+     * <p/>
+     * The flow execution works on a copy of the action context and of the
+     * value stack, as this request carries on unwinding the interceptors
+     * meanwhile. Those leave the paused key alone, seeing
+     * {@link #isExecutingAsync(ActionContext) it handed over}.
+     *
+     * @param asyncExecutor  {@link Executor executor} to execute on
+     * @param executor       {@link FlowExecutor flow executor}
+     * @param pausedKey      {@link FlowExecutionResult#getPausedKey() flow
+     *                       execution paused key} to resume, {@code null} to
+     *                       launch
+     * @param context        {@link ExternalContext external context}
+     * @param pausedKeyStore {@link PausedKeyStore paused key store}
+     * @param request        the request
+     */
+    private void executeAsync(Executor asyncExecutor,
+                              final FlowExecutor executor,
+                              final String pausedKey,
+                              final ExternalContext context,
+                              PausedKeyStore pausedKeyStore,
+                              HttpServletRequest request) {
+        final AsyncContext asyncContext = request.startAsync();
+        if (configuration.getAsyncTimeout() > 0)
+            asyncContext.setTimeout(configuration.getAsyncTimeout());
+
+        final ActionContext actionContext = ActionContextUtils.copy(ActionContext.getContext());
+        final Dispatcher dispatcher = Dispatcher.getInstance();
+        final AsyncExecution execution = new AsyncExecution(pausedKeyStore);
+        asyncContext.addListener(execution);
+
+        // mark this request handed over
+        // so, the interceptors being unwound leave it alone
+        ActionContext.getContext().put(ASYNC_EXECUTION_KEY, Boolean.TRUE);
+
+        LOGGER.debug("executing flow {} asynchronously", flowId);
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ActionContext.setContext(actionContext);
+                Dispatcher.setInstance(dispatcher);
+                try {
+                    // request timed out or failed meanwhile?
+                    // if yes, it's gone along with the response
+                    if (!execution.finish(executeFlow(executor, pausedKey, context)))
+                        return;
+
+                    executeResult(asyncContext, getView(context));
+                } catch (Exception e) {
+                    execution.fail(asyncContext, e);
+                } catch (Error e) {
+                    execution.fail(asyncContext, e);
+                    throw e;
+                } finally {
+                    ActionContext.setContext(null);
+                    Dispatcher.setInstance(null);
+                }
+            }
+        };
+
+        try {
+            asyncExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            execution.fail(asyncContext, e);
+        }
+    }
+
+    /**
+     * Completes the Struts result of the view, from the executor thread.
+     * <p/>
+     * A {@link ServletDispatcherResult dispatcher result} is dispatched to its
+     * location straight away (the container renders it after this request
+     * thread is done); any other result is executed here and the request
+     * completed. Either way, the interceptors do not run again, neither do
+     * the {@link com.opensymphony.xwork2.interceptor.PreResultListener pre
+     * result listeners} (already run once for this request).
+     *
+     * @param asyncContext async context of the request
+     * @param view         the view, as the Struts result
+     * @throws Exception in case of failure
+     */
+    private static void executeResult(AsyncContext asyncContext, String view)
+            throws Exception {
+        // no view? (e.g. flow ended, or an external redirect)
+        // if yes, nothing to render
+        if (view == null || NONE.equals(view)) {
+            asyncContext.complete();
+            return;
+        }
+
+        ActionContext actionContext = ActionContext.getContext();
+        ActionInvocation invocation = actionContext.getActionInvocation();
+        ResultConfig resultConfig = invocation.getProxy().getConfig().getResults().get(view);
+        if (resultConfig == null)
+            throw new IllegalStateException("no result " + view + " configured for action "
+                    + invocation.getProxy().getActionName());
+
+        // dispatcher result?
+        // if yes, dispatch to its location, rendered against this value stack
+        // else, execute the result here
+        if (ServletDispatcherResult.class.getName().equals(resultConfig.getClassName())) {
+            ValueStack stack = actionContext.getValueStack();
+            String location = TextParseUtil.translateVariables(
+                    resultConfig.getParams().get(StrutsResultSupport.DEFAULT_PARAM), stack);
+
+            // relative location?
+            // if yes, relative to the action namespace, as the dispatcher result does
+            if (!location.startsWith("/")) {
+                String namespace = invocation.getProxy().getNamespace();
+                location = (namespace == null || namespace.length() == 0 || "/".equals(namespace)
+                        ? "/" : namespace + "/") + location;
+            }
+
+            LOGGER.debug("dispatching result {} to {}", view, location);
+
+            asyncContext.getRequest().setAttribute(ServletActionContext.STRUTS_VALUESTACK_KEY, stack);
+            asyncContext.dispatch(location);
+        } else {
+            LOGGER.debug("executing result {}", view);
+
+            Result result = actionContext.getContainer().getInstance(ObjectFactory.class)
+                    .buildResult(resultConfig, actionContext.getContextMap());
+            result.execute(invocation);
+            asyncContext.complete();
+        }
+    }
+
     /**
      * {@link PluginConfiguration Plugin configuration} as configured.
      *
@@ -158,7 +491,8 @@ public class FlowAction
      *  flow execution}
      * by this paused key.
      * <p/>
-     * Will be set every time either from the session or the value stack.
+     * Will be set every time either from the
+     * {@link PausedKeyStore paused key store} or the value stack.
      *
      * @param pausedKey {@link
      *                   FlowExecutionResult#getPausedKey()
@@ -168,4 +502,151 @@ public class FlowAction
     public void setPausedKey(String pausedKey) {
         this.pausedKey = pausedKey;
     }
+
+    /**
+     * State of an asynchronous flow execution, shared by the executor thread
+     * and the container (as the {@link AsyncListener async listener}).
+     * <p/>
+     * Whichever gets hold of the request first owns it: either the executor
+     * thread finishes the flow execution and stores the new paused key, or
+     * the container times out or fails the request. Storing the paused key
+     * and expiring the request are mutually exclusive, so the container never
+     * releases the request with the paused key half stored.
+     */
+    private final class AsyncExecution
+            implements AsyncListener {
+
+        /**
+         * {@link PausedKeyStore Paused key store} to store the new paused key
+         * to.
+         */
+        private final PausedKeyStore pausedKeyStore;
+        /**
+         * Whether the flow execution has finished and its paused key stored.
+         */
+        private boolean finished;
+        /**
+         * Whether the request has timed out or failed.
+         */
+        private boolean expired;
+
+        /**
+         * @param pausedKeyStore {@link PausedKeyStore paused key store} to
+         *                       store the new paused key to
+         */
+        AsyncExecution(PausedKeyStore pausedKeyStore) {
+            this.pausedKeyStore = pausedKeyStore;
+        }
+
+        /**
+         * Stores the new paused key, unless the request has expired meanwhile.
+         *
+         * @param result {@link FlowExecutionResult flow execution result}
+         * @return {@code true} if stored, {@code false} if expired
+         */
+        synchronized boolean finish(FlowExecutionResult result) {
+            if (expired) {
+                LOGGER.warn("flow {} executed after its request expired, paused key {} is lost",
+                        flowId, result.isEnded() ? null : result.getPausedKey());
+                return false;
+            }
+
+            storePausedKey(result, pausedKeyStore);
+            finished = true;
+            return true;
+        }
+
+        /**
+         * Reports the failure of the executor thread and completes the
+         * request, unless it has expired already.
+         *
+         * @param asyncContext async context of the request
+         * @param failure      the failure
+         */
+        void fail(AsyncContext asyncContext, Throwable failure) {
+            synchronized (this) {
+                if (expired) {
+                    LOGGER.warn("flow {} failed after its request expired", flowId, failure);
+                    return;
+                }
+                expired = true;
+            }
+
+            LOGGER.error("unable to execute flow {} asynchronously", flowId, failure);
+            sendError(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            synchronized (this) {
+                if (expired)
+                    return;
+                expired = true;
+
+                // paused key already stored?
+                // if yes, only the result was too slow to complete
+                if (finished) {
+                    LOGGER.warn("flow {} timed out completing the result, paused key {} is stored",
+                            flowId, pausedKey);
+                    return;
+                }
+            }
+
+            LOGGER.error("flow {} timed out executing, its new paused key will be lost", flowId);
+            sendError(event.getAsyncContext(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onError(AsyncEvent event) {
+            synchronized (this) {
+                if (expired)
+                    return;
+                expired = true;
+            }
+
+            LOGGER.error("flow {} failed asynchronously, paused key {}",
+                    flowId, finished ? pausedKey : "not stored", event.getThrowable());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onComplete(AsyncEvent event) {
+            // no-op;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // no-op;
+        }
+
+        /**
+         * Sends the error and completes the request.
+         *
+         * @param asyncContext async context of the request
+         * @param status       status of the error
+         */
+        private void sendError(AsyncContext asyncContext, int status) {
+            try {
+                HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                if (!response.isCommitted())
+                    response.sendError(status);
+                asyncContext.complete();
+            } catch (IOException e) {
+                LOGGER.warn("unable to send error {}", status, e);
+            } catch (IllegalStateException e) {
+                LOGGER.warn("unable to send error {}", status, e);
+            }
+        }
+    }
 }
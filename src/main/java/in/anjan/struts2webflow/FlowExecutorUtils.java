@@ -16,11 +16,22 @@
 
 package in.anjan.struts2webflow;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.ServletContext;
+
 import org.apache.struts2.ServletActionContext;
 
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ApplicationContextEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
+import org.springframework.webflow.execution.repository.FlowExecutionRepository;
 import org.springframework.webflow.executor.FlowExecutor;
+import org.springframework.webflow.executor.FlowExecutorImpl;
 
 /**
  * The {@link FlowExecutor flow executor} utils.
@@ -29,9 +40,54 @@ import org.springframework.webflow.executor.FlowExecutor;
  * {@link
  *  WebApplicationContextUtils#getRequiredWebApplicationContext(javax.servlet.ServletContext)
  *  Spring web application context}.
+ * <p/>
+ * Resolved {@link FlowExecutor flow executors} are cached per servlet context
+ * (as its attribute, so going away along with the web application) and bean
+ * name, until the Spring web application context is
+ * {@link ContextRefreshedEvent refreshed} or {@link ContextClosedEvent closed}.
  */
 public final class FlowExecutorUtils {
 
+    /**
+     * Servlet context attribute name to hold the
+     * {@link FlowExecutorCache flow executor cache}.
+     */
+    private static final String CACHE_ATTRIBUTE_NAME = FlowExecutorCache.class.getName();
+
+    /**
+     * @return {@link FlowExecutorCache flow executor cache} of the current
+     *         servlet context
+     */
+    private static FlowExecutorCache getFlowExecutorCache() {
+        ServletContext servletContext = ServletActionContext.getServletContext();
+
+        // need to find the Spring web application context
+        // (just a servlet context attribute lookup)
+        WebApplicationContext context =
+                WebApplicationContextUtils.getRequiredWebApplicationContext(servletContext);
+
+        // have the cache for this Spring web application context?
+        // if yes, go with it
+        FlowExecutorCache cache = (FlowExecutorCache) servletContext.getAttribute(CACHE_ATTRIBUTE_NAME);
+        if (cache != null && cache.context == context)
+            return cache;
+
+        // if no, create and register it to be invalidated
+        // only once, not to register a listener per racing request
+        synchronized (servletContext) {
+            cache = (FlowExecutorCache) servletContext.getAttribute(CACHE_ATTRIBUTE_NAME);
+            if (cache == null || cache.context != context) {
+                cache = new FlowExecutorCache(servletContext, context);
+                servletContext.setAttribute(CACHE_ATTRIBUTE_NAME, cache);
+
+                if (context instanceof ConfigurableApplicationContext)
+                    ((ConfigurableApplicationContext) context).addApplicationListener(cache);
+            }
+        }
+
+        return cache;
+    }
+
     /**
      * {@link FlowExecutor Flow executor} must be configured in the Spring
      * web application context hierarchy.
@@ -44,18 +100,114 @@ public final class FlowExecutorUtils {
      *                          context hierarchy.
      */
     public static FlowExecutor getRequiredFlowExecutor(String flowExecutorBean) {
-        // need to find the Spring web application context
-        WebApplicationContext context =
-                WebApplicationContextUtils
-                        .getRequiredWebApplicationContext(
-                                ServletActionContext.getServletContext());
+        FlowExecutorCache cache = getFlowExecutorCache();
+
+        // already resolved?
+        // if yes, no need to go through the bean factory
+        FlowExecutor executor = cache.executors.get(flowExecutorBean);
+        if (executor != null)
+            return executor;
 
         // have the flow executor configured?
         // if yes, get the flow execution
         // else, blame
-        if (context.containsBean(flowExecutorBean))
-            return context.getBean(flowExecutorBean, FlowExecutor.class);
+        if (cache.context.containsBean(flowExecutorBean)) {
+            executor = cache.context.getBean(flowExecutorBean, FlowExecutor.class);
+            cache.executors.put(flowExecutorBean, executor);
+            return executor;
+        }
 
         throw new RuntimeException("Flow executor named as '" + flowExecutorBean + "' not found!");
     }
+
+    /**
+     * {@link FlowExecutor Flow executor} must be configured in the Spring
+     * web application context hierarchy and must be a
+     * {@link FlowExecutorImpl}.
+     *
+     * @param flowExecutorBean {@link FlowExecutor flow executor} bean name to
+     *                         be used
+     * @return {@link FlowExecutionRepository flow execution repository} of the
+     *         {@link FlowExecutor flow executor}
+     * @throws RuntimeException in case {@link FlowExecutor flow executor} is
+     *                          not configured in the Spring web application
+     *                          context hierarchy.
+     */
+    public static FlowExecutionRepository getRequiredFlowExecutionRepository(String flowExecutorBean) {
+        FlowExecutorCache cache = getFlowExecutorCache();
+
+        FlowExecutionRepository repository = cache.repositories.get(flowExecutorBean);
+        if (repository != null)
+            return repository;
+
+        repository = ((FlowExecutorImpl) getRequiredFlowExecutor(flowExecutorBean)).getExecutionRepository();
+        cache.repositories.put(flowExecutorBean, repository);
+        return repository;
+    }
+
+    /**
+     * Resolved {@link FlowExecutor flow executors} and their
+     * {@link FlowExecutionRepository flow execution repositories} of a Spring
+     * web application context, by bean name.
+     * <p/>
+     * Invalidated as soon as the Spring web application context is
+     * {@link ContextRefreshedEvent refreshed}, and removed from the servlet
+     * context once {@link ContextClosedEvent closed}.
+     */
+    private static final class FlowExecutorCache
+            implements ApplicationListener<ApplicationContextEvent> {
+
+        /**
+         * Servlet context the cache is held by.
+         */
+        private final ServletContext servletContext;
+        /**
+         * Spring web application context the beans are resolved from.
+         */
+        private final WebApplicationContext context;
+        /**
+         * {@link FlowExecutor Flow executors} by bean name.
+         */
+        private final ConcurrentMap<String, FlowExecutor> executors =
+                new ConcurrentHashMap<String, FlowExecutor>();
+        /**
+         * {@link FlowExecutionRepository Flow execution repositories} by
+         * {@link FlowExecutor flow executor} bean name.
+         */
+        private final ConcurrentMap<String, FlowExecutionRepository> repositories =
+                new ConcurrentHashMap<String, FlowExecutionRepository>();
+
+        /**
+         * @param servletContext servlet context the cache is held by
+         * @param context        Spring web application context the beans
+         *                       are resolved from
+         */
+        private FlowExecutorCache(ServletContext servletContext, WebApplicationContext context) {
+            this.servletContext = servletContext;
+            this.context = context;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onApplicationEvent(ApplicationContextEvent event) {
+            if (event.getApplicationContext() != context)
+                return;
+
+            if (event instanceof ContextRefreshedEvent || event instanceof ContextClosedEvent) {
+                executors.clear();
+                repositories.clear();
+            }
+
+            // closed?
+            // if yes, let go of the cache, unless replaced already
+            if (event instanceof ContextClosedEvent) {
+                synchronized (servletContext) {
+                    if (servletContext.getAttribute(CACHE_ATTRIBUTE_NAME) == this)
+                        servletContext.removeAttribute(CACHE_ATTRIBUTE_NAME);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.Map;
+
+import org.springframework.webflow.execution.FlowExecutionKey;
+
+/**
+ * The flow related state of the current request, as detected by the
+ * {@link FlowScopeUtils flow scope utils}.
+ * <p/>
+ * Computed once per request (and
+ * {@link PausedKeyStore paused key store}) and kept in the action context,
+ * so that every plugin component answers whether it is within a flow without
+ * looking at the parameters and the session again.
+ */
+final class FlowRequestState {
+
+    /**
+     * {@link PausedKeyStore Paused key store} the paused key has been looked
+     * up from.
+     */
+    private final PausedKeyStore pausedKeyStore;
+    /**
+     * {@link
+     *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *  Flow execution paused key}
+     * as resolved from the {@link PausedKeyStore paused key store}, if any.
+     */
+    private final String pausedKey;
+    /**
+     * {@link FlowExecutionKey Flow execution key} parsed from the paused key,
+     * once the flow execution scope is asked for.
+     */
+    private FlowExecutionKey flowExecutionKey;
+    /**
+     * The flow execution scope, once asked for.
+     */
+    private Map scope;
+    /**
+     * The {@link TrackingFlowScopeMap tracked flow execution scope}, once
+     * asked for.
+     */
+    private Map trackedScope;
+
+    /**
+     * @param pausedKeyStore {@link PausedKeyStore paused key store} the paused
+     *                       key has been looked up from
+     * @param pausedKey      {@link
+     *                        org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *                        flow execution paused key}
+     *                       as resolved, if any
+     */
+    FlowRequestState(PausedKeyStore pausedKeyStore, String pausedKey) {
+        this.pausedKeyStore = pausedKeyStore;
+        this.pausedKey = pausedKey;
+    }
+
+    /**
+     * @param pausedKeyStore {@link PausedKeyStore paused key store} the paused
+     *                       key is to be looked up from
+     * @return {@code true} if the paused key has been looked up from the same
+     *         (or an equal) store, {@code false} otherwise
+     */
+    boolean isFor(PausedKeyStore pausedKeyStore) {
+        // every plugin component has its own configuration
+        // so, equal stores (e.g. by the session key) are the same store
+        return this.pausedKeyStore.equals(pausedKeyStore);
+    }
+
+    /**
+     * @return {@code true} if the paused key exists, {@code false} otherwise
+     */
+    boolean hasPausedKey() {
+        return pausedKey != null;
+    }
+
+    /**
+     * @return {@link
+     *          org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *          flow execution paused key}
+     *         as resolved, if any
+     */
+    String getPausedKey() {
+        return pausedKey;
+    }
+
+    /**
+     * @return {@link FlowExecutionKey flow execution key}, if parsed already
+     */
+    FlowExecutionKey getFlowExecutionKey() {
+        return flowExecutionKey;
+    }
+
+    /**
+     * @param flowExecutionKey {@link FlowExecutionKey flow execution key} as
+     *                         parsed
+     */
+    void setFlowExecutionKey(FlowExecutionKey flowExecutionKey) {
+        this.flowExecutionKey = flowExecutionKey;
+    }
+
+    /**
+     * @param tracked {@code true} for the
+     *                {@link TrackingFlowScopeMap tracked} one, {@code false}
+     *                otherwise
+     * @return the flow execution scope, if fetched already
+     */
+    Map getScope(boolean tracked) {
+        return tracked ? trackedScope : scope;
+    }
+
+    /**
+     * @param tracked {@code true} for the
+     *                {@link TrackingFlowScopeMap tracked} one, {@code false}
+     *                otherwise
+     * @param scope   the flow execution scope as fetched
+     */
+    void setScope(boolean tracked, Map scope) {
+        if (tracked)
+            this.trackedScope = scope;
+        else
+            this.scope = scope;
+    }
+}
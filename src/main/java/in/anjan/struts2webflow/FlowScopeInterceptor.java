@@ -21,13 +21,32 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.struts2.StrutsConstants;
+
 import com.opensymphony.xwork2.ActionContext;
 import com.opensymphony.xwork2.ActionInvocation;
+import com.opensymphony.xwork2.conversion.impl.XWorkConverter;
+import com.opensymphony.xwork2.inject.Inject;
+import com.opensymphony.xwork2.ognl.OgnlUtil;
 import com.opensymphony.xwork2.util.ValueStack;
+import com.opensymphony.xwork2.util.reflection.ReflectionContextState;
+import ognl.Ognl;
+import ognl.OgnlException;
 
 /**
  * Interceptor to {@link #intercept(ActionInvocation) intercept the invocation}
  * of the Struts 2 action to set the required values to value stack.
+ * <p/>
+ * The flow scope keys are compiled into OGNL trees once, on {@link #init()},
+ * through the {@link OgnlUtil} of the container (so, checked as the value
+ * stack checks an expression), and evaluated against the value stack context
+ * and root on every request, setting up and cleaning up the context as the
+ * value stack does.
+ * <p/>
+ * The value stack itself is used instead, on dev mode (to report the
+ * failures as it does), for a key having an expression override (a
+ * conversion error) and when the keys could not be compiled (e.g. built
+ * without the container).
  */
 public class FlowScopeInterceptor
         extends AbstractFlowScopeInterceptor {
@@ -37,7 +56,52 @@ public class FlowScopeInterceptor
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(FlowScopeInterceptor.class);
 
-    private String[] flowScope = null;
+    /**
+     * No flow scope keys.
+     */
+    private static final FlowScopeExpression[] NO_FLOW_SCOPE = new FlowScopeExpression[0];
+
+    /**
+     * Flow scope keys as configured, compiled on {@link #init()}.
+     * <p/>
+     * Can be set through {@link #setFlowScope(String)}.
+     */
+    private FlowScopeExpression[] flowScope = NO_FLOW_SCOPE;
+    /**
+     * {@link OgnlUtil} of the container, to compile the flow scope keys.
+     * <p/>
+     * Injected through {@link #setOgnlUtil(OgnlUtil)}.
+     */
+    private OgnlUtil ognlUtil;
+    /**
+     * Whether on dev mode.
+     * <p/>
+     * Injected through {@link #setDevMode(String)}.
+     */
+    private boolean devMode;
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Compiles the flow scope keys.
+     *
+     * @throws IllegalArgumentException in case a key is not a valid OGNL
+     *                                  expression
+     */
+    @Override
+    public void init() {
+        super.init();
+
+        // no container to compile with?
+        // if yes, leave it to the value stack
+        if (ognlUtil == null) {
+            LOGGER.debug("no OGNL util, flow scope keys left to the value stack");
+            return;
+        }
+
+        for (FlowScopeExpression expression : flowScope)
+            expression.compile(ognlUtil);
+    }
 
     /**
      * {@inheritDoc}
@@ -53,13 +117,11 @@ public class FlowScopeInterceptor
             Map flowScopeMap = getFlowScopeAsMap();
             ValueStack stack = ActionContext.getContext().getValueStack();
 
-            if (flowScope != null) {
-                for (String key : flowScope) {
-                    Object value = flowScopeMap.get(key);
-                    if (value != null) {
-                        LOGGER.debug("found {} with value {} in flow scope", key, value);
-                        stack.setValue(key, value);
-                    }
+            for (FlowScopeExpression expression : flowScope) {
+                Object value = flowScopeMap.get(expression.key);
+                if (value != null) {
+                    LOGGER.debug("found {} with value {} in flow scope", expression.key, value);
+                    expression.setValue(stack, value, devMode);
                 }
             }
         }
@@ -79,18 +141,156 @@ public class FlowScopeInterceptor
             ValueStack stack = ActionContext.getContext().getValueStack();
             Map flowScopeAsMap = getFlowScopeAsMap();
 
-            for (String key : flowScope) {
-                Object value = stack.findValue(key);
+            for (FlowScopeExpression expression : flowScope) {
+                Object value = expression.findValue(stack);
                 if (value != null) {
-                    LOGGER.debug("found {} with value {} in value stack", key, value);
-                    flowScopeAsMap.put(key, value);
+                    LOGGER.debug("found {} with value {} in value stack", expression.key, value);
+                    flowScopeAsMap.put(expression.key, value);
                 }
             }
+
+            // persist the changes, if required
+            writeBackFlowScope();
         }
     }
 
+    /**
+     * Comma separated flow scope keys, each one is an OGNL expression to
+     * find/set the value from/to the value stack.
+     *
+     * @param flowScope comma separated flow scope keys to be set
+     */
     public void setFlowScope(String flowScope) {
-        if (flowScope != null)
-            this.flowScope = flowScope.split(" *, *");
+        if (flowScope == null || flowScope.trim().length() == 0) {
+            this.flowScope = NO_FLOW_SCOPE;
+            return;
+        }
+
+        String[] keys = flowScope.trim().split(" *, *");
+        FlowScopeExpression[] expressions = new FlowScopeExpression[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            expressions[i] = new FlowScopeExpression(keys[i]);
+
+        this.flowScope = expressions;
+    }
+
+    /**
+     * {@link OgnlUtil} of the container, to compile the flow scope keys.
+     *
+     * @param ognlUtil {@link OgnlUtil} to be set
+     */
+    @Inject
+    public void setOgnlUtil(OgnlUtil ognlUtil) {
+        this.ognlUtil = ognlUtil;
+    }
+
+    /**
+     * Whether on dev mode.
+     *
+     * @param devMode {@code "true"} if on dev mode
+     */
+    @Inject(value = StrutsConstants.STRUTS_DEVMODE, required = false)
+    public void setDevMode(String devMode) {
+        this.devMode = Boolean.parseBoolean(devMode);
+    }
+
+    /**
+     * A flow scope key along with its compiled OGNL tree.
+     */
+    private static final class FlowScopeExpression {
+
+        /**
+         * The flow scope key.
+         */
+        private final String key;
+        /**
+         * The compiled OGNL tree of the key, if compiled.
+         */
+        private Object tree;
+
+        /**
+         * @param key the flow scope key
+         */
+        private FlowScopeExpression(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Compiles the key.
+         *
+         * @param ognlUtil {@link OgnlUtil} to compile with
+         * @throws IllegalArgumentException in case the key is not a valid
+         *                                  OGNL expression
+         */
+        private void compile(OgnlUtil ognlUtil) {
+            try {
+                this.tree = ognlUtil.compile(key);
+            } catch (OgnlException e) {
+                throw new IllegalArgumentException("Invalid flow scope key '" + key + "'", e);
+            }
+        }
+
+        /**
+         * Finds the value from the value stack, as
+         * {@link ValueStack#findValue(String)} does.
+         *
+         * @param stack value stack
+         * @return the value, or {@code null} if not found
+         */
+        @SuppressWarnings("unchecked")
+        private Object findValue(ValueStack stack) {
+            // not compiled, or overridden (by a conversion error)?
+            // if yes, let the value stack find it
+            Map overrides = stack.getExprOverrides();
+            if (tree == null || (overrides != null && overrides.containsKey(key)))
+                return stack.findValue(key);
+
+            Map<String, Object> context = stack.getContext();
+            try {
+                Object value = Ognl.getValue(tree, context, stack.getRoot());
+
+                // not on the stack?
+                // if yes, try the context, as the value stack does
+                return value != null ? value : context.get(key);
+            } catch (OgnlException e) {
+                LOGGER.debug("unable to find {} in value stack", key, e);
+                return context.get(key);
+            } finally {
+                ReflectionContextState.clear(context);
+            }
+        }
+
+        /**
+         * Sets the value to the value stack, as
+         * {@link ValueStack#setValue(String, Object)} does.
+         *
+         * @param stack   value stack
+         * @param value   the value
+         * @param devMode whether on dev mode
+         */
+        private void setValue(ValueStack stack, Object value, boolean devMode) {
+            // not compiled, or on dev mode?
+            // if yes, let the value stack set it (and report failures)
+            if (tree == null || devMode) {
+                stack.setValue(key, value);
+                return;
+            }
+
+            Map<String, Object> context = stack.getContext();
+            try {
+                context.put(XWorkConverter.CONVERSION_PROPERTY_FULLNAME, key);
+                context.put(ValueStack.REPORT_ERRORS_ON_NO_PROP, Boolean.FALSE);
+
+                Ognl.setValue(tree, context, stack.getRoot(), value);
+            } catch (OgnlException e) {
+                LOGGER.debug("unable to set {} to value stack", key, e);
+            } catch (RuntimeException e) {
+                LOGGER.warn("unable to set {} to value stack", key, e);
+            } finally {
+                ReflectionContextState.clear(context);
+                context.remove(XWorkConverter.CONVERSION_PROPERTY_FULLNAME);
+                context.remove(ValueStack.REPORT_ERRORS_ON_NO_PROP);
+            }
+        }
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read through view of the flow execution scope, to be pushed to the value
+ * stack as a single root object.
+ * <p/>
+ * The values are looked up from the live flow execution scope on demand,
+ * instead of copying every one of them to the value stack up front. As with
+ * {@link com.opensymphony.xwork2.util.ValueStack#set(String, Object)}, the
+ * values set through the value stack stay within the request and do not
+ * turn up to the flow execution scope.
+ */
+final class FlowScopeRoot
+        extends AbstractMap<String, Object> {
+
+    /**
+     * The flow execution scope.
+     */
+    private final Map scope;
+    /**
+     * The values set through the value stack.
+     */
+    private final Map<String, Object> overrides = new HashMap<String, Object>();
+
+    /**
+     * @param scope the flow execution scope
+     */
+    FlowScopeRoot(Map scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return overrides.containsKey(key) || scope.get(key) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object get(Object key) {
+        return overrides.containsKey(key) ? overrides.get(key) : scope.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object put(String key, Object value) {
+        Object oldValue = get(key);
+        overrides.put(key, value);
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Copies the entries, so better be avoided on the hot path.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> entries = new HashMap<String, Object>();
+        for (Object entry : scope.entrySet()) {
+            Entry<String, Object> scopeEntry = (Entry<String, Object>) entry;
+            if (scopeEntry.getValue() != null)
+                entries.put(scopeEntry.getKey(), scopeEntry.getValue());
+        }
+        entries.putAll(overrides);
+
+        return entries.entrySet();
+    }
+}
@@ -16,7 +16,14 @@
 
 package in.anjan.struts2webflow;
 
+import java.util.HashMap;
 import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.struts2.ServletActionContext;
 
 import org.springframework.webflow.context.ExternalContext;
 import org.springframework.webflow.context.ExternalContextHolder;
@@ -24,18 +31,53 @@ import org.springframework.webflow.core.collection.MutableAttributeMap;
 import org.springframework.webflow.execution.FlowExecution;
 import org.springframework.webflow.execution.FlowExecutionKey;
 import org.springframework.webflow.execution.RequestContext;
+import org.springframework.webflow.execution.repository.FlowExecutionLock;
 import org.springframework.webflow.execution.repository.FlowExecutionRepository;
+import org.springframework.webflow.execution.repository.FlowExecutionRepositoryException;
 import org.springframework.webflow.executor.FlowExecutor;
-import org.springframework.webflow.executor.FlowExecutorImpl;
 
 import com.opensymphony.xwork2.ActionContext;
-import com.opensymphony.xwork2.ActionInvocation;
+
+import in.anjan.struts2webflow.metrics.FlowMetrics;
+import in.anjan.struts2webflow.metrics.PhaseTracer;
 
 /**
  * The {@link org.springframework.webflow.engine.Flow flow} scope utils.
  */
 public final class FlowScopeUtils {
 
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlowScopeUtils.class);
+
+    /**
+     * Request attribute name to cache the
+     * {@link FlowExecution flow executions} fetched from the
+     * {@link FlowExecutionRepository flow execution repository} during the
+     * current request.
+     */
+    private static final String FLOW_EXECUTION_CACHE_ATTRIBUTE_NAME =
+            FlowScopeUtils.class.getName() + ".flowExecutionCache";
+    /**
+     * Request attribute name to hold the
+     * {@link TrackingFlowScopeMap tracked flow execution scopes} handed out
+     * during the current request, to be written back later.
+     */
+    private static final String TRACKED_FLOW_SCOPES_ATTRIBUTE_NAME =
+            FlowScopeUtils.class.getName() + ".trackedFlowScopes";
+    /**
+     * Action context key to hold the {@link FlowRequestState flow request
+     * state} of the current request.
+     */
+    private static final String FLOW_REQUEST_STATE_KEY = FlowRequestState.class.getName();
+    /**
+     * Action context key to hold the {@link ForkedFlowScopeMap flow
+     * execution scope} of a branch of the
+     * {@link ParallelStrutsActionAction parallel Struts action action}.
+     */
+    static final String FORKED_FLOW_SCOPE_KEY = ForkedFlowScopeMap.class.getName();
+
     /**
      * @return {@link RequestContext request context}
      */
@@ -53,77 +95,159 @@ public final class FlowScopeUtils {
     }
 
     /**
-     * @param pausedKeySessionKey {@link
-     *                             org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
-     *                             flow execution paused key}
-     *                            to be used
-     * @return {@link
-     *          org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
-     *          flow execution paused key}
+     * Finds the {@link FlowRequestState flow request state} from the action
+     * context, computes it if not done yet during the current request.
+     *
+     * @param pausedKeyStore {@link PausedKeyStore paused key store} to be
+     *                       used
+     * @return {@link FlowRequestState flow request state}
      */
-    private static String getPauseKey(String pausedKeySessionKey) {
+    private static FlowRequestState getFlowRequestState(PausedKeyStore pausedKeyStore) {
         ActionContext context = ActionContext.getContext();
-        ActionInvocation invocation = context.getActionInvocation();
 
-        // trying to find the paused key from
-        // a) parameters
-        // b) session
+        FlowRequestState state = (FlowRequestState) context.get(FLOW_REQUEST_STATE_KEY);
+        if (state == null || !state.isFor(pausedKeyStore)) {
+            state = new FlowRequestState(pausedKeyStore, pausedKeyStore.getPausedKey(context));
+            context.put(FLOW_REQUEST_STATE_KEY, state);
+        }
+
+        return state;
+    }
 
-        String pauseKey =
-                invocation.getInvocationContext()
-                                     .getParameters()
-                                     .get(FlowAction.DEFAULT_PAUSED_KEY_EXPRESSION).getValue();
+    /**
+     * Finds the {@link FlowExecution flow execution} from the request scoped
+     * cache, or from the
+     * {@link FlowExecutionRepository flow execution repository} if not
+     * fetched yet during the current request.
+     * <p/>
+     * The cache lives as a request attribute, so it is released when the
+     * request ends and is shared by every interceptor in the stack.
+     *
+     * @param repository {@link FlowExecutionRepository flow execution
+     *                   repository} to be used
+     * @param key        {@link FlowExecutionKey flow execution key} to be used
+     * @return {@link FlowExecution flow execution}
+     */
+    @SuppressWarnings("unchecked")
+    private static FlowExecution getFlowExecution(FlowExecutionRepository repository, FlowExecutionKey key) {
+        HttpServletRequest request = ServletActionContext.getRequest();
 
-        if (pauseKey == null || "".equalsIgnoreCase(pauseKey)) {
-            Map<String, Object> session = context.getSession();
-            pauseKey = (String) session.get(pausedKeySessionKey);
+        Map<FlowExecutionKey, FlowExecution> cache =
+                (Map<FlowExecutionKey, FlowExecution>) request.getAttribute(FLOW_EXECUTION_CACHE_ATTRIBUTE_NAME);
+        if (cache == null) {
+            cache = new HashMap<FlowExecutionKey, FlowExecution>();
+            request.setAttribute(FLOW_EXECUTION_CACHE_ATTRIBUTE_NAME, cache);
         }
 
-        return pauseKey;
+        // already fetched during this request?
+        // if no, fetch it from the repository
+        // (might need to deserialize the snapshot)
+        FlowExecution flowExecution = cache.get(key);
+        if (flowExecution == null) {
+            PhaseTracer.getInstance().begin(PhaseTracer.Phase.REPOSITORY_FETCH);
+            long start = System.nanoTime();
+            try {
+                flowExecution = repository.getFlowExecution(key);
+            } finally {
+                FlowMetrics.getInstance().recordFlowScopeFetch(System.nanoTime() - start);
+                PhaseTracer.getInstance().end(PhaseTracer.Phase.REPOSITORY_FETCH);
+            }
+
+            cache.put(key, flowExecution);
+        }
+
+        return flowExecution;
     }
 
     /**
-     * @param pausedKeySessionKey {@link
-     *                             org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
-     *                             flow execution paused key}
-     *                            to be used
-     * @return {@code true} if {@link #getPauseKey(String) paused key} exists,
-     *         {@code false} otherwise
+     * @return {@link TrackingFlowScopeMap tracked flow execution scopes}
+     *         handed out during the current request
      */
-    private static boolean hasPauseKey(String pausedKeySessionKey) {
-        return getPauseKey(pausedKeySessionKey) != null;
+    @SuppressWarnings("unchecked")
+    private static Map<FlowExecutionKey, TrackingFlowScopeMap> getTrackedFlowScopes() {
+        HttpServletRequest request = ServletActionContext.getRequest();
+
+        Map<FlowExecutionKey, TrackingFlowScopeMap> trackedFlowScopes =
+                (Map<FlowExecutionKey, TrackingFlowScopeMap>) request.getAttribute(TRACKED_FLOW_SCOPES_ATTRIBUTE_NAME);
+        if (trackedFlowScopes == null) {
+            trackedFlowScopes = new HashMap<FlowExecutionKey, TrackingFlowScopeMap>();
+            request.setAttribute(TRACKED_FLOW_SCOPES_ATTRIBUTE_NAME, trackedFlowScopes);
+        }
+
+        return trackedFlowScopes;
+    }
+
+    /**
+     * @param flowExecutorBean {@link FlowExecutor flow executor} bean name to
+     *                         be used
+     * @return {@link FlowExecutionRepository flow execution repository}
+     */
+    private static FlowExecutionRepository getRepository(String flowExecutorBean) {
+        return FlowExecutorUtils.getRequiredFlowExecutionRepository(flowExecutorBean);
     }
 
     /**
      * Finds the flow execution scope from flow execution repository.
      *
-     * @param pausedKeySessionKey {@link
-     *                             org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
-     *                             flow execution paused key}
-     *                            to be used
-     * @param flowExecutorBean    {@link FlowExecutor flow executor} bean name to
-     *                            be used
+     * @param state            {@link FlowRequestState flow request state} to
+     *                         be used
+     * @param flowExecutorBean {@link FlowExecutor flow executor} bean name to
+     *                         be used
+     * @param writeBack        {@code true} to track the changes to be
+     *                         {@link #writeBackFlowScope(PluginConfiguration)
+     *                         written back}, {@code false} otherwise
      * @return flow execution scope as map
      */
-    private static Map getExternalFlowScopeAsMap(String pausedKeySessionKey, String flowExecutorBean) {
+    @SuppressWarnings("unchecked")
+    private static Map getExternalFlowScopeAsMap(FlowRequestState state,
+                                                 String flowExecutorBean,
+                                                 boolean writeBack) {
+        // fetched already during this request?
+        // if yes, no need to go through the repository
+        Map scopeAsMap = state.getScope(writeBack);
+        if (scopeAsMap != null)
+            return scopeAsMap;
+
         ExternalContext oldContext = ExternalContextHolder.getExternalContext();
 
-        // need to create and set the external context
-        ExternalContext context = ExternalContextUtils.createExternalContext();
-        ExternalContextHolder.setExternalContext(context);
+        // need to set the external context
+        ExternalContextHolder.setExternalContext(ExternalContextUtils.getExternalContext());
 
         // find the flow execution and its scape
-        FlowExecutionRepository repository =
-                ((FlowExecutorImpl) FlowExecutorUtils.getRequiredFlowExecutor(flowExecutorBean))
-                        .getExecutionRepository();
+        FlowExecutionKey key;
+        FlowExecution flowExecution;
+        MutableAttributeMap scope;
+        try {
+            FlowExecutionRepository repository = getRepository(flowExecutorBean);
 
-        FlowExecutionKey key = repository.parseFlowExecutionKey(getPauseKey(pausedKeySessionKey));
-        FlowExecution flowExecution = repository.getFlowExecution(key);
-        MutableAttributeMap scope = flowExecution.getActiveSession().getScope();
+            key = state.getFlowExecutionKey();
+            if (key == null) {
+                key = repository.parseFlowExecutionKey(state.getPausedKey());
+                state.setFlowExecutionKey(key);
+            }
+
+            flowExecution = getFlowExecution(repository, key);
+            scope = flowExecution.getActiveSession().getScope();
+        } finally {
+            ExternalContextHolder.setExternalContext(oldContext);
+        }
 
-        ExternalContextHolder.setExternalContext(oldContext);
+        if (!writeBack) {
+            scopeAsMap = scope.asMap();
+        } else {
+            // need to track the changes
+            // so, hand out the same tracked scope during the request
+            Map<FlowExecutionKey, TrackingFlowScopeMap> trackedFlowScopes = getTrackedFlowScopes();
+            TrackingFlowScopeMap trackedFlowScope = trackedFlowScopes.get(key);
+            if (trackedFlowScope == null) {
+                trackedFlowScope = new TrackingFlowScopeMap(scope.asMap());
+                trackedFlowScopes.put(key, trackedFlowScope);
+            }
+            scopeAsMap = trackedFlowScope;
+        }
 
-        return scope.asMap();
+        state.setScope(writeBack, scopeAsMap);
+        return scopeAsMap;
     }
 
     /**
@@ -133,7 +257,7 @@ public final class FlowScopeUtils {
      *         otherwise
      */
     public static boolean hasFlowScope(PluginConfiguration configuration) {
-        return hasRequestContext() || hasPauseKey(configuration.getPausedKeySessionKey());
+        return hasRequestContext() || getFlowRequestState(configuration.getPausedKeyStore()).hasPausedKey();
     }
 
     /**
@@ -142,13 +266,119 @@ public final class FlowScopeUtils {
      * @return flow execution scope
      */
     public static Map getFlowScopeAsMap(PluginConfiguration configuration) {
+        // running on a branch of a parallel action state?
+        // if yes, the branch has a flow scope of its own
+        Map forkedFlowScope = (Map) ActionContext.getContext().get(FORKED_FLOW_SCOPE_KEY);
+        if (forkedFlowScope != null)
+            return forkedFlowScope;
+
         // have request context?
         // if yes, get scope from request context
         // else get it from flow execution repository
         return hasRequestContext()
                 ? getRequestContext().getFlowScope().asMap()
                 : getExternalFlowScopeAsMap(
-                        configuration.getPausedKeySessionKey(),
-                        configuration.getFlowExecutorBean());
+                        getFlowRequestState(configuration.getPausedKeyStore()),
+                        configuration.getFlowExecutorBean(),
+                        configuration.isFlowScopeWriteBack());
+    }
+
+    /**
+     * Forgets the {@link FlowRequestState flow request state} of the current
+     * request, to be computed again on next use.
+     * <p/>
+     * Required once the
+     * {@link
+     *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *  flow execution paused key}
+     * has changed.
+     */
+    public static void resetFlowRequestState() {
+        ActionContext.getContext().put(FLOW_REQUEST_STATE_KEY, null);
+    }
+
+    /**
+     * Puts the {@link FlowExecution flow executions} back to the
+     * {@link FlowExecutionRepository flow execution repository}, whose scope
+     * has been changed outside of a flow request.
+     * <p/>
+     * Does nothing unless
+     * {@link PluginConfiguration#isFlowScopeWriteBack() write back} is
+     * enabled, within a flow request (the flow executor persists it) or when
+     * nothing has been changed (no need to re-serialize the snapshot).
+     *
+     * @param configuration {@link PluginConfiguration plugin configuration} to
+     *                      be used
+     */
+    public static void writeBackFlowScope(PluginConfiguration configuration) {
+        if (!configuration.isFlowScopeWriteBack() || hasRequestContext())
+            return;
+
+        // flow being executed asynchronously meanwhile?
+        // if yes, leave its flow execution alone
+        if (FlowAction.isExecutingAsync(ActionContext.getContext()))
+            return;
+
+        Map<FlowExecutionKey, TrackingFlowScopeMap> trackedFlowScopes = getTrackedFlowScopes();
+        if (trackedFlowScopes.isEmpty())
+            return;
+
+        ExternalContext oldContext = ExternalContextHolder.getExternalContext();
+
+        // need to set the external context
+        // conversation manager needs it
+        ExternalContextHolder.setExternalContext(ExternalContextUtils.getExternalContext());
+
+        PhaseTracer.getInstance().begin(PhaseTracer.Phase.FLOW_SCOPE_WRITE_BACK);
+        try {
+            FlowExecutionRepository repository = getRepository(configuration.getFlowExecutorBean());
+
+            for (Map.Entry<FlowExecutionKey, TrackingFlowScopeMap> entry : trackedFlowScopes.entrySet()) {
+                TrackingFlowScopeMap trackedFlowScope = entry.getValue();
+                if (!trackedFlowScope.isDirty())
+                    continue;
+
+                LOGGER.debug("writing back {} changed in flow scope", trackedFlowScope.getChangedKeys());
+
+                // need to hold the conversation lock
+                // while fetching and putting the flow execution back
+                FlowExecution flowExecution;
+                String oldPausedKey;
+                FlowExecutionLock lock = repository.getLock(entry.getKey());
+                lock.lock();
+                try {
+                    // a flow request might have resumed it since fetched
+                    // so, fetch it again and apply only the changed keys
+                    flowExecution = repository.getFlowExecution(entry.getKey());
+                    if (!flowExecution.isActive()) {
+                        LOGGER.warn("flow execution {} ended meanwhile, dropping {} changed in flow scope",
+                                entry.getKey(), trackedFlowScope.getChangedKeys());
+                        continue;
+                    }
+
+                    trackedFlowScope.applyChangesTo(flowExecution.getActiveSession().getScope());
+                    oldPausedKey = flowExecution.getKey().toString();
+                    repository.putFlowExecution(flowExecution);
+                } catch (FlowExecutionRepositoryException e) {
+                    LOGGER.warn("unable to write back {} changed in flow scope of flow execution {}",
+                            trackedFlowScope.getChangedKeys(), entry.getKey(), e);
+                    continue;
+                } finally {
+                    lock.unlock();
+                }
+
+                trackedFlowScope.markClean();
+
+                // key re-encoded by the put? (e.g. client side repository)
+                // if yes, need to hand out the new paused key
+                String pausedKey = flowExecution.getKey().toString();
+                if (!pausedKey.equals(oldPausedKey)
+                        && configuration.getPausedKeyStore().setPausedKey(ActionContext.getContext(), pausedKey))
+                    resetFlowRequestState();
+            }
+        } finally {
+            PhaseTracer.getInstance().end(PhaseTracer.Phase.FLOW_SCOPE_WRITE_BACK);
+            ExternalContextHolder.setExternalContext(oldContext);
+        }
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Flow execution scope of a branch of the
+ * {@link ParallelStrutsActionAction parallel Struts action action}.
+ * <p/>
+ * Reads through to the flow execution scope, which stays untouched while the
+ * branches run; the changes are kept by the branch, to be
+ * {@link #applyTo(Map) applied} once all the branches have joined.
+ */
+final class ForkedFlowScopeMap
+        extends AbstractMap<String, Object> {
+
+    /**
+     * Marks a removed key among the changes.
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * The flow execution scope.
+     */
+    private final Map<String, Object> scope;
+    /**
+     * The changes, in order; {@link #REMOVED} for a removed key.
+     */
+    private final Map<String, Object> changes = new LinkedHashMap<String, Object>();
+
+    /**
+     * @param scope the flow execution scope
+     */
+    ForkedFlowScopeMap(Map<String, Object> scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return changes.containsKey(key) ? changes.get(key) != REMOVED : scope.containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object get(Object key) {
+        if (!changes.containsKey(key))
+            return scope.get(key);
+
+        Object value = changes.get(key);
+        return value != REMOVED ? value : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object put(String key, Object value) {
+        Object oldValue = get(key);
+        changes.put(key, value);
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object remove(Object key) {
+        Object oldValue = get(key);
+        changes.put((String) key, REMOVED);
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Copies the entries, changes are to be made through
+     * {@link #put(String, Object)} and {@link #remove(Object)}.
+     */
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> entries = new HashMap<String, Object>(scope);
+        for (Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() != REMOVED)
+                entries.put(change.getKey(), change.getValue());
+            else
+                entries.remove(change.getKey());
+        }
+
+        return entries.entrySet();
+    }
+
+    /**
+     * Applies the changes to the flow execution scope.
+     *
+     * @param target the flow execution scope
+     */
+    void applyTo(Map<String, Object> target) {
+        for (Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() != REMOVED)
+                target.put(change.getKey(), change.getValue());
+            else
+                target.remove(change.getKey());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request of a branch of the
+ * {@link ParallelStrutsActionAction parallel Struts action action}.
+ * <p/>
+ * Reads the attributes through to the request, which stays untouched while
+ * the branches run; the attributes set or removed by the branch are kept by
+ * the branch, and dropped once it has joined.
+ */
+final class ForkedHttpServletRequest
+        extends HttpServletRequestWrapper {
+
+    /**
+     * Marks a removed attribute among the changes.
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * The attributes set or removed by the branch; {@link #REMOVED} for a
+     * removed one.
+     */
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    /**
+     * @param request the request
+     */
+    ForkedHttpServletRequest(HttpServletRequest request) {
+        super(request);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttribute(String name) {
+        if (!attributes.containsKey(name))
+            return super.getAttribute(name);
+
+        Object value = attributes.get(name);
+        return value != REMOVED ? value : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        Set<String> names = new LinkedHashSet<String>(Collections.list(super.getAttributeNames()));
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            if (attribute.getValue() != REMOVED)
+                names.add(attribute.getKey());
+            else
+                names.remove(attribute.getKey());
+        }
+
+        return Collections.enumeration(names);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value == null)
+            removeAttribute(name);
+        else
+            attributes.put(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAttribute(String name) {
+        attributes.put(name, REMOVED);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import org.springframework.binding.message.DefaultMessageContext;
+import org.springframework.binding.message.Message;
+import org.springframework.binding.message.MessageContext;
+import org.springframework.binding.message.MessageResolver;
+import org.springframework.context.MessageSource;
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.core.collection.ParameterMap;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.StateDefinition;
+import org.springframework.webflow.definition.TransitionDefinition;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.FlowExecutionContext;
+import org.springframework.webflow.execution.RequestContext;
+import org.springframework.webflow.execution.View;
+
+/**
+ * {@link RequestContext Request context} of a branch of the
+ * {@link ParallelStrutsActionAction parallel Struts action action}.
+ * <p/>
+ * Keeps the shared flow state read only while the branches run: the flow
+ * execution scope is the {@link ForkedFlowScopeMap one of the branch}, the
+ * messages are kept by the branch to be
+ * {@link #mergeMessagesTo(MessageContext) merged} once it has joined, the
+ * external context is the one of the branch, and every other scope is
+ * read only.
+ */
+final class ForkedRequestContext
+        implements RequestContext {
+
+    /**
+     * The {@link RequestContext request context} of the flow request.
+     */
+    private final RequestContext context;
+    /**
+     * {@link ExternalContext External context} of the branch.
+     */
+    private final ExternalContext externalContext;
+    /**
+     * Flow execution scope of the branch.
+     */
+    private final MutableAttributeMap<Object> flowScope;
+    /**
+     * Messages of the branch.
+     */
+    private final DefaultMessageContext messageContext;
+
+    /**
+     * @param context         the {@link RequestContext request context} of
+     *                        the flow request
+     * @param externalContext {@link ExternalContext external context} of the
+     *                        branch
+     * @param flowScope       flow execution scope of the branch
+     */
+    ForkedRequestContext(RequestContext context, ExternalContext externalContext, ForkedFlowScopeMap flowScope) {
+        this.context = context;
+        this.externalContext = externalContext;
+        this.flowScope = new LocalAttributeMap<Object>(flowScope);
+
+        // need to resolve the messages as the flow request does
+        MessageContext messages = context.getMessageContext();
+        this.messageContext = messages instanceof DefaultMessageContext
+                ? new DefaultMessageContext(((DefaultMessageContext) messages).getMessageSource())
+                : new DefaultMessageContext();
+    }
+
+    /**
+     * @param scope a scope of the flow request
+     * @return read only view of the scope
+     */
+    private static MutableAttributeMap<Object> readOnly(MutableAttributeMap<Object> scope) {
+        return new LocalAttributeMap<Object>(Collections.unmodifiableMap(scope.asMap()));
+    }
+
+    /**
+     * Adds the messages of the branch to the messages of the flow request.
+     *
+     * @param target messages of the flow request
+     */
+    void mergeMessagesTo(MessageContext target) {
+        for (final Message message : messageContext.getAllMessages()) {
+            target.addMessage(new MessageResolver() {
+                @Override
+                public Message resolveMessage(MessageSource messageSource, Locale locale) {
+                    return message;
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowDefinition getActiveFlow() {
+        return context.getActiveFlow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StateDefinition getCurrentState() {
+        return context.getCurrentState();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransitionDefinition getMatchingTransition(String eventId) {
+        return context.getMatchingTransition(eventId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean inViewState() {
+        return context.inViewState();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Read only.
+     */
+    @Override
+    public MutableAttributeMap<Object> getRequestScope() {
+        return readOnly(context.getRequestScope());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Read only.
+     */
+    @Override
+    public MutableAttributeMap<Object> getFlashScope() {
+        return readOnly(context.getFlashScope());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Read only.
+     */
+    @Override
+    public MutableAttributeMap<Object> getViewScope() {
+        return readOnly(context.getViewScope());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The one of the branch.
+     */
+    @Override
+    public MutableAttributeMap<Object> getFlowScope() {
+        return flowScope;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Read only.
+     */
+    @Override
+    public MutableAttributeMap<Object> getConversationScope() {
+        return readOnly(context.getConversationScope());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ParameterMap getRequestParameters() {
+        return context.getRequestParameters();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The one of the branch.
+     */
+    @Override
+    public ExternalContext getExternalContext() {
+        return externalContext;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The one of the branch.
+     */
+    @Override
+    public MessageContext getMessageContext() {
+        return messageContext;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionContext getFlowExecutionContext() {
+        return context.getFlowExecutionContext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event getCurrentEvent() {
+        return context.getCurrentEvent();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransitionDefinition getCurrentTransition() {
+        return context.getCurrentTransition();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public View getCurrentView() {
+        return context.getCurrentView();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Read only.
+     */
+    @Override
+    public MutableAttributeMap<Object> getAttributes() {
+        return readOnly(context.getAttributes());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getFlowExecutionUrl() {
+        return context.getFlowExecutionUrl();
+    }
+}
@@ -0,0 +1,717 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.struts2.ServletActionContext;
+import org.apache.struts2.StrutsStatics;
+import org.apache.struts2.dispatcher.Dispatcher;
+import org.apache.struts2.dispatcher.RequestMap;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.StringUtils;
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+import org.springframework.webflow.execution.RequestContextHolder;
+
+import com.opensymphony.xwork2.ActionContext;
+
+/**
+ * Executes several Struts 2 actions of an action state concurrently, and
+ * joins their results into a single event.
+ * <p/>
+ * The actions are listed by the {@code actions} attribute of the action
+ * state, comma separated, each as {@code [namespace/]action[!method]}; the
+ * namespace defaults to the one of the flow action, as with the
+ * {@link StrutsActionAction}. The results are joined by the {@code join}
+ * attribute of the action state, or the {@link #setJoin(Join) configured}
+ * {@link Join join rule}; every result is also handed over by the
+ * {@link #RESULTS_ATTRIBUTE_NAME results} attribute of the event. Without
+ * the {@code actions} attribute, it executes a single action as the
+ * {@link StrutsActionAction} does.
+ * <p/>
+ * Every action runs with its own action proxy, on a copy of the action
+ * context and of the value stack, with a request, an external context and a
+ * request context of its own; one of them on the current thread, the others
+ * on a bounded executor. The shared flow state is read only meanwhile: the
+ * request attributes, the flow execution scope changes and the messages of
+ * every action are kept per action; the flow execution scope changes and the
+ * messages are applied in the listed order once all the actions are done,
+ * the request attributes are dropped. Every other scope is read only to the
+ * actions.
+ * <p/>
+ * The join fails as soon as any action fails, or the
+ * {@link #setJoinTimeoutMillis(long) join timeout} elapses; the outstanding
+ * actions are then cancelled (interrupted). A parallel action state reached
+ * from within an action of another one runs its actions one by one on the
+ * same thread, as waiting for threads of the same executor might never end.
+ */
+public class ParallelStrutsActionAction
+        extends StrutsActionAction
+        implements DisposableBean {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelStrutsActionAction.class);
+
+    /**
+     * Name of the event attribute holding the result of every action, by
+     * the action as listed.
+     */
+    public static final String RESULTS_ATTRIBUTE_NAME = "results";
+    /**
+     * Default number of threads of the executor, unless
+     * {@link #setExecutor(ExecutorService) another one} is set.
+     */
+    public static final int DEFAULT_MAX_THREADS = 16;
+    /**
+     * Default number of actions the executor queues while its threads are
+     * busy, unless {@link #setExecutor(ExecutorService) another one} is set.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    /**
+     * Default time to wait for the actions to join, in milliseconds.
+     */
+    public static final long DEFAULT_JOIN_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Struts actions attribute name.
+     */
+    static final String ACTIONS_ATTRIBUTE_NAME = "actions";
+    /**
+     * Join rule attribute name.
+     */
+    static final String JOIN_ATTRIBUTE_NAME = "join";
+    /**
+     * Action context key of the Struts request map.
+     */
+    private static final String REQUEST_MAP_KEY = "request";
+
+    /**
+     * Marks the threads running an action of a parallel action state.
+     * <p/>
+     * Set only for as long as the action runs, so it pins nothing.
+     */
+    private static final ThreadLocal<Boolean> FORKED = new ThreadLocal<Boolean>();
+
+    /**
+     * Rules to join the results of the actions into one.
+     */
+    public enum Join {
+
+        /**
+         * {@code success} if every action succeeded, otherwise the result of
+         * the first one (as listed) which did not.
+         */
+        ALL_SUCCESS {
+            @Override
+            String join(List<String> results) {
+                for (String result : results)
+                    if (!SUCCESS_RESULT.equals(result))
+                        return result;
+                return SUCCESS_RESULT;
+            }
+        },
+        /**
+         * The result of the first action as listed, the others are run for
+         * their side effects.
+         */
+        FIRST {
+            @Override
+            String join(List<String> results) {
+                return results.get(0);
+            }
+        },
+        /**
+         * The result all the actions agree on, otherwise {@code error}.
+         */
+        UNANIMOUS {
+            @Override
+            String join(List<String> results) {
+                String first = results.get(0);
+                for (String result : results)
+                    if (first == null ? result != null : !first.equals(result))
+                        return ERROR_RESULT;
+                return first;
+            }
+        };
+
+        /**
+         * Struts success result.
+         */
+        private static final String SUCCESS_RESULT = "success";
+        /**
+         * Struts error result.
+         */
+        private static final String ERROR_RESULT = "error";
+
+        /**
+         * @param results results of the actions, as listed
+         * @return the joined result
+         */
+        abstract String join(List<String> results);
+
+        /**
+         * @param text join rule as defined by the {@code join} attribute of
+         *             an action state, in any case
+         * @return the {@link Join join rule}
+         * @throws IllegalArgumentException in case of an unknown join rule
+         */
+        static Join parse(String text) {
+            // upper cased in English
+            // not to depend on the default locale (e.g. dotted I in Turkish)
+            String name = text.trim().toUpperCase(Locale.ENGLISH);
+            for (Join join : values())
+                if (join.name().equals(name))
+                    return join;
+
+            throw new IllegalArgumentException("Invalid " + JOIN_ATTRIBUTE_NAME + " attribute '" + text
+                    + "', must be one of " + Arrays.toString(values()) + " (in any case)");
+        }
+    }
+
+    /**
+     * {@link Target Targets} as defined in the action states, by their raw
+     * text.
+     */
+    private final ConcurrentMap<String, List<Target>> targets = new ConcurrentHashMap<String, List<Target>>();
+    /**
+     * Executor to run the actions on.
+     * <p/>
+     * Can be set through {@link #setExecutor(ExecutorService)}, created on
+     * first use otherwise.
+     */
+    private volatile ExecutorService executor;
+    /**
+     * Whether the executor is created by this, to be shut down along with.
+     */
+    private boolean ownExecutor;
+    /**
+     * Number of threads of the executor created by this.
+     * <p/>
+     * Can be set through {@link #setMaxThreads(int)}.
+     */
+    private int maxThreads = DEFAULT_MAX_THREADS;
+    /**
+     * Number of actions the executor created by this queues.
+     * <p/>
+     * Can be set through {@link #setQueueCapacity(int)}.
+     */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    /**
+     * {@link Join Join rule} unless defined by the action state.
+     * <p/>
+     * Can be set through {@link #setJoin(Join)}.
+     */
+    private Join join = Join.ALL_SUCCESS;
+    /**
+     * Time to wait for the actions to join, in milliseconds; {@code 0} to
+     * wait for ever.
+     * <p/>
+     * Can be set through {@link #setJoinTimeoutMillis(long)}.
+     */
+    private long joinTimeoutMillis = DEFAULT_JOIN_TIMEOUT_MILLIS;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Event doExecute(RequestContext context)
+            throws Exception {
+        // not a parallel action state?
+        // if yes, execute the single action
+        String actions = (String) context.getAttributes().get(ACTIONS_ATTRIBUTE_NAME);
+        if (!StringUtils.hasText(actions))
+            return super.doExecute(context);
+
+        long start = System.nanoTime();
+        try {
+            return executeActions(context, getTargets(actions));
+        } finally {
+            recordActionState(context, actions, start);
+        }
+    }
+
+    /**
+     * Forks the Struts actions, and joins them.
+     *
+     * @param context {@link RequestContext request context}
+     * @param targets {@link Target targets} of the actions
+     * @return the joined result
+     * @throws Exception the first failure of the actions
+     */
+    private Event executeActions(RequestContext context, List<Target> targets)
+            throws Exception {
+        String defaultNamespace = getActionInvocation(context).getProxy().getNamespace();
+        Map<String, Object> flowScope = context.getFlowScope().asMap();
+
+        // fork
+        // every branch on its own copy of the action context
+        List<Branch> branches = new ArrayList<Branch>(targets.size());
+        for (Target target : targets)
+            branches.add(new Branch(context, target, defaultNamespace, flowScope));
+
+        // running on a branch already?
+        // if yes, run the branches one by one on this thread
+        // (might wait for ever on threads held by the parent branches)
+        // else, run them concurrently
+        List<String> results;
+        if (FORKED.get() != null) {
+            LOGGER.debug("executing {} Struts actions of a nested fork one by one", branches.size());
+            results = executeInline(branches);
+        } else {
+            LOGGER.debug("forking {} Struts actions", branches.size());
+            results = forkAndJoin(branches);
+        }
+
+        // apply the flow execution scope changes and the messages
+        // in the listed order
+        Map<String, String> resultsByTarget = new LinkedHashMap<String, String>();
+        for (int i = 0; i < branches.size(); i++) {
+            Branch branch = branches.get(i);
+            branch.flowScope.applyTo(flowScope);
+            branch.requestContext.mergeMessagesTo(context.getMessageContext());
+            resultsByTarget.put(targets.get(i).getText(), results.get(i));
+        }
+
+        String joinText = (String) context.getAttributes().get(JOIN_ATTRIBUTE_NAME);
+        Join join = StringUtils.hasText(joinText) ? Join.parse(joinText) : this.join;
+
+        Event event = result(join.join(results), RESULTS_ATTRIBUTE_NAME, resultsByTarget);
+
+        LOGGER.debug("returning event {} joined from {}", event, resultsByTarget);
+        return event;
+    }
+
+    /**
+     * Runs the first branch on this thread and the others on the executor,
+     * and waits for all of them; cancels the outstanding ones as soon as one
+     * fails or the {@link #setJoinTimeoutMillis(long) join timeout} elapses.
+     *
+     * @param branches the branches
+     * @return results of the branches, as listed
+     * @throws Exception the first failure of the branches
+     */
+    private List<String> forkAndJoin(List<Branch> branches)
+            throws Exception {
+        CompletionService<String> completionService = new ExecutorCompletionService<String>(getExecutor());
+        Map<Future<String>, Integer> futures = new HashMap<Future<String>, Integer>();
+        for (int i = 1; i < branches.size(); i++)
+            futures.put(completionService.submit(branches.get(i)), i);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(joinTimeoutMillis);
+        String[] results = new String[branches.size()];
+        try {
+            results[0] = branches.get(0).call();
+
+            // join
+            // in the order they are done, the first failure wins
+            for (int i = 1; i < branches.size(); i++) {
+                Future<String> future;
+                if (joinTimeoutMillis > 0) {
+                    future = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (future == null)
+                        throw new TimeoutException("Struts actions not joined in " + joinTimeoutMillis + " ms");
+                } else {
+                    future = completionService.take();
+                }
+
+                try {
+                    results[futures.get(future)] = future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw (Exception) e.getCause();
+                }
+            }
+        } finally {
+            // failed or timed out?
+            // if yes, no need for the outstanding ones
+            // (a no-op for the ones done)
+            for (Future<String> future : futures.keySet())
+                future.cancel(true);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Runs the branches one by one on this thread.
+     *
+     * @param branches the branches
+     * @return results of the branches, as listed
+     * @throws Exception the first failure of the branches
+     */
+    private static List<String> executeInline(List<Branch> branches)
+            throws Exception {
+        List<String> results = new ArrayList<String>(branches.size());
+        for (Branch branch : branches)
+            results.add(branch.call());
+
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        if (ownExecutor && executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * @param actions Struts actions as defined
+     * @return {@link Target targets} of the actions
+     */
+    private List<Target> getTargets(String actions) {
+        List<Target> parsed = targets.get(actions);
+        if (parsed == null) {
+            parsed = Target.parse(actions);
+            targets.put(actions, parsed);
+        }
+
+        return parsed;
+    }
+
+    /**
+     * @return executor to run the actions on
+     */
+    private ExecutorService getExecutor() {
+        ExecutorService executor = this.executor;
+        if (executor != null)
+            return executor;
+
+        synchronized (this) {
+            // bounded, threads and queue
+            // once both full, the forking thread runs the action itself
+            // (slowing down the requests forking, rather than piling them up)
+            if (this.executor == null) {
+                ThreadPoolExecutor threadPool =
+                        new ThreadPoolExecutor(
+                                maxThreads,
+                                maxThreads,
+                                60,
+                                TimeUnit.SECONDS,
+                                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                                new BranchThreadFactory(),
+                                new ThreadPoolExecutor.CallerRunsPolicy());
+                threadPool.allowCoreThreadTimeOut(true);
+
+                this.executor = threadPool;
+                this.ownExecutor = true;
+            }
+
+            return this.executor;
+        }
+    }
+
+    /**
+     * Executor to run the actions on, shared by the action states; to be
+     * bounded, as every action state takes as many threads as it has actions
+     * less one. Defaults to a pool of {@link #setMaxThreads(int) max
+     * threads} queuing up to {@link #setQueueCapacity(int) queue capacity}
+     * actions, running any action beyond on the forking thread.
+     *
+     * @param executor executor to be set
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        this.ownExecutor = false;
+    }
+
+    /**
+     * Number of threads of the default executor, defaults to
+     * {@link #DEFAULT_MAX_THREADS}.
+     *
+     * @param maxThreads number of threads to be set
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Number of actions the default executor queues while its threads are
+     * busy, defaults to {@link #DEFAULT_QUEUE_CAPACITY}; any action beyond
+     * runs on the forking thread, before it joins.
+     *
+     * @param queueCapacity number of actions to be set
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Time to wait for the actions to join, defaults to
+     * {@link #DEFAULT_JOIN_TIMEOUT_MILLIS}; the outstanding actions are
+     * cancelled once elapsed.
+     *
+     * @param joinTimeoutMillis time to wait in milliseconds, {@code 0} to
+     *                          wait for ever
+     */
+    public void setJoinTimeoutMillis(long joinTimeoutMillis) {
+        this.joinTimeoutMillis = joinTimeoutMillis;
+    }
+
+    /**
+     * {@link Join Join rule} unless defined by the action state, defaults to
+     * {@link Join#ALL_SUCCESS}.
+     *
+     * @param join {@link Join join rule} to be set
+     */
+    public void setJoin(Join join) {
+        this.join = join;
+    }
+
+    /**
+     * Struts namespace, action and action method of an action of a parallel
+     * action state.
+     */
+    static final class Target {
+
+        /**
+         * The target as defined.
+         */
+        private final String text;
+        /**
+         * Struts namespace as defined, {@code null} for the flow action's.
+         */
+        private final String namespace;
+        /**
+         * Struts action as defined.
+         */
+        private final String action;
+        /**
+         * Struts action method as defined, if any.
+         */
+        private final String method;
+
+        /**
+         * @param text the target as defined, {@code [namespace/]action[!method]}
+         */
+        private Target(String text) {
+            this.text = text;
+
+            int methodIndex = text.lastIndexOf('!');
+            String path = methodIndex >= 0 ? text.substring(0, methodIndex) : text;
+            this.method = methodIndex >= 0 ? text.substring(methodIndex + 1) : null;
+
+            int actionIndex = path.lastIndexOf('/');
+            this.namespace = actionIndex > 0 ? path.substring(0, actionIndex) : actionIndex == 0 ? "/" : null;
+            this.action = path.substring(actionIndex + 1);
+        }
+
+        /**
+         * @param actions Struts actions as defined, comma separated
+         * @return the targets
+         */
+        static List<Target> parse(String actions) {
+            List<Target> targets = new ArrayList<Target>();
+            for (String text : StringUtils.commaDelimitedListToStringArray(actions)) {
+                text = text.trim();
+                if (text.length() > 0)
+                    targets.add(new Target(text));
+            }
+
+            if (targets.isEmpty())
+                throw new IllegalArgumentException("No Struts actions in '" + actions + "'");
+
+            return Collections.unmodifiableList(targets);
+        }
+
+        /**
+         * @return the target as defined
+         */
+        String getText() {
+            return text;
+        }
+
+        /**
+         * @return Struts namespace as defined, {@code null} for the flow
+         *         action's
+         */
+        String getNamespace() {
+            return namespace;
+        }
+
+        /**
+         * @return Struts action as defined
+         */
+        String getAction() {
+            return action;
+        }
+
+        /**
+         * @return Struts action method as defined, if any
+         */
+        String getMethod() {
+            return method;
+        }
+    }
+
+    /**
+     * An action of a parallel action state, with everything it needs to run
+     * on another thread.
+     */
+    private final class Branch
+            implements Callable<String> {
+
+        /**
+         * {@link RequestContext Request context} of the flow request, shared.
+         */
+        private final RequestContext context;
+        /**
+         * The target action.
+         */
+        private final Target target;
+        /**
+         * Struts namespace of the flow action.
+         */
+        private final String defaultNamespace;
+        /**
+         * Copy of the action context, on the request of the branch.
+         */
+        private final ActionContext actionContext;
+        /**
+         * The dispatcher of the request.
+         */
+        private final Dispatcher dispatcher = Dispatcher.getInstance();
+        /**
+         * Flow execution scope of the branch.
+         */
+        private final ForkedFlowScopeMap flowScope;
+        /**
+         * {@link ForkedRequestContext Request context} of the branch, once
+         * run.
+         */
+        private ForkedRequestContext requestContext;
+
+        /**
+         * @param context          {@link RequestContext request context}
+         * @param target           the target action
+         * @param defaultNamespace Struts namespace of the flow action
+         * @param flowScope        the flow execution scope
+         */
+        Branch(RequestContext context, Target target, String defaultNamespace, Map<String, Object> flowScope) {
+            this.context = context;
+            this.target = target;
+            this.defaultNamespace = defaultNamespace;
+            this.flowScope = new ForkedFlowScopeMap(flowScope);
+
+            // need a request of its own
+            // so, the attributes set by the branch stay with it
+            HttpServletRequest request = new ForkedHttpServletRequest(ServletActionContext.getRequest());
+            this.actionContext = ActionContextUtils.copy(ActionContext.getContext());
+            this.actionContext.put(StrutsStatics.HTTP_REQUEST, request);
+            this.actionContext.put(REQUEST_MAP_KEY, new RequestMap(request));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String call()
+                throws Exception {
+            Boolean oldForked = FORKED.get();
+            ActionContext oldActionContext = ActionContext.getContext();
+            Dispatcher oldDispatcher = Dispatcher.getInstance();
+            ExternalContext oldExternalContext = ExternalContextHolder.getExternalContext();
+            RequestContext oldRequestContext = RequestContextHolder.getRequestContext();
+
+            FORKED.set(Boolean.TRUE);
+            ActionContext.setContext(actionContext);
+            Dispatcher.setInstance(dispatcher);
+            try {
+                // need an external and a request context of its own
+                // on the request of the branch
+                ExternalContext externalContext = ExternalContextUtils.createExternalContext();
+                requestContext = new ForkedRequestContext(context, externalContext, flowScope);
+
+                ExternalContextHolder.setExternalContext(externalContext);
+                RequestContextHolder.setRequestContext(requestContext);
+
+                return executeAction(
+                        requestContext,
+                        target.getNamespace() != null ? target.getNamespace() : defaultNamespace,
+                        target.getAction(),
+                        target.getMethod(),
+                        flowScope);
+            } finally {
+                ActionContext.setContext(oldActionContext);
+                Dispatcher.setInstance(oldDispatcher);
+                ExternalContextHolder.setExternalContext(oldExternalContext);
+                RequestContextHolder.setRequestContext(oldRequestContext);
+                if (oldForked == null)
+                    FORKED.remove();
+                else
+                    FORKED.set(oldForked);
+            }
+        }
+    }
+
+    /**
+     * Thread factory of the default executor, daemon threads named after
+     * this.
+     */
+    private static final class BranchThreadFactory
+            implements ThreadFactory {
+
+        /**
+         * Number of threads created.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "struts2webflow-parallel-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
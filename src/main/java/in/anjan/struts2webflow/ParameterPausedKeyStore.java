@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import org.apache.struts2.ServletActionContext;
+import org.apache.struts2.dispatcher.HttpParameters;
+import org.apache.struts2.dispatcher.Parameter;
+
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+import com.opensymphony.xwork2.ActionContext;
+
+/**
+ * {@link PausedKeyStore Paused key store} keeping nothing on the server.
+ * <p/>
+ * The paused key is read from the request parameter named as
+ * {@link FlowAction#DEFAULT_PAUSED_KEY_EXPRESSION pausedKey}; the views must
+ * submit it back, either as a hidden field or as a URL parameter (it is on
+ * the value stack through {@link FlowAction#getPausedKey()}, and is also
+ * exposed as a request attribute by the same name).
+ */
+public class ParameterPausedKeyStore
+        implements PausedKeyStore {
+
+    /**
+     * @param context action context of the current request
+     * @return paused key from the request parameters, or {@code null} if
+     *         there is none
+     */
+    static String getPausedKeyParameter(ActionContext context) {
+        HttpParameters parameters = context.getParameters();
+        if (parameters == null)
+            return null;
+
+        Parameter parameter = parameters.get(FlowAction.DEFAULT_PAUSED_KEY_EXPRESSION);
+        String pausedKey = parameter != null ? parameter.getValue() : null;
+
+        return StringUtils.hasLength(pausedKey) ? pausedKey : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPausedKey(ActionContext context) {
+        return getPausedKeyParameter(context);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean setPausedKey(ActionContext context, String pausedKey) {
+        // expose it for the views to submit it back
+        ServletActionContext.getRequest().setAttribute(FlowAction.DEFAULT_PAUSED_KEY_EXPRESSION, pausedKey);
+
+        return !ObjectUtils.nullSafeEquals(getPausedKeyParameter(context), pausedKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Equal to any other, as it has no state.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o != null && getClass() == o.getClass();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
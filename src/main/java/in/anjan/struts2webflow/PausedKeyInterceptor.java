@@ -21,17 +21,22 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.opensymphony.xwork2.ActionContext;
 import com.opensymphony.xwork2.ActionInvocation;
 import com.opensymphony.xwork2.interceptor.Interceptor;
+import com.opensymphony.xwork2.interceptor.PreResultListener;
 import com.opensymphony.xwork2.util.ValueStack;
 
+import in.anjan.struts2webflow.metrics.PhaseTracer;
+
 /**
  * Interceptor to {@link #intercept(ActionInvocation) intercept the invocation}
  * of the {@link FlowAction flow action} to set the
  * {@link
  *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
  *  flow execution paused key}
- * from session to value stack and the other way round.
+ * from the {@link PausedKeyStore paused key store} to value stack and the
+ * other way round.
  */
 public class PausedKeyInterceptor
         implements Interceptor {
@@ -70,52 +75,136 @@ public class PausedKeyInterceptor
     @Override
     public String intercept(ActionInvocation invocation)
             throws Exception {
-        // need to get the session and value stack
-        Map<String, Object> session = invocation.getInvocationContext().getSession();
+        // trace the plugin phases of this request
+        // (if enabled, and not already traced by an outer one)
+        PhaseTracer tracer = PhaseTracer.getInstance();
+        boolean traced = tracer.startRequest();
+        try {
+            return doIntercept(invocation, tracer, traced);
+        } finally {
+            tracer.endRequest(traced, invocation.getProxy().getNamespace(), invocation.getProxy().getActionName());
+        }
+    }
+
+    /**
+     * Sets the paused key and the flow execution scope to the value stack,
+     * executes the flow action and stores the paused key.
+     *
+     * @param invocation the action invocation
+     * @param tracer     {@link PhaseTracer phase tracer}
+     * @param traced     whether the request is traced
+     * @return the result
+     * @throws Exception in case of failure
+     */
+    private String doIntercept(ActionInvocation invocation, PhaseTracer tracer, boolean traced)
+            throws Exception {
+        // need to get the value stack
         ValueStack stack = invocation.getStack();
 
-        // have the paused key in session?
+        // have the paused key in store?
         // if yes, set it to value stack
         // (eventually it will turn up to flow action)
-        String pausedKey = (String) session.get(configuration.getPausedKeySessionKey());
+        PausedKeyStore pausedKeyStore = configuration.getPausedKeyStore();
+        String pausedKey = getStoredPausedKey(pausedKeyStore, invocation.getInvocationContext());
         if (pausedKey != null) {
-            LOGGER.debug("found paused key {} in session", pausedKey);
+            LOGGER.debug("found paused key {} in store", pausedKey);
             stack.setValue(FlowAction.DEFAULT_PAUSED_KEY_EXPRESSION, pausedKey);
         }
 
         // need to set the scope values from session to value stack
         // this is required nested property to work with OGNL
-        if (FlowScopeUtils.hasFlowScope(configuration)) {
-            Map flowScopeMap = FlowScopeUtils.getFlowScopeAsMap(configuration);
-
-            for (Object key : flowScopeMap.keySet()) {
-                String name = (String) key;
-                Object value = flowScopeMap.get(name);
-                if (value != null) {
-                    LOGGER.debug("found {} with value {} in flow scope", name, value);
-                    stack.set(name, value);
+        tracer.begin(PhaseTracer.Phase.FLOW_SCOPE_COPY);
+        try {
+            if (FlowScopeUtils.hasFlowScope(configuration)) {
+                Map flowScopeMap = FlowScopeUtils.getFlowScopeAsMap(configuration);
+
+                // configured to expose it lazily?
+                // if yes, push the scope as one read through root
+                // else, copy every value
+                if (configuration.isLazyFlowScope()) {
+                    LOGGER.debug("exposing flow scope lazily");
+                    stack.push(new FlowScopeRoot(flowScopeMap));
+                } else {
+                    for (Object key : flowScopeMap.keySet()) {
+                        String name = (String) key;
+                        Object value = flowScopeMap.get(name);
+                        if (value != null) {
+                            LOGGER.debug("found {} with value {} in flow scope", name, value);
+                            stack.set(name, value);
+                        }
+                    }
                 }
             }
+        } finally {
+            tracer.end(PhaseTracer.Phase.FLOW_SCOPE_COPY);
         }
 
         // filter out event and other parameters
         // to avoid error notifications on Struts dev mode
         // TODO: need to?
 
+        // traced?
+        // if yes, trace the rendering of the view (the result) too
+        RenderingTrace renderingTrace = null;
+        if (traced) {
+            renderingTrace = new RenderingTrace(tracer);
+            invocation.addPreResultListener(renderingTrace);
+        }
+
         // let's execute the flow action
         // and collect the result
-        String result = invocation.invoke();
+        String result;
+        try {
+            result = invocation.invoke();
+        } finally {
+            if (renderingTrace != null)
+                renderingTrace.end();
+        }
+
+        // flow execution handed over to the async executor?
+        // if yes, that one stores the paused key
+        if (FlowAction.isExecutingAsync(invocation.getInvocationContext())) {
+            LOGGER.debug("flow executing asynchronously, leaving paused key alone");
+            return result;
+        }
 
         // get the paused key from value stack
-        // and set it to session
+        // and set it to store, only if changed
+        // (every session write or cookie might end up as a replication)
         pausedKey = (String) stack.findValue(FlowAction.DEFAULT_PAUSED_KEY_EXPRESSION);
-        session.put(configuration.getPausedKeySessionKey(), pausedKey);
+        if (pausedKeyStore.setPausedKey(invocation.getInvocationContext(), pausedKey)) {
+            LOGGER.debug("stored paused key {} in store", pausedKey);
+
+            // paused key has changed
+            // so, the flow request state is stale
+            FlowScopeUtils.resetFlowRequestState();
+        }
 
         // handover the result
         LOGGER.debug("returning result {}", result);
         return result;
     }
 
+    /**
+     * Reads the paused key as kept by the store, e.g. for the
+     * {@link SessionPausedKeyStore session store} the one in the session
+     * only; a submitted paused key is set to the flow action by the
+     * parameters interceptor, if in the stack, as ever.
+     *
+     * @param pausedKeyStore {@link PausedKeyStore paused key store}
+     * @param context        action context of the current request
+     * @return paused key kept by the store, or {@code null} if there is none
+     */
+    static String getStoredPausedKey(PausedKeyStore pausedKeyStore, ActionContext context) {
+        // kept in the session?
+        // if yes, not overridden by the request parameter here
+        // (set to the value stack before the parameters are)
+        if (pausedKeyStore instanceof SessionPausedKeyStore)
+            return ((SessionPausedKeyStore) pausedKeyStore).getSessionPausedKey(context);
+
+        return pausedKeyStore.getPausedKey(context);
+    }
+
     /**
      * {@link PluginConfiguration Plugin configuration} as configured.
      *
@@ -125,4 +214,45 @@ public class PausedKeyInterceptor
     public void setConfiguration(PluginConfiguration configuration) {
         this.configuration = configuration;
     }
+
+    /**
+     * Traces the rendering of the view, from right before the result is
+     * executed until the invocation returns.
+     */
+    private static final class RenderingTrace
+            implements PreResultListener {
+
+        /**
+         * {@link PhaseTracer Phase tracer}.
+         */
+        private final PhaseTracer tracer;
+        /**
+         * Whether the rendering has begun.
+         */
+        private boolean rendering;
+
+        /**
+         * @param tracer {@link PhaseTracer phase tracer}
+         */
+        RenderingTrace(PhaseTracer tracer) {
+            this.tracer = tracer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void beforeResult(ActionInvocation invocation, String resultCode) {
+            rendering = true;
+            tracer.begin(PhaseTracer.Phase.VIEW_RENDERING);
+        }
+
+        /**
+         * Ends the rendering, if begun.
+         */
+        void end() {
+            if (rendering)
+                tracer.end(PhaseTracer.Phase.VIEW_RENDERING);
+        }
+    }
 }
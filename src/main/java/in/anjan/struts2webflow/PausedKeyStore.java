@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import com.opensymphony.xwork2.ActionContext;
+
+/**
+ * Strategy to transport the
+ * {@link
+ *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+ *  flow execution paused key}
+ * from one request to the next.
+ * <p/>
+ * The {@link FlowAction flow action}, the {@link PausedKeyInterceptor} and
+ * the {@link FlowScopeUtils flow scope utils} read and write the paused key
+ * only through the one {@link PluginConfiguration#getPausedKeyStore()
+ * configured}.
+ *
+ * @see SessionPausedKeyStore
+ * @see ParameterPausedKeyStore
+ * @see CookiePausedKeyStore
+ */
+public interface PausedKeyStore {
+
+    /**
+     * @param context action context of the current request
+     * @return {@link
+     *          org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *          flow execution paused key},
+     *         or {@code null} if there is none
+     */
+    String getPausedKey(ActionContext context);
+
+    /**
+     * Keeps the paused key for the next request.
+     * <p/>
+     * Must be idempotent within a request, might be called more than once
+     * with the same paused key.
+     *
+     * @param context   action context of the current request
+     * @param pausedKey {@link
+     *                   org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *                   flow execution paused key},
+     *                  or {@code null} if the flow execution has ended
+     * @return {@code true} if the paused key has changed, {@code false}
+     *         otherwise
+     */
+    boolean setPausedKey(ActionContext context, String pausedKey);
+}
@@ -16,6 +16,14 @@
 
 package in.anjan.struts2webflow;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.springframework.util.StringUtils;
+
 /**
  * The plugin configuration object to hold:
  * <ul>
@@ -25,9 +33,24 @@ package in.anjan.struts2webflow;
  *     flow execution paused key} session key
  *  </li>
  *  <li>
+ *    {@link PausedKeyStore paused key store}
+ *  </li>
+ *  <li>
  *    {@link org.springframework.webflow.executor.FlowExecutor flow executor}
  *    bean name
  *  </li>
+ *  <li>
+ *    flow execution scope write back mode
+ *  </li>
+ *  <li>
+ *    lazy flow execution scope exposure on the value stack
+ *  </li>
+ *  <li>
+ *    asynchronous flow execution executor and timeout
+ *  </li>
+ *  <li>
+ *    startup {@link PluginWarmUp warm-up}
+ *  </li>
  * </ul>
  */
 public class PluginConfiguration {
@@ -49,6 +72,11 @@ public class PluginConfiguration {
     public static final String DEFAULT_PAUSED_KEY_SESSION_KEY =
             PluginConfiguration.class.getName() + ".pausedKeySessionKey";
 
+    /**
+     * Default number of synthetic launches per flow on warm-up.
+     */
+    public static final int DEFAULT_WARM_UP_LAUNCHES = 10;
+
     /**
      * {@link org.springframework.webflow.executor.FlowExecutor Flow executor}
      * bean name as configured in the Spring web application context hierarchy.
@@ -65,6 +93,67 @@ public class PluginConfiguration {
      * Can be set through {@link #setPausedKeySessionKey(String)}.
      */
     private String pausedKeySessionKey = DEFAULT_PAUSED_KEY_SESSION_KEY;
+    /**
+     * {@link PausedKeyStore Paused key store} as configured, if any.
+     * <p/>
+     * Can be set through {@link #setPausedKeyStore(PausedKeyStore)}.
+     */
+    private PausedKeyStore pausedKeyStore;
+    /**
+     * {@link SessionPausedKeyStore Session paused key store} by the
+     * {@link #pausedKeySessionKey paused key session key}, used unless
+     * {@link #pausedKeyStore another one} is configured.
+     */
+    private SessionPausedKeyStore sessionPausedKeyStore = new SessionPausedKeyStore(DEFAULT_PAUSED_KEY_SESSION_KEY);
+    /**
+     * Whether to write the flow execution scope changes made outside of a
+     * flow request back to the
+     * {@link
+     *  org.springframework.webflow.execution.repository.FlowExecutionRepository
+     *  flow execution repository}.
+     * <p/>
+     * Can be set through {@link #setFlowScopeWriteBack(boolean)}.
+     */
+    private boolean flowScopeWriteBack = false;
+    /**
+     * Whether to expose the flow execution scope on the value stack as a
+     * single read through root, instead of copying every value.
+     * <p/>
+     * Can be set through {@link #setLazyFlowScope(boolean)}.
+     */
+    private boolean lazyFlowScope = false;
+    /**
+     * {@link Executor Executor} to execute the flows asynchronously on, if
+     * any.
+     * <p/>
+     * Can be set through {@link #setAsyncExecutor(Executor)}.
+     */
+    private Executor asyncExecutor;
+    /**
+     * Asynchronous flow execution timeout in milliseconds, {@code 0} for the
+     * container default.
+     * <p/>
+     * Can be set through {@link #setAsyncTimeout(long)}.
+     */
+    private long asyncTimeout = 0;
+    /**
+     * Whether to warm up at startup.
+     * <p/>
+     * Can be set through {@link #setWarmUp(boolean)}.
+     */
+    private boolean warmUp = false;
+    /**
+     * Ids of the flows to be launched synthetically on warm-up.
+     * <p/>
+     * Can be set through {@link #setWarmUpLaunchFlowIds(String)}.
+     */
+    private Set<String> warmUpLaunchFlowIds = Collections.emptySet();
+    /**
+     * Number of synthetic launches per flow on warm-up.
+     * <p/>
+     * Can be set through {@link #setWarmUpLaunches(int)}.
+     */
+    private int warmUpLaunches = DEFAULT_WARM_UP_LAUNCHES;
 
     /**
      * @return {@link
@@ -115,5 +204,197 @@ public class PluginConfiguration {
      */
     public void setPausedKeySessionKey(String pausedKeySessionKey) {
         this.pausedKeySessionKey = pausedKeySessionKey;
+        this.sessionPausedKeyStore = new SessionPausedKeyStore(pausedKeySessionKey);
+    }
+
+    /**
+     * @return {@link PausedKeyStore paused key store} as configured, or the
+     *         {@link SessionPausedKeyStore session} one by the
+     *         {@link #getPausedKeySessionKey() paused key session key}
+     */
+    public PausedKeyStore getPausedKeyStore() {
+        return pausedKeyStore != null ? pausedKeyStore : sessionPausedKeyStore;
+    }
+
+    /**
+     * {@link PausedKeyStore Paused key store} to transport the
+     * {@link
+     *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *  flow execution paused key}
+     * from one request to the next.
+     * <p/>
+     * Defaults to the {@link SessionPausedKeyStore session} one; the
+     * {@link ParameterPausedKeyStore parameter} and the
+     * {@link CookiePausedKeyStore cookie} ones need no session.
+     *
+     * @param pausedKeyStore {@link PausedKeyStore paused key store} to be set
+     */
+    public void setPausedKeyStore(PausedKeyStore pausedKeyStore) {
+        this.pausedKeyStore = pausedKeyStore;
+    }
+
+    /**
+     * @return {@code true} if the flow execution scope changes made outside of
+     *         a flow request are written back, {@code false} otherwise
+     */
+    public boolean isFlowScopeWriteBack() {
+        return flowScopeWriteBack;
+    }
+
+    /**
+     * Whether to write the flow execution scope changes made outside of a
+     * flow request back to the
+     * {@link
+     *  org.springframework.webflow.execution.repository.FlowExecutionRepository
+     *  flow execution repository}.
+     * <p/>
+     * The flow execution is put back only when the scope has been changed.
+     *
+     * @param flowScopeWriteBack {@code true} to write back, {@code false}
+     *                           otherwise
+     */
+    public void setFlowScopeWriteBack(boolean flowScopeWriteBack) {
+        this.flowScopeWriteBack = flowScopeWriteBack;
+    }
+
+    /**
+     * @return {@code true} if the flow execution scope is exposed on the value
+     *         stack lazily, {@code false} otherwise
+     */
+    public boolean isLazyFlowScope() {
+        return lazyFlowScope;
+    }
+
+    /**
+     * Whether to expose the flow execution scope on the value stack as a
+     * single read through root, instead of copying every value.
+     * <p/>
+     * The values are then looked up from the flow execution scope only when
+     * the value stack asks for them.
+     *
+     * @param lazyFlowScope {@code true} to expose lazily, {@code false}
+     *                      otherwise
+     */
+    public void setLazyFlowScope(boolean lazyFlowScope) {
+        this.lazyFlowScope = lazyFlowScope;
+    }
+
+    /**
+     * @return {@link Executor executor} to execute the flows asynchronously
+     *         on, {@code null} to execute them synchronously
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * {@link Executor Executor} to execute the flows asynchronously on, so
+     * that the container thread is free while a slow action state runs.
+     * <p/>
+     * The {@link FlowAction flow action} then starts a Servlet 3 async
+     * request, launches or resumes the flow execution on this executor,
+     * stores the paused key and completes the Struts result from there: a
+     * dispatcher result is dispatched to its location, any other result is
+     * executed on the executor thread. The interceptors are not run again,
+     * so the Struts filter needs no {@code ASYNC} dispatcher mapping; but it
+     * (and every filter in front of it) must be async supported. Requests
+     * not async supported are executed synchronously, so are the flow
+     * actions having a flow scope interceptor (e.g. the
+     * {@link FlowScopeInterceptor}) in their stack, as its
+     * {@link com.opensymphony.xwork2.interceptor.PreResultListener pre result
+     * listener} would run on the request thread, before the flow execution.
+     * <p/>
+     * The {@link #setAsyncTimeout(long) async timeout} should outlast the
+     * slowest flow execution; a flow execution still running when the
+     * request times out is answered with a {@code 503}, and its new paused
+     * key is lost.
+     * <p/>
+     * Any executor will do; e.g. a virtual thread per task executor, where
+     * the JDK has one.
+     *
+     * @param asyncExecutor {@link Executor executor} to be set, {@code null}
+     *                      to execute synchronously
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * @return asynchronous flow execution timeout in milliseconds, {@code 0}
+     *         for the container default
+     */
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * Asynchronous flow execution timeout in milliseconds, defaults to
+     * {@code 0}, the container default.
+     *
+     * @param asyncTimeout asynchronous flow execution timeout to be set
+     */
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    /**
+     * @return {@code true} if warming up at startup, {@code false} otherwise
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Whether to warm up at startup, so that the first requests do not pay
+     * for building the flow definitions and the plugin caches; done by the
+     * {@link PluginWarmUp plugin warm-up}.
+     *
+     * @param warmUp {@code true} to warm up, {@code false} otherwise
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * @return ids of the flows to be launched synthetically on warm-up
+     */
+    public Set<String> getWarmUpLaunchFlowIds() {
+        return warmUpLaunchFlowIds;
+    }
+
+    /**
+     * Ids of the flows to be launched synthetically on warm-up, comma
+     * separated; none by default.
+     * <p/>
+     * The flows are launched against a stand-in request, up to their first
+     * view state, and thrown away. So, launched only if also marked by the
+     * {@link PluginWarmUp#SIDE_EFFECT_FREE_ATTRIBUTE_NAME sideEffectFree}
+     * attribute of their definition, e.g.
+     * {@code <attribute name="sideEffectFree" value="true"/>}.
+     *
+     * @param warmUpLaunchFlowIds ids of the flows to be set
+     */
+    public void setWarmUpLaunchFlowIds(String warmUpLaunchFlowIds) {
+        this.warmUpLaunchFlowIds =
+                Collections.unmodifiableSet(
+                        new LinkedHashSet<String>(Arrays.asList(StringUtils.commaDelimitedListToStringArray(
+                                StringUtils.trimAllWhitespace(warmUpLaunchFlowIds)))));
+    }
+
+    /**
+     * @return number of synthetic launches per flow on warm-up
+     */
+    public int getWarmUpLaunches() {
+        return warmUpLaunches;
+    }
+
+    /**
+     * Number of synthetic launches per flow on warm-up, defaults to
+     * {@link #DEFAULT_WARM_UP_LAUNCHES}.
+     *
+     * @param warmUpLaunches number of synthetic launches to be set
+     */
+    public void setWarmUpLaunches(int warmUpLaunches) {
+        this.warmUpLaunches = warmUpLaunches;
     }
 }
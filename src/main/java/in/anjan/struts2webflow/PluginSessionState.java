@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Holder of the plugin owned session attributes, kept in the session as a
+ * single attribute.
+ * <p/>
+ * Immutable, so that a change always ends up as one session write (which
+ * marks the session dirty, hence replicated), and no change ends up as none.
+ */
+final class PluginSessionState
+        implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * {@link
+     *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *  Flow execution paused key}.
+     */
+    private final String pausedKey;
+
+    /**
+     * @param pausedKey {@link
+     *                   org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *                   flow execution paused key}
+     */
+    private PluginSessionState(String pausedKey) {
+        this.pausedKey = pausedKey;
+    }
+
+    /**
+     * @param session    session map
+     * @param sessionKey session key the state is kept by
+     * @return {@link
+     *          org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *          flow execution paused key},
+     *         or {@code null} if there is none
+     */
+    static String getPausedKey(Map<String, Object> session, String sessionKey) {
+        if (session == null)
+            return null;
+
+        Object state = session.get(sessionKey);
+
+        // might be a plain paused key
+        // as kept by earlier versions
+        return state instanceof PluginSessionState
+                ? ((PluginSessionState) state).pausedKey
+                : (String) state;
+    }
+
+    /**
+     * Keeps the
+     * {@link
+     *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *  flow execution paused key}
+     * in the session, writes the session only when it has changed, removes
+     * the state once the flow execution has ended.
+     *
+     * @param session    session map
+     * @param sessionKey session key the state is kept by
+     * @param pausedKey  {@link
+     *                    org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+     *                    flow execution paused key},
+     *                   or {@code null} if the flow execution has ended
+     * @return {@code true} if the session has been written, {@code false}
+     *         otherwise
+     */
+    static boolean setPausedKey(Map<String, Object> session, String sessionKey, String pausedKey) {
+        if (session == null)
+            return false;
+
+        Object state = session.get(sessionKey);
+
+        // nothing changed?
+        // if yes, leave the session alone
+        String oldPausedKey = state instanceof PluginSessionState
+                ? ((PluginSessionState) state).pausedKey
+                : (String) state;
+        if (state instanceof PluginSessionState && ObjectUtils.nullSafeEquals(oldPausedKey, pausedKey))
+            return false;
+
+        // flow execution ended?
+        // if yes, no need to keep the state
+        if (pausedKey == null) {
+            if (state == null)
+                return false;
+
+            session.remove(sessionKey);
+            return true;
+        }
+
+        session.put(sessionKey, new PluginSessionState(pausedKey));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "PluginSessionState[pausedKey=" + pausedKey + "]";
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.ServletContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.struts2.StrutsStatics;
+import org.apache.struts2.dispatcher.Dispatcher;
+import org.apache.struts2.dispatcher.DispatcherListener;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.context.ServletContextAware;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.core.AnnotatedObject;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
+import org.springframework.webflow.engine.ActionState;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.engine.State;
+import org.springframework.webflow.execution.Action;
+import org.springframework.webflow.execution.AnnotatedAction;
+import org.springframework.webflow.executor.FlowExecutor;
+import org.springframework.webflow.test.MockExternalContext;
+
+import com.opensymphony.xwork2.ActionContext;
+import com.opensymphony.xwork2.config.Configuration;
+import com.opensymphony.xwork2.config.entities.ActionConfig;
+import com.opensymphony.xwork2.config.entities.PackageConfig;
+import com.opensymphony.xwork2.ognl.OgnlUtil;
+
+import in.anjan.struts2webflow.annotations.AnnotationFlowScopeInterceptor;
+
+/**
+ * Warms the plugin up at startup, if
+ * {@link PluginConfiguration#setWarmUp(boolean) configured} to; so that the
+ * first requests after a deploy do not pay for it:
+ * <ul>
+ *  <li>
+ *    builds every registered {@link Flow flow} definition
+ *  </li>
+ *  <li>
+ *    resolves the {@link FlowExecutor flow executor} and its
+ *    {@link org.springframework.webflow.execution.repository.FlowExecutionRepository
+ *    flow execution repository}
+ *  </li>
+ *  <li>
+ *    builds the {@link in.anjan.struts2webflow.annotations.FlowIn}/{@link
+ *    in.anjan.struts2webflow.annotations.FlowOut} bindings of the Struts
+ *    action classes
+ *  </li>
+ *  <li>
+ *    compiles the OGNL expressions of the paused key and of the templated
+ *    Struts namespaces, actions and methods of the action states
+ *  </li>
+ *  <li>
+ *    launches the {@link PluginConfiguration#setWarmUpLaunchFlowIds(String)
+ *    configured} flows synthetically against a stand-in request, to have the
+ *    JIT compiled the engine before the traffic; only the ones marked
+ *    {@link #SIDE_EFFECT_FREE_ATTRIBUTE_NAME side effect free} by their
+ *    definition, as no Struts action is invoked
+ *  </li>
+ * </ul>
+ * Every step is best effort; failures are logged, and never stop the
+ * startup.
+ * <p/>
+ * Must be defined in the Spring web application context; warms up as soon
+ * as the Struts {@link Dispatcher dispatcher} is initialized.
+ */
+public class PluginWarmUp
+        implements InitializingBean, DispatcherListener, ServletContextAware {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginWarmUp.class);
+
+    /**
+     * Name of the flow definition attribute marking a flow side effect free,
+     * to be launched on warm-up.
+     */
+    public static final String SIDE_EFFECT_FREE_ATTRIBUTE_NAME = "sideEffectFree";
+
+    /**
+     * The {@link PluginConfiguration plugin configuration} as configured.
+     * <p/>
+     * Can be set through {@link #setConfiguration(PluginConfiguration)}.
+     */
+    private PluginConfiguration configuration = new PluginConfiguration();
+    /**
+     * {@link FlowDefinitionRegistry Flow definition registry} to be warmed
+     * up.
+     * <p/>
+     * Must be set through {@link #setFlowRegistry(FlowDefinitionRegistry)}.
+     */
+    private FlowDefinitionRegistry flowRegistry;
+    /**
+     * The servlet context.
+     */
+    private ServletContext servletContext;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (flowRegistry == null)
+            throw new IllegalStateException("Flow registry must be set");
+
+        if (!configuration.isWarmUp())
+            return;
+
+        // Spring web application context usually starts before Struts
+        // so, wait for the dispatcher unless already there
+        Dispatcher dispatcher = Dispatcher.getInstance();
+        if (dispatcher != null)
+            warmUp(dispatcher.getConfigurationManager().getConfiguration());
+        else
+            Dispatcher.addDispatcherListener(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void dispatcherInitialized(Dispatcher dispatcher) {
+        warmUp(dispatcher.getConfigurationManager().getConfiguration());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void dispatcherDestroyed(Dispatcher dispatcher) {
+        Dispatcher.removeDispatcherListener(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setServletContext(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    /**
+     * Warms up against the Struts configuration.
+     *
+     * @param configuration Struts configuration
+     */
+    public void warmUp(Configuration configuration) {
+        long start = System.nanoTime();
+
+        // no request at startup
+        // so, need an action context of our own to find the servlet context
+        ActionContext oldActionContext = ActionContext.getContext();
+        ActionContext actionContext = new ActionContext(new HashMap<String, Object>());
+        actionContext.put(StrutsStatics.SERVLET_CONTEXT, servletContext);
+        actionContext.setContainer(configuration.getContainer());
+        ActionContext.setContext(actionContext);
+
+        try {
+            Set<String> expressions = new LinkedHashSet<String>();
+            expressions.add(FlowAction.DEFAULT_PAUSED_KEY_EXPRESSION);
+
+            buildFlows(expressions);
+            resolveFlowExecutor();
+            buildBindings(configuration);
+            compileExpressions(configuration, expressions);
+            launchFlows();
+        } finally {
+            ActionContext.setContext(oldActionContext);
+        }
+
+        LOGGER.info("warmed up in {} ms", (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Builds every registered flow definition, collecting the expressions of
+     * the templated Struts namespaces, actions and methods on the way.
+     *
+     * @param expressions expressions to be added to
+     */
+    private void buildFlows(Set<String> expressions) {
+        for (String flowId : flowRegistry.getFlowDefinitionIds()) {
+            FlowDefinition definition;
+            try {
+                definition = flowRegistry.getFlowDefinition(flowId);
+            } catch (RuntimeException e) {
+                LOGGER.warn("unable to build flow " + flowId + " on warm-up", e);
+                continue;
+            }
+
+            if (!(definition instanceof Flow))
+                continue;
+
+            Flow flow = (Flow) definition;
+            for (String stateId : flow.getStateIds()) {
+                State state = flow.getStateInstance(stateId);
+                if (!(state instanceof ActionState))
+                    continue;
+
+                for (Action action : ((ActionState) state).getActionList()) {
+                    if (!(action instanceof AnnotatedAction))
+                        continue;
+
+                    AnnotatedObject attributes = (AnnotatedAction) action;
+                    addExpressions(attributes.getAttributes().get(StrutsActionAction.NAMESPACE_ATTRIBUTE_NAME), expressions);
+                    addExpressions(attributes.getAttributes().get(StrutsActionAction.ACTION_ATTRIBUTE_NAME), expressions);
+                    addExpressions(attributes.getAttributes().get(StrutsActionAction.METHOD_ATTRIBUTE_NAME), expressions);
+                }
+            }
+        }
+
+        LOGGER.debug("built {} flows on warm-up", flowRegistry.getFlowDefinitionCount());
+    }
+
+    /**
+     * Resolves the {@link FlowExecutor flow executor} and its repository, to
+     * be cached by the {@link FlowExecutorUtils}.
+     */
+    private void resolveFlowExecutor() {
+        // Spring web application context not yet exposed?
+        // if yes, nothing to cache against
+        if (servletContext == null || WebApplicationContextUtils.getWebApplicationContext(servletContext) == null) {
+            LOGGER.debug("no Spring web application context to resolve the flow executor from on warm-up");
+            return;
+        }
+
+        try {
+            FlowExecutorUtils.getRequiredFlowExecutionRepository(configuration.getFlowExecutorBean());
+        } catch (RuntimeException e) {
+            LOGGER.warn("unable to resolve flow executor on warm-up", e);
+        }
+    }
+
+    /**
+     * Builds the flow execution scope bindings of the Struts action classes.
+     *
+     * @param configuration Struts configuration
+     */
+    private static void buildBindings(Configuration configuration) {
+        int bindings = 0;
+
+        ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+        for (PackageConfig packageConfig : configuration.getPackageConfigs().values()) {
+            for (ActionConfig actionConfig : packageConfig.getActionConfigs().values()) {
+                // might be a Spring bean name
+                // if so, nothing to build ahead
+                String className = actionConfig.getClassName();
+                if (className == null || !ClassUtils.isPresent(className, classLoader))
+                    continue;
+
+                try {
+                    AnnotationFlowScopeInterceptor.prepare(ClassUtils.forName(className, classLoader));
+                    bindings++;
+                } catch (ClassNotFoundException e) {
+                    LOGGER.debug("unable to load action class " + className + " on warm-up", e);
+                } catch (LinkageError e) {
+                    LOGGER.debug("unable to load action class " + className + " on warm-up", e);
+                }
+            }
+        }
+
+        LOGGER.debug("built {} flow scope bindings on warm-up", bindings);
+    }
+
+    /**
+     * Compiles the expressions, to be cached by OGNL.
+     *
+     * @param configuration Struts configuration
+     * @param expressions   expressions to be compiled
+     */
+    private static void compileExpressions(Configuration configuration, Set<String> expressions) {
+        OgnlUtil ognlUtil = configuration.getContainer().getInstance(OgnlUtil.class);
+
+        for (String expression : expressions) {
+            try {
+                ognlUtil.compile(expression);
+            } catch (Exception e) {
+                LOGGER.debug("unable to compile " + expression + " on warm-up", e);
+            }
+        }
+
+        LOGGER.debug("compiled {} expressions on warm-up", expressions.size());
+    }
+
+    /**
+     * Launches the configured flows marked
+     * {@link #SIDE_EFFECT_FREE_ATTRIBUTE_NAME side effect free} against a
+     * stand-in request, and throws them away.
+     * <p/>
+     * The stand-in request has no Struts action invocation, so neither the
+     * on-start actions nor the action states of a flow are meant to reach a
+     * Struts action or any other resource; hence, a flow has to be marked so
+     * by its definition, listing it is not enough.
+     */
+    private void launchFlows() {
+        Set<String> flowIds = getSideEffectFreeFlowIds();
+        if (flowIds.isEmpty())
+            return;
+
+        FlowExecutor executor;
+        try {
+            executor = FlowExecutorUtils.getRequiredFlowExecutor(configuration.getFlowExecutorBean());
+        } catch (RuntimeException e) {
+            LOGGER.info("unable to launch flows on warm-up, {}", e.toString());
+            LOGGER.debug("unable to launch flows on warm-up", e);
+            return;
+        }
+
+        // failures logged once for all
+        // (a stand-in request is not meant to work for every flow)
+        Set<String> failedFlowIds = new LinkedHashSet<String>();
+        ExternalContext oldContext = ExternalContextHolder.getExternalContext();
+        try {
+            for (String flowId : flowIds) {
+                for (int i = 0; i < configuration.getWarmUpLaunches(); i++) {
+                    try {
+                        executor.launchExecution(flowId, null, new MockExternalContext());
+                    } catch (RuntimeException e) {
+                        LOGGER.debug("unable to launch flow " + flowId + " on warm-up", e);
+                        failedFlowIds.add(flowId);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            ExternalContextHolder.setExternalContext(oldContext);
+        }
+
+        if (!failedFlowIds.isEmpty())
+            LOGGER.info("unable to launch flows {} on warm-up, see debug log", failedFlowIds);
+
+        LOGGER.debug("launched flows {} on warm-up", flowIds);
+    }
+
+    /**
+     * @return ids of the configured flows marked
+     *         {@link #SIDE_EFFECT_FREE_ATTRIBUTE_NAME side effect free}
+     */
+    private Set<String> getSideEffectFreeFlowIds() {
+        Set<String> flowIds = new LinkedHashSet<String>();
+        Set<String> skippedFlowIds = new LinkedHashSet<String>();
+        for (String flowId : configuration.getWarmUpLaunchFlowIds()) {
+            // marked side effect free?
+            // if yes, to be launched
+            // else, skipped (even if unable to tell)
+            try {
+                if (isSideEffectFree(flowRegistry.getFlowDefinition(flowId))) {
+                    flowIds.add(flowId);
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.debug("unable to find flow " + flowId + " on warm-up", e);
+            }
+
+            skippedFlowIds.add(flowId);
+        }
+
+        if (!skippedFlowIds.isEmpty())
+            LOGGER.info("not launching flows {} on warm-up, not marked {}", skippedFlowIds,
+                    SIDE_EFFECT_FREE_ATTRIBUTE_NAME);
+
+        return flowIds;
+    }
+
+    /**
+     * @param definition flow definition
+     * @return {@code true} if marked
+     *         {@link #SIDE_EFFECT_FREE_ATTRIBUTE_NAME side effect free},
+     *         {@code false} otherwise
+     */
+    static boolean isSideEffectFree(FlowDefinition definition) {
+        // a boolean if typed so
+        // a string otherwise
+        Object sideEffectFree = definition.getAttributes().get(SIDE_EFFECT_FREE_ATTRIBUTE_NAME);
+        return Boolean.TRUE.equals(sideEffectFree) || "true".equals(sideEffectFree);
+    }
+
+    /**
+     * Adds the expressions of the text, if templated.
+     *
+     * @param value       Struts namespace, action or action method as
+     *                    defined, if any
+     * @param expressions expressions to be added to
+     */
+    private static void addExpressions(Object value, Set<String> expressions) {
+        if (!(value instanceof String) || StrutsActionAction.isLiteral((String) value))
+            return;
+
+        String text = (String) value;
+
+        // find every ${...} or %{...}
+        // minding the nested braces
+        for (int i = 0; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            if ((c != '$' && c != '%') || text.charAt(i + 1) != '{')
+                continue;
+
+            int depth = 0;
+            for (int j = i + 1; j < text.length(); j++) {
+                if (text.charAt(j) == '{') {
+                    depth++;
+                } else if (text.charAt(j) == '}' && --depth == 0) {
+                    expressions.add(text.substring(i + 2, j));
+                    i = j;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link PluginConfiguration Plugin configuration} as configured.
+     *
+     * @param configuration {@link PluginConfiguration plugin configuration} to
+     *                      be set
+     */
+    public void setConfiguration(PluginConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * {@link FlowDefinitionRegistry Flow definition registry} to be warmed
+     * up.
+     *
+     * @param flowRegistry {@link FlowDefinitionRegistry flow definition
+     *                     registry} to be set
+     */
+    public void setFlowRegistry(FlowDefinitionRegistry flowRegistry) {
+        this.flowRegistry = flowRegistry;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import org.springframework.util.ObjectUtils;
+
+import com.opensymphony.xwork2.ActionContext;
+
+/**
+ * {@link PausedKeyStore Paused key store} keeping the paused key in the
+ * session (the default).
+ * <p/>
+ * The request parameter named as
+ * {@link FlowAction#DEFAULT_PAUSED_KEY_EXPRESSION pausedKey} takes
+ * precedence, if submitted, for the flow action and the flow scope utils;
+ * the {@link PausedKeyInterceptor} sets the one in the session only to the
+ * value stack, as ever. The session is written only when the paused key has
+ * changed, and cleared once the flow execution has ended.
+ */
+public class SessionPausedKeyStore
+        implements PausedKeyStore {
+
+    /**
+     * Key to put the paused key to the session.
+     * <p/>
+     * Can be set through {@link #setSessionKey(String)}.
+     */
+    private String sessionKey = PluginConfiguration.DEFAULT_PAUSED_KEY_SESSION_KEY;
+
+    /**
+     * Creates the store with the
+     * {@link PluginConfiguration#DEFAULT_PAUSED_KEY_SESSION_KEY default}
+     * session key.
+     */
+    public SessionPausedKeyStore() {
+    }
+
+    /**
+     * @param sessionKey key to put the paused key to the session
+     */
+    public SessionPausedKeyStore(String sessionKey) {
+        this.sessionKey = sessionKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPausedKey(ActionContext context) {
+        // trying to find the paused key from
+        // a) parameters
+        // b) session
+        String pausedKey = ParameterPausedKeyStore.getPausedKeyParameter(context);
+        if (pausedKey == null)
+            pausedKey = getSessionPausedKey(context);
+
+        return pausedKey;
+    }
+
+    /**
+     * @param context action context of the current request
+     * @return paused key from the session only, or {@code null} if there is
+     *         none
+     */
+    public String getSessionPausedKey(ActionContext context) {
+        return PluginSessionState.getPausedKey(context.getSession(), sessionKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean setPausedKey(ActionContext context, String pausedKey) {
+        return PluginSessionState.setPausedKey(context.getSession(), sessionKey, pausedKey);
+    }
+
+    /**
+     * @return key to put the paused key to the session
+     */
+    public String getSessionKey() {
+        return sessionKey;
+    }
+
+    /**
+     * Key to put the paused key to the session.
+     *
+     * @param sessionKey key to put the paused key to the session to be set
+     */
+    public void setSessionKey(String sessionKey) {
+        this.sessionKey = sessionKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Equal if the session key is.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        return ObjectUtils.nullSafeEquals(sessionKey, ((SessionPausedKeyStore) o).sessionKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return ObjectUtils.nullSafeHashCode(sessionKey);
+    }
+}
@@ -18,6 +18,8 @@ package in.anjan.struts2webflow;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +28,7 @@ import org.apache.struts2.dispatcher.Dispatcher;
 
 import org.springframework.util.StringUtils;
 import org.springframework.webflow.action.AbstractAction;
+import org.springframework.webflow.definition.StateDefinition;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
@@ -34,9 +37,13 @@ import com.opensymphony.xwork2.ActionInvocation;
 import com.opensymphony.xwork2.ActionProxy;
 import com.opensymphony.xwork2.ActionProxyFactory;
 import com.opensymphony.xwork2.config.Configuration;
+import com.opensymphony.xwork2.inject.Container;
 import com.opensymphony.xwork2.util.TextParseUtil;
 import com.opensymphony.xwork2.util.ValueStack;
 
+import in.anjan.struts2webflow.metrics.FlowMetrics;
+import in.anjan.struts2webflow.metrics.PhaseTracer;
+
 /**
  * Executes Struts 2 action.
  * TODO: enrich
@@ -58,33 +65,38 @@ public class StrutsActionAction
     /**
      * Struts namespace attribute name.
      */
-    private static final String NAMESPACE_ATTRIBUTE_NAME = "namespace";
+    static final String NAMESPACE_ATTRIBUTE_NAME = "namespace";
     /**
      * Struts action attribute name.
      */
-    private static final String ACTION_ATTRIBUTE_NAME = "action";
+    static final String ACTION_ATTRIBUTE_NAME = "action";
     /**
      * Struts action method attribute name.
      */
-    private static final String METHOD_ATTRIBUTE_NAME = "method";
+    static final String METHOD_ATTRIBUTE_NAME = "method";
+
+    /**
+     * {@link ActionProxyFactory Action proxy factory} along with the Struts
+     * container it is taken from.
+     * <p/>
+     * Replaced as soon as the container changes (on configuration reload).
+     */
+    private volatile CachedActionProxyFactory cachedFactory;
+    /**
+     * Struts namespace, action and action method {@link Template templates}
+     * as defined in the action states, by their raw text.
+     */
+    private final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
 
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     protected Event doExecute(RequestContext context)
             throws Exception {
-        // need to find out the action invocation on the context's request map
-        // need it to execute Struts action
-        ActionInvocation invocation =
-                (ActionInvocation) context.getExternalContext()
-                                          .getRequestMap()
-                                          .get(ActionInvocation.class.getName());
-
         // find out the Struts namespace
         String namespace = (String) context.getAttributes().get(NAMESPACE_ATTRIBUTE_NAME);
         if (!StringUtils.hasText(namespace))
-            namespace = invocation.getProxy().getNamespace();
+            namespace = getActionInvocation(context).getProxy().getNamespace();
 
         // find out the Struts action
         String action = (String) context.getAttributes().get(ACTION_ATTRIBUTE_NAME);
@@ -94,25 +106,62 @@ public class StrutsActionAction
         // find out the Struts action method
         String method = (String) context.getAttributes().get(METHOD_ATTRIBUTE_NAME);
 
+        // execute on the value stack of this request
+        // and handover the result
+        long start = System.nanoTime();
+        Event event;
+        try {
+            event = result(executeAction(context, namespace, action, method, null));
+        } finally {
+            recordActionState(context, action, start);
+        }
+
+        LOGGER.debug("returning event {}", event);
+        return event;
+    }
+
+    /**
+     * Executes the Struts action on the value stack of the current action
+     * context.
+     *
+     * @param context         {@link RequestContext request context}
+     * @param namespace       Struts namespace as defined
+     * @param action          Struts action as defined
+     * @param method          Struts action method as defined, if any
+     * @param forkedFlowScope flow execution scope of the branch of a
+     *                        {@link ParallelStrutsActionAction parallel
+     *                        action state}, if any
+     * @return result of the Struts action
+     * @throws Exception in case of failure
+     */
+    String executeAction(RequestContext context,
+                         String namespace,
+                         String action,
+                         String method,
+                         ForkedFlowScopeMap forkedFlowScope)
+            throws Exception {
         // find the value stack
         // and finalize the Struts namespace, action and action method
         ValueStack stack = ActionContext.getContext().getValueStack();
-        String finalNamespace = TextParseUtil.translateVariables(namespace, stack);
-        String finalAction = TextParseUtil.translateVariables(action, stack);
-        String finalMethod = StringUtils.hasText(method) ? TextParseUtil.translateVariables(method, stack) : null;
+        String finalNamespace = getTemplate(namespace).translate(stack);
+        String finalAction = getTemplate(action).translate(stack);
+        String finalMethod = StringUtils.hasText(method) ? getTemplate(method).translate(stack) : null;
+
+        // find the Struts container
+        Container container = getContainer();
 
         // need to prepare the extra criteria
         // for the execution of the Struts action
-        Map<String, Object> extraContext = new HashMap();
+        Map<String, Object> extraContext = new HashMap<String, Object>();
         extraContext.put(DEFAULT_REQUEST_CONTEXT_KEY, context);
-        extraContext.put(ActionContext.VALUE_STACK, ActionContext.getContext().getValueStack());
+        extraContext.put(ActionContext.VALUE_STACK, stack);
         extraContext.put(ActionContext.PARAMETERS, ActionContext.getContext().getParameters());
+        if (forkedFlowScope != null)
+            extraContext.put(FlowScopeUtils.FORKED_FLOW_SCOPE_KEY, forkedFlowScope);
 
         // prepare Struts action proxy
         // with the finalized Struts namespace, action and action method
-        Dispatcher dispatcher = Dispatcher.getInstance();
-        Configuration config = dispatcher.getConfigurationManager().getConfiguration();
-        ActionProxyFactory factory = config.getContainer().getInstance(ActionProxyFactory.class);
+        ActionProxyFactory factory = getActionProxyFactory(container);
 
         LOGGER.debug("invoking namespace {} action {} method {}", finalNamespace, finalAction, finalMethod);
 
@@ -125,10 +174,165 @@ public class StrutsActionAction
                         false,
                         true);
 
-        // execute and handover the result
-        Event event = result(proxy.execute());
+        PhaseTracer.getInstance().begin(PhaseTracer.Phase.STRUTS_ACTION);
+        try {
+            return proxy.execute();
+        } finally {
+            PhaseTracer.getInstance().end(PhaseTracer.Phase.STRUTS_ACTION);
+        }
+    }
 
-        LOGGER.debug("returning event {}", event);
-        return event;
+    /**
+     * Records the latency of the current action state to the
+     * {@link FlowMetrics plugin metrics}.
+     * <p/>
+     * Out of any state (e.g. on-start, on-end or a transition action), it is
+     * recorded under the Struts action as defined instead.
+     *
+     * @param context {@link RequestContext request context}
+     * @param action  Struts action as defined, to be recorded under when out
+     *                of any state
+     * @param start   start time in nanoseconds
+     */
+    static void recordActionState(RequestContext context, String action, long start) {
+        // within a state?
+        // if yes, record under the state id
+        // else, under the Struts action
+        StateDefinition state = context.getCurrentState();
+        String stateId = state != null ? state.getId() : action;
+
+        FlowMetrics.getInstance().recordActionState(
+                context.getActiveFlow().getId(),
+                stateId,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * @param context {@link RequestContext request context}
+     * @return action invocation of the flow action, as put on the context's
+     *         request map
+     */
+    static ActionInvocation getActionInvocation(RequestContext context) {
+        return (ActionInvocation) context.getExternalContext()
+                                         .getRequestMap()
+                                         .get(ActionInvocation.class.getName());
+    }
+
+    /**
+     * @param text Struts namespace, action or action method as defined
+     * @return {@code true} if the text has nothing to be evaluated against
+     *         the value stack, {@code false} otherwise
+     */
+    static boolean isLiteral(String text) {
+        return !text.contains("${") && !text.contains("%{");
+    }
+
+    /**
+     * @return Struts container of the current action context
+     */
+    private Container getContainer() {
+        // the container is on the action context
+        // no need to go through the dispatcher
+        Container container = ActionContext.getContext().getContainer();
+        if (container == null) {
+            Dispatcher dispatcher = Dispatcher.getInstance();
+            Configuration config = dispatcher.getConfigurationManager().getConfiguration();
+            container = config.getContainer();
+        }
+
+        return container;
+    }
+
+    /**
+     * Finds the {@link ActionProxyFactory action proxy factory} from the
+     * Struts container, reusing the one found before unless the container
+     * has changed (on configuration reload).
+     *
+     * @param container Struts container of the current action context
+     * @return {@link ActionProxyFactory action proxy factory}
+     */
+    private ActionProxyFactory getActionProxyFactory(Container container) {
+        CachedActionProxyFactory cached = cachedFactory;
+        if (cached == null || cached.container != container) {
+            cached = new CachedActionProxyFactory(container, container.getInstance(ActionProxyFactory.class));
+            cachedFactory = cached;
+        }
+
+        return cached.factory;
+    }
+
+    /**
+     * @param text Struts namespace, action or action method as defined
+     * @return {@link Template template} of the text
+     */
+    private Template getTemplate(String text) {
+        Template template = templates.get(text);
+        if (template == null) {
+            template = new Template(text);
+            templates.put(text, template);
+        }
+
+        return template;
+    }
+
+    /**
+     * {@link ActionProxyFactory Action proxy factory} along with the Struts
+     * container it is taken from.
+     */
+    private static final class CachedActionProxyFactory {
+
+        /**
+         * The Struts container.
+         */
+        private final Container container;
+        /**
+         * {@link ActionProxyFactory Action proxy factory} of the container.
+         */
+        private final ActionProxyFactory factory;
+
+        /**
+         * @param container the Struts container
+         * @param factory   {@link ActionProxyFactory action proxy factory} of
+         *                  the container
+         */
+        private CachedActionProxyFactory(Container container, ActionProxyFactory factory) {
+            this.container = container;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * Struts namespace, action or action method as defined in the action
+     * state, classified once either as literal or as templated (having
+     * {@code ${...}} or {@code %{...}} to be evaluated against the value
+     * stack).
+     */
+    private static final class Template {
+
+        /**
+         * The text as defined.
+         */
+        private final String text;
+        /**
+         * {@code true} if the text has nothing to be evaluated,
+         * {@code false} otherwise.
+         */
+        private final boolean literal;
+
+        /**
+         * @param text the text as defined
+         */
+        private Template(String text) {
+            this.text = text;
+            this.literal = isLiteral(text);
+        }
+
+        /**
+         * @param stack value stack to evaluate against
+         * @return the text itself if literal, the evaluated text otherwise
+         */
+        private String translate(ValueStack stack) {
+            return literal ? text : TextParseUtil.translateVariables(text, stack);
+        }
     }
 }
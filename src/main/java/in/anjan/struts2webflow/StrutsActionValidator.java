@@ -0,0 +1,302 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.struts2.dispatcher.Dispatcher;
+import org.apache.struts2.dispatcher.DispatcherListener;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.StringUtils;
+import org.springframework.webflow.core.AnnotatedObject;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
+import org.springframework.webflow.engine.ActionState;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.engine.State;
+import org.springframework.webflow.execution.Action;
+import org.springframework.webflow.execution.AnnotatedAction;
+
+import com.opensymphony.xwork2.config.Configuration;
+import com.opensymphony.xwork2.config.ConfigurationException;
+import com.opensymphony.xwork2.config.RuntimeConfiguration;
+import com.opensymphony.xwork2.config.entities.ActionConfig;
+
+/**
+ * Validator of the Struts actions executed by the {@link StrutsActionAction}
+ * in the action states of the registered {@link Flow flows}, against the
+ * Struts configuration once at startup.
+ * <p/>
+ * Fails at startup, unless configured otherwise, when an action state refers
+ * to a Struts action which does not exist; rather than on the first request
+ * reaching the action state. The actions are still resolved by Struts at
+ * runtime, from the namespace as defined.
+ * <p/>
+ * Keeps no index of the resolved {@link ActionConfig action configs} for
+ * the {@link StrutsActionAction} to build its action proxies from: a Struts
+ * action proxy resolves its action config and method itself, as it is
+ * prepared (a map lookup by namespace and action, falling back to the
+ * wildcards and the unknown handlers), with no way to hand it one resolved
+ * before; and the action proxy factory configured, whichever it is, is to
+ * be used.
+ * <p/>
+ * Validates the action states having either a {@link StrutsActionAction},
+ * or an action with an explicit {@code action} attribute. The namespace
+ * defaults to the namespace(s) of the {@link FlowAction flow actions}
+ * configured with the {@code flowId} of the flow, as it does at runtime.
+ * Templated ({@code ${...}}) namespaces and actions are left to be resolved
+ * at runtime.
+ * <p/>
+ * Must be defined in the Spring web application context; validates as soon
+ * as the Struts {@link Dispatcher dispatcher} is initialized.
+ */
+public class StrutsActionValidator
+        implements InitializingBean, DispatcherListener {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(StrutsActionValidator.class);
+
+    /**
+     * {@link FlowAction Flow action} parameter holding the flow id.
+     */
+    private static final String FLOW_ID_PARAM_NAME = "flowId";
+
+    /**
+     * {@link FlowDefinitionRegistry Flow definition registry} to be
+     * validated.
+     * <p/>
+     * Must be set through {@link #setFlowRegistry(FlowDefinitionRegistry)}.
+     */
+    private FlowDefinitionRegistry flowRegistry;
+    /**
+     * Whether to fail when an action state refers to a Struts action which
+     * does not exist.
+     * <p/>
+     * Can be set through {@link #setFailFast(boolean)}.
+     */
+    private boolean failFast = true;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet() {
+        // Spring web application context usually starts before Struts
+        // so, wait for the dispatcher unless already there
+        Dispatcher dispatcher = Dispatcher.getInstance();
+        if (dispatcher != null)
+            validate(dispatcher.getConfigurationManager().getConfiguration());
+        else
+            Dispatcher.addDispatcherListener(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void dispatcherInitialized(Dispatcher dispatcher) {
+        validate(dispatcher.getConfigurationManager().getConfiguration());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void dispatcherDestroyed(Dispatcher dispatcher) {
+        Dispatcher.removeDispatcherListener(this);
+    }
+
+    /**
+     * Validates the Struts actions against the Struts configuration.
+     *
+     * @param configuration Struts configuration
+     * @throws ConfigurationException in case an action state refers to a
+     *                                Struts action which does not exist and
+     *                                {@link #setFailFast(boolean) configured}
+     *                                to fail
+     */
+    public void validate(Configuration configuration) {
+        RuntimeConfiguration runtimeConfiguration = configuration.getRuntimeConfiguration();
+        Map<String, Set<String>> flowNamespaces = getFlowNamespaces(runtimeConfiguration);
+
+        int validated = 0;
+        List<String> missing = new ArrayList<String>();
+
+        for (String flowId : flowRegistry.getFlowDefinitionIds()) {
+            FlowDefinition definition = flowRegistry.getFlowDefinition(flowId);
+            if (!(definition instanceof Flow))
+                continue;
+
+            Flow flow = (Flow) definition;
+            for (String stateId : flow.getStateIds()) {
+                State state = flow.getStateInstance(stateId);
+                if (!(state instanceof ActionState))
+                    continue;
+
+                for (Action action : ((ActionState) state).getActionList()) {
+                    AnnotatedObject attributes = action instanceof AnnotatedAction ? (AnnotatedAction) action : null;
+                    Action target = attributes != null ? ((AnnotatedAction) action).getTargetAction() : action;
+
+                    // a parallel action state?
+                    // if yes, validate every one of its targets
+                    String targets = getAttribute(attributes, ParallelStrutsActionAction.ACTIONS_ATTRIBUTE_NAME);
+                    if (targets != null && target instanceof ParallelStrutsActionAction) {
+                        for (ParallelStrutsActionAction.Target parallelTarget : ParallelStrutsActionAction.Target.parse(targets))
+                            validated += validate(runtimeConfiguration, flowNamespaces, flowId, stateId,
+                                    parallelTarget.getNamespace(), parallelTarget.getAction(), missing);
+                        continue;
+                    }
+
+                    String actionName = getAttribute(attributes, StrutsActionAction.ACTION_ATTRIBUTE_NAME);
+                    if (!(target instanceof StrutsActionAction) && actionName == null)
+                        continue;
+                    if (actionName == null)
+                        actionName = stateId;
+
+                    validated += validate(runtimeConfiguration, flowNamespaces, flowId, stateId,
+                            getAttribute(attributes, StrutsActionAction.NAMESPACE_ATTRIBUTE_NAME), actionName,
+                            missing);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            if (failFast)
+                throw new ConfigurationException("Struts actions not found: " + missing);
+
+            LOGGER.warn("Struts actions not found: {}", missing);
+        }
+
+        LOGGER.debug("validated {} Struts actions of flow action states", validated);
+    }
+
+    /**
+     * {@link FlowDefinitionRegistry Flow definition registry} to be
+     * validated.
+     *
+     * @param flowRegistry {@link FlowDefinitionRegistry flow definition
+     *                     registry} to be set
+     */
+    public void setFlowRegistry(FlowDefinitionRegistry flowRegistry) {
+        this.flowRegistry = flowRegistry;
+    }
+
+    /**
+     * Whether to fail at startup when an action state refers to a Struts
+     * action which does not exist, otherwise it is only logged.
+     *
+     * @param failFast {@code true} to fail, {@code false} otherwise
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Validates the Struts action of an action state in the namespace it is
+     * defined, or in the flow actions' namespace(s).
+     *
+     * @param runtimeConfiguration Struts runtime configuration
+     * @param flowNamespaces       namespaces of the flow actions by flow id
+     * @param flowId               {@link Flow flow} id
+     * @param stateId              action state id
+     * @param namespace            Struts namespace as defined, if any
+     * @param actionName           Struts action as defined (or defaulted)
+     * @param missing              missing actions to be added to
+     * @return number of namespaces validated
+     */
+    private static int validate(RuntimeConfiguration runtimeConfiguration,
+                                Map<String, Set<String>> flowNamespaces,
+                                String flowId,
+                                String stateId,
+                                String namespace,
+                                String actionName,
+                                List<String> missing) {
+        // namespace not defined?
+        // if yes, go with the flow actions' namespace(s)
+        Set<String> namespaces =
+                namespace != null
+                        ? Collections.singleton(namespace)
+                        : flowNamespaces.containsKey(flowId)
+                                ? flowNamespaces.get(flowId)
+                                : Collections.<String>emptySet();
+
+        int validated = 0;
+        for (String candidate : namespaces) {
+            if (!StrutsActionAction.isLiteral(candidate) || !StrutsActionAction.isLiteral(actionName))
+                continue;
+
+            validated++;
+            if (runtimeConfiguration.getActionConfig(candidate, actionName) == null)
+                missing.add("flow '" + flowId + "' state '" + stateId
+                        + "' refers to missing action '" + actionName
+                        + "' in namespace '" + candidate + "'");
+        }
+
+        return validated;
+    }
+
+    /**
+     * @param runtimeConfiguration Struts runtime configuration
+     * @return namespaces of the {@link FlowAction flow actions} by the
+     *         {@code flowId} they are configured with
+     */
+    private static Map<String, Set<String>> getFlowNamespaces(RuntimeConfiguration runtimeConfiguration) {
+        Map<String, Set<String>> flowNamespaces = new HashMap<String, Set<String>>();
+
+        for (Map.Entry<String, Map<String, ActionConfig>> namespace : runtimeConfiguration.getActionConfigs().entrySet()) {
+            for (ActionConfig actionConfig : namespace.getValue().values()) {
+                String flowId = actionConfig.getParams().get(FLOW_ID_PARAM_NAME);
+                if (!StringUtils.hasText(flowId))
+                    continue;
+
+                Set<String> namespaces = flowNamespaces.get(flowId);
+                if (namespaces == null) {
+                    namespaces = new LinkedHashSet<String>();
+                    flowNamespaces.put(flowId, namespaces);
+                }
+                namespaces.add(namespace.getKey());
+            }
+        }
+
+        return flowNamespaces;
+    }
+
+    /**
+     * @param attributes action attributes, if any
+     * @param name       attribute name
+     * @return attribute value, or {@code null} if not defined
+     */
+    private static String getAttribute(AnnotatedObject attributes, String name) {
+        if (attributes == null)
+            return null;
+
+        Object value = attributes.getAttributes().get(name);
+        return value instanceof String && StringUtils.hasText((String) value) ? (String) value : null;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+
+/**
+ * The flow execution scope map which records the keys changed through it.
+ * <p/>
+ * Wraps the scope of a
+ * {@link org.springframework.webflow.execution.FlowExecution flow execution}
+ * fetched from the
+ * {@link
+ *  org.springframework.webflow.execution.repository.FlowExecutionRepository
+ *  flow execution repository}
+ * outside of a flow request, so that only the changed keys can be
+ * {@link #applyChangesTo(MutableAttributeMap) applied} to the flow execution
+ * put back to the repository, and only when something has actually changed.
+ * <p/>
+ * Only the changes made through {@link #put(String, Object)},
+ * {@link #putAll(Map)}, {@link #remove(Object)} and {@link #clear()} are
+ * recorded; every put is a change, even of a value equal to the current
+ * one, as it might be the same instance mutated in place. So, a value
+ * mutated in place must be put back to be written back. The collection views
+ * are read only.
+ */
+final class TrackingFlowScopeMap
+        implements Map<String, Object> {
+
+    /**
+     * The scope as map.
+     */
+    private final Map<String, Object> scope;
+    /**
+     * Keys changed since created or last {@link #markClean() marked clean}.
+     */
+    private final Set<String> changedKeys = new LinkedHashSet<String>();
+
+    /**
+     * @param scope the scope as map
+     */
+    TrackingFlowScopeMap(Map<String, Object> scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * @return {@code true} if any key has been changed, {@code false}
+     *         otherwise
+     */
+    boolean isDirty() {
+        return !changedKeys.isEmpty();
+    }
+
+    /**
+     * @return keys changed since created or last
+     *         {@link #markClean() marked clean}
+     */
+    Set<String> getChangedKeys() {
+        return Collections.unmodifiableSet(changedKeys);
+    }
+
+    /**
+     * Applies the changed keys onto another copy of the scope, e.g. of the
+     * same flow execution fetched again from the repository.
+     *
+     * @param target scope to apply the changes onto
+     */
+    void applyChangesTo(MutableAttributeMap target) {
+        for (String key : changedKeys) {
+            // still there?
+            // if yes, put the current value
+            // else, it's been removed
+            if (scope.containsKey(key))
+                target.put(key, scope.get(key));
+            else
+                target.remove(key);
+        }
+    }
+
+    /**
+     * Forgets the changed keys, once the changes are persisted.
+     */
+    void markClean() {
+        changedKeys.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return scope.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return scope.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return scope.containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        return scope.containsValue(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object get(Object key) {
+        return scope.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object put(String key, Object value) {
+        // recorded even if equal to the current one
+        // (might well be the same instance, mutated in place)
+        changedKeys.add(key);
+        return scope.put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object remove(Object key) {
+        if (!scope.containsKey(key))
+            return null;
+
+        changedKeys.add((String) key);
+        return scope.remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putAll(Map<? extends String, ?> map) {
+        for (Entry<? extends String, ?> entry : map.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        changedKeys.addAll(scope.keySet());
+        scope.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(scope.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Object> values() {
+        return Collections.unmodifiableCollection(scope.values());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return Collections.unmodifiableSet(scope.entrySet());
+    }
+}
@@ -16,16 +16,12 @@
 
 package in.anjan.struts2webflow.annotations;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.opensymphony.xwork2.ActionInvocation;
-import com.opensymphony.xwork2.util.AnnotationUtils;
 import com.opensymphony.xwork2.util.ValueStack;
 import in.anjan.struts2webflow.AbstractFlowScopeInterceptor;
 
@@ -47,6 +43,7 @@ public class AnnotationFlowScopeInterceptor
      * {@inheritDoc}
      */
     @Override
+    @SuppressWarnings("unchecked")
     public String intercept(ActionInvocation invocation)
             throws Exception {
         if (hasFlowScope()) {
@@ -56,16 +53,26 @@ public class AnnotationFlowScopeInterceptor
 
             Map flowScopeAsMap = getFlowScopeAsMap();
             ValueStack stack = invocation.getStack();
+            Object action = invocation.getAction();
+
+            FlowScopeBinding binding = FlowScopeBinding.forClass(action.getClass());
+            boolean direct = FlowScopeBinding.isDirect(action, stack);
 
-            // from flow execution scope to value stack
-            List<Field> fields = new ArrayList<Field>();
-            AnnotationUtils.addAllFields(FlowIn.class, invocation.getAction().getClass(), fields);
-            for (Field field : fields) {
-                String fieldName = field.getName();
-                Object fieldValue = flowScopeAsMap.get(fieldName);
-                if (fieldValue != null) {
-                    LOGGER.debug("found {} with value {} in flow scope", fieldName, fieldValue);
-                    stack.setValue(fieldName, fieldValue);
+            // have the generated binder, and the action on top?
+            // if yes, let it copy from flow execution scope to action
+            // else, go field by field
+            if (direct && binding.getBinder() != null) {
+                LOGGER.debug("binding flow scope with {}", binding.getBinder());
+                binding.getBinder().flowIn(action, flowScopeAsMap, stack);
+            } else {
+                // from flow execution scope to action
+                for (FlowScopeBinding.FieldBinding field : binding.getFlowIns()) {
+                    String fieldName = field.getName();
+                    Object fieldValue = flowScopeAsMap.get(fieldName);
+                    if (fieldValue != null) {
+                        LOGGER.debug("found {} with value {} in flow scope", fieldName, fieldValue);
+                        field.setValue(action, stack, fieldValue, direct);
+                    }
                 }
             }
         }
@@ -82,20 +89,43 @@ public class AnnotationFlowScopeInterceptor
         if (hasFlowScope()) {
             LOGGER.debug("within flow scope");
 
-            ValueStack stack = invocation.getStack();
             Map flowScopeAsMap = getFlowScopeAsMap();
+            ValueStack stack = invocation.getStack();
+            Object action = invocation.getAction();
+
+            FlowScopeBinding binding = FlowScopeBinding.forClass(action.getClass());
+            boolean direct = FlowScopeBinding.isDirect(action, stack);
 
-            // from value stack to flow execution scope
-            List<Field> fields = new ArrayList<Field>();
-            AnnotationUtils.addAllFields(FlowOut.class, invocation.getAction().getClass(), fields);
-            for (Field field : fields) {
-                String fieldName = field.getName();
-                Object fieldValue = stack.findValue(fieldName);
-                if (fieldValue != null) {
-                    LOGGER.debug("found {} with value {} in value stack", fieldName, fieldValue);
-                    flowScopeAsMap.put(fieldName, fieldValue);
+            // have the generated binder, and the action on top?
+            // if yes, let it copy from action to flow execution scope
+            // else, go field by field
+            if (direct && binding.getBinder() != null) {
+                LOGGER.debug("binding flow scope with {}", binding.getBinder());
+                binding.getBinder().flowOut(action, flowScopeAsMap);
+            } else {
+                // from action to flow execution scope
+                for (FlowScopeBinding.FieldBinding field : binding.getFlowOuts()) {
+                    String fieldName = field.getName();
+                    Object fieldValue = field.getValue(action, stack, direct);
+                    if (fieldValue != null) {
+                        LOGGER.debug("found {} with value {} in action", fieldName, fieldValue);
+                        flowScopeAsMap.put(fieldName, fieldValue);
+                    }
                 }
             }
+
+            // persist the changes, if required
+            writeBackFlowScope();
         }
     }
+
+    /**
+     * Builds the {@link FlowIn}/{@link FlowOut} binding of the action class
+     * ahead of its first request; e.g. on warm-up.
+     *
+     * @param actionClass action class
+     */
+    public static void prepare(Class<?> actionClass) {
+        FlowScopeBinding.forClass(actionClass);
+    }
 }
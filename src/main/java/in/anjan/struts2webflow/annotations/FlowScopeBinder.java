@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.annotations;
+
+import java.util.Map;
+
+import com.opensymphony.xwork2.util.ValueStack;
+
+/**
+ * Copies the {@link FlowIn} and {@link FlowOut} annotated fields of an action
+ * from/to the flow execution scope with plain getter and setter calls.
+ * <p/>
+ * Implementations are generated at compile time by the
+ * {@link FlowScopeBinderProcessor} as {@code <action class name>$$FlowScopeBinder}
+ * and picked up by the {@link AnnotationFlowScopeInterceptor} when exist.
+ * Used only while the action is the top of the value stack; e.g. never for a
+ * {@link com.opensymphony.xwork2.ModelDriven} action.
+ *
+ * @param <T> action type
+ */
+public interface FlowScopeBinder<T> {
+
+    /**
+     * Suffix of the generated binder class name.
+     */
+    String CLASS_NAME_SUFFIX = "$$FlowScopeBinder";
+
+    /**
+     * Returns the hash of the annotated fields (their names, and the setter
+     * types of {@link FlowIn}) the binder is generated for.
+     * <p/>
+     * Checked against the action class when the binder is loaded; a binder
+     * left over from an older version of the action class is ignored.
+     *
+     * @return the fields hash
+     */
+    int getFieldsHash();
+
+    /**
+     * Copies the {@link FlowIn} annotated fields from the flow execution
+     * scope to the action.
+     *
+     * @param action the action
+     * @param scope  flow execution scope
+     * @param stack  value stack, to be used for the values need a type
+     *               conversion
+     */
+    void flowIn(T action, Map<String, Object> scope, ValueStack stack);
+
+    /**
+     * Copies the {@link FlowOut} annotated fields from the action to the flow
+     * execution scope.
+     *
+     * @param action the action
+     * @param scope  flow execution scope
+     */
+    void flowOut(T action, Map<String, Object> scope);
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.annotations;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor to generate a {@link FlowScopeBinder} for every action
+ * class declaring {@link FlowIn} or {@link FlowOut} annotated fields.
+ * <p/>
+ * The generated binder is named as
+ * {@code <action class name>$$FlowScopeBinder}, lives in the package of the
+ * action and copies the fields through their public getters and setters.
+ * No binder is generated when an annotated field is missing its public
+ * getter ({@link FlowOut}) or setter ({@link FlowIn}), the
+ * {@link AnnotationFlowScopeInterceptor} falls back to reflection then.
+ * <p/>
+ * Every binder carries the {@link FlowScopeBinder#getFieldsHash() hash} of
+ * the fields it is generated for, so that a stale one is not used.
+ * <p/>
+ * Registered through {@code META-INF/services}, so it runs on any build
+ * having the plugin on the compile class path.
+ */
+@SupportedAnnotationTypes({
+        "in.anjan.struts2webflow.annotations.FlowIn",
+        "in.anjan.struts2webflow.annotations.FlowOut"})
+public class FlowScopeBinderProcessor
+        extends AbstractProcessor {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        // need to find out the action classes
+        // declaring the annotated fields
+        Set<TypeElement> actionClasses = new LinkedHashSet<TypeElement>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(FlowIn.class))
+            actionClasses.add((TypeElement) element.getEnclosingElement());
+        for (Element element : roundEnv.getElementsAnnotatedWith(FlowOut.class))
+            actionClasses.add((TypeElement) element.getEnclosingElement());
+
+        for (TypeElement actionClass : actionClasses) {
+            if (isBindable(actionClass))
+                generate(actionClass);
+        }
+
+        // let others see them too
+        return false;
+    }
+
+    /**
+     * @param actionClass action class
+     * @return {@code true} if a binder can be generated for the action class,
+     *         {@code false} otherwise
+     */
+    private boolean isBindable(TypeElement actionClass) {
+        Set<Modifier> modifiers = actionClass.getModifiers();
+
+        return actionClass.getKind() == ElementKind.CLASS
+                && !modifiers.contains(Modifier.ABSTRACT)
+                && !modifiers.contains(Modifier.PRIVATE)
+                && (actionClass.getNestingKind() == NestingKind.TOP_LEVEL
+                    || (actionClass.getNestingKind() == NestingKind.MEMBER && modifiers.contains(Modifier.STATIC)));
+    }
+
+    /**
+     * Generates the {@link FlowScopeBinder binder} of the action class.
+     *
+     * @param actionClass action class
+     */
+    private void generate(TypeElement actionClass) {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+
+        String packageName = elements.getPackageOf(actionClass).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(actionClass).toString();
+        String binderName =
+                (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1))
+                        + FlowScopeBinder.CLASS_NAME_SUFFIX;
+        String actionType = types.erasure(actionClass.asType()).toString();
+
+        List<ExecutableElement> methods = ElementFilter.methodsIn(elements.getAllMembers(actionClass));
+        List<String> flowIns = new ArrayList<String>();
+        List<String> flowOuts = new ArrayList<String>();
+        List<String> entries = new ArrayList<String>();
+
+        // walk the class hierarchy
+        // as the interceptor does
+        for (TypeElement clazz = actionClass; clazz != null; clazz = getSuperclass(clazz)) {
+            for (VariableElement field : ElementFilter.fieldsIn(clazz.getEnclosedElements())) {
+                String name = field.getSimpleName().toString();
+
+                if (field.getAnnotation(FlowIn.class) != null) {
+                    ExecutableElement setter = findAccessor(methods, 1, "set" + capitalize(name));
+                    if (setter == null) {
+                        note(actionClass, "no public setter for @FlowIn " + name);
+                        return;
+                    }
+
+                    String type = getBoxedType(setter.getParameters().get(0).asType());
+                    entries.add(FlowScopeBinderUtils.getFlowInEntry(name, type));
+                    flowIns.add("        value = scope.get(\"" + name + "\");\n"
+                            + "        if (value instanceof " + type + ")\n"
+                            + "            action." + setter.getSimpleName() + "((" + type + ") value);\n"
+                            + "        else if (value != null)\n"
+                            + "            stack.setValue(\"" + name + "\", value);\n");
+                }
+
+                if (field.getAnnotation(FlowOut.class) != null) {
+                    ExecutableElement getter = findAccessor(methods, 0, "get" + capitalize(name), "is" + capitalize(name));
+                    if (getter == null) {
+                        note(actionClass, "no public getter for @FlowOut " + name);
+                        return;
+                    }
+
+                    entries.add(FlowScopeBinderUtils.getFlowOutEntry(name));
+
+                    flowOuts.add("        value = action." + getter.getSimpleName() + "();\n"
+                            + "        if (value != null)\n"
+                            + "            scope.put(\"" + name + "\", value);\n");
+                }
+            }
+        }
+
+        try {
+            JavaFileObject file =
+                    processingEnv.getFiler()
+                                 .createSourceFile(
+                                         packageName.length() == 0 ? binderName : packageName + "." + binderName,
+                                         actionClass);
+
+            PrintWriter writer = new PrintWriter(file.openWriter());
+            try {
+                if (packageName.length() != 0)
+                    writer.print("package " + packageName + ";\n\n");
+
+                writer.print("/**\n"
+                        + " * Generated by {@link " + FlowScopeBinderProcessor.class.getName() + "}.\n"
+                        + " */\n"
+                        + "@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n"
+                        + "public final class " + binderName + "\n"
+                        + "        implements " + FlowScopeBinder.class.getName() + "<" + actionType + "> {\n\n");
+
+                writer.print("    public int getFieldsHash() {\n"
+                        + "        return " + FlowScopeBinderUtils.getFieldsHash(entries) + ";\n"
+                        + "    }\n\n");
+
+                writer.print("    public void flowIn(" + actionType + " action,\n"
+                        + "                       java.util.Map<java.lang.String, java.lang.Object> scope,\n"
+                        + "                       com.opensymphony.xwork2.util.ValueStack stack) {\n"
+                        + "        java.lang.Object value;\n");
+                for (String flowIn : flowIns)
+                    writer.print(flowIn);
+                writer.print("    }\n\n");
+
+                writer.print("    public void flowOut(" + actionType + " action,\n"
+                        + "                        java.util.Map<java.lang.String, java.lang.Object> scope) {\n"
+                        + "        java.lang.Object value;\n");
+                for (String flowOut : flowOuts)
+                    writer.print(flowOut);
+                writer.print("    }\n"
+                        + "}\n");
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.ERROR,
+                    "Unable to generate " + binderName + ": " + e.getMessage(),
+                    actionClass);
+        }
+    }
+
+    /**
+     * @param clazz class
+     * @return super class, or {@code null} if there is none (other than
+     *         {@link Object})
+     */
+    private TypeElement getSuperclass(TypeElement clazz) {
+        TypeMirror superclass = clazz.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED)
+            return null;
+
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals(Object.class.getName()) ? null : element;
+    }
+
+    /**
+     * @param methods    methods of the action class
+     * @param parameters number of parameters the accessor takes
+     * @param names      accessor names to be looked for
+     * @return public, non-static accessor, or {@code null} if not found
+     */
+    private ExecutableElement findAccessor(List<ExecutableElement> methods, int parameters, String... names) {
+        for (String name : names) {
+            for (ExecutableElement method : methods) {
+                if (method.getSimpleName().contentEquals(name)
+                        && method.getParameters().size() == parameters
+                        && method.getModifiers().contains(Modifier.PUBLIC)
+                        && !method.getModifiers().contains(Modifier.STATIC))
+                    return method;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param type type
+     * @return erased type name, boxed if primitive
+     */
+    private String getBoxedType(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+
+        if (type.getKind().isPrimitive())
+            return types.boxedClass(types.getPrimitiveType(type.getKind())).getQualifiedName().toString();
+
+        return types.erasure(type).toString();
+    }
+
+    /**
+     * @param name field name
+     * @return field name with its first character in upper case
+     */
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * @param actionClass action class
+     * @param message     why no binder is generated
+     */
+    private void note(TypeElement actionClass, String message) {
+        processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.NOTE,
+                "No flow scope binder generated for " + actionClass.getQualifiedName() + ", " + message,
+                actionClass);
+    }
+}
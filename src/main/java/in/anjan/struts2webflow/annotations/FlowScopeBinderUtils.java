@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.annotations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@link FlowScopeBinder generated binder} utils, shared by the
+ * {@link FlowScopeBinderProcessor} (at compile time) and the
+ * {@link FlowScopeBinding} (at run time) to agree on the
+ * {@link FlowScopeBinder#getFieldsHash() fields hash} of an action class.
+ * <p/>
+ * Depends on nothing but the JDK, as it runs within the compiler too.
+ */
+final class FlowScopeBinderUtils {
+
+    /**
+     * Private constructor.
+     */
+    private FlowScopeBinderUtils() {
+        // no-op;
+    }
+
+    /**
+     * @param name field name
+     * @param type setter parameter type (wrapped, if primitive), as the
+     *             canonical name
+     * @return the fields hash entry of a {@link FlowIn} annotated field
+     */
+    static String getFlowInEntry(String name, String type) {
+        return "in " + name + " " + type;
+    }
+
+    /**
+     * @param name field name
+     * @return the fields hash entry of a {@link FlowOut} annotated field
+     */
+    static String getFlowOutEntry(String name) {
+        return "out " + name;
+    }
+
+    /**
+     * Hashes the entries, independent of their order (the fields of a class
+     * are not reflected in any particular order).
+     *
+     * @param entries fields hash entries of the annotated fields
+     * @return the fields hash
+     */
+    static int getFieldsHash(List<String> entries) {
+        List<String> sorted = new ArrayList<String>(entries);
+        Collections.sort(sorted);
+
+        // String#hashCode() is specified
+        // so, the same on compiler and run time
+        return sorted.toString().hashCode();
+    }
+}
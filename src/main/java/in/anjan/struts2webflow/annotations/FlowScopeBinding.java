@@ -0,0 +1,351 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.annotations;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.ClassUtils;
+
+import com.opensymphony.xwork2.ModelDriven;
+import com.opensymphony.xwork2.util.ValueStack;
+
+/**
+ * The {@link FlowIn} and {@link FlowOut} binding descriptor of an action
+ * class.
+ * <p/>
+ * Built once per action class and cached, holds the
+ * {@link FlowScopeBinder generated binder} of the action class if exists and
+ * the public getters/setters of the annotated fields.
+ * <p/>
+ * The action is read and written directly only when it is
+ * {@link #isDirect(Object, ValueStack) the top of the value stack}, as OGNL
+ * would resolve the field name to the very same accessor then. Otherwise
+ * (e.g. a {@link ModelDriven} action, or an object pushed over the action)
+ * the field name is set/found through the value stack, as is a field without
+ * a public accessor or a value that needs a type conversion.
+ */
+final class FlowScopeBinding {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlowScopeBinding.class);
+
+    /**
+     * {@link FlowScopeBinding Bindings} by action class.
+     */
+    private static final ConcurrentMap<Class<?>, FlowScopeBinding> BINDINGS =
+            new ConcurrentHashMap<Class<?>, FlowScopeBinding>();
+
+    /**
+     * {@link FlowScopeBinder Generated binder} of the action class, if any.
+     */
+    private final FlowScopeBinder binder;
+    /**
+     * {@link FlowIn} annotated fields.
+     */
+    private final List<FieldBinding> flowIns;
+    /**
+     * {@link FlowOut} annotated fields.
+     */
+    private final List<FieldBinding> flowOuts;
+
+    /**
+     * @param actionClass action class to be described
+     */
+    private FlowScopeBinding(Class<?> actionClass) {
+        // the fields are required even with the generated binder
+        // as the binder can't be used unless the action is on top
+        Map<String, PropertyDescriptor> properties = getProperties(actionClass);
+
+        this.flowIns = createFieldBindings(FlowIn.class, actionClass, properties);
+        this.flowOuts = createFieldBindings(FlowOut.class, actionClass, properties);
+        this.binder = findBinder(actionClass, getFieldsHash(flowIns, flowOuts));
+    }
+
+    /**
+     * @param actionClass action class to be described
+     * @return {@link FlowScopeBinding binding} of the action class
+     */
+    static FlowScopeBinding forClass(Class<?> actionClass) {
+        FlowScopeBinding binding = BINDINGS.get(actionClass);
+        if (binding == null) {
+            binding = new FlowScopeBinding(actionClass);
+            FlowScopeBinding existing = BINDINGS.putIfAbsent(actionClass, binding);
+            if (existing != null)
+                binding = existing;
+        }
+
+        return binding;
+    }
+
+    /**
+     * @param action action instance
+     * @param stack  value stack
+     * @return {@code true} if the action can be read and written directly,
+     *         i.e. it is the top of the value stack and not
+     *         {@link ModelDriven}, {@code false} otherwise
+     */
+    static boolean isDirect(Object action, ValueStack stack) {
+        return !(action instanceof ModelDriven) && stack.peek() == action;
+    }
+
+    /**
+     * @return {@link FlowScopeBinder generated binder} of the action class,
+     *         or {@code null} if there is none
+     */
+    FlowScopeBinder getBinder() {
+        return binder;
+    }
+
+    /**
+     * @return {@link FlowIn} annotated fields
+     */
+    List<FieldBinding> getFlowIns() {
+        return flowIns;
+    }
+
+    /**
+     * @return {@link FlowOut} annotated fields
+     */
+    List<FieldBinding> getFlowOuts() {
+        return flowOuts;
+    }
+
+    /**
+     * @param actionClass action class
+     * @param fieldsHash  {@link FlowScopeBinder#getFieldsHash() fields hash}
+     *                    of the action class
+     * @return {@link FlowScopeBinder generated binder} of the action class,
+     *         or {@code null} if there is none, or it can't be used
+     */
+    private static FlowScopeBinder findBinder(Class<?> actionClass, int fieldsHash) {
+        String binderClassName = actionClass.getName() + FlowScopeBinder.CLASS_NAME_SUFFIX;
+
+        FlowScopeBinder binder;
+        try {
+            Class<?> binderClass = ClassUtils.forName(binderClassName, actionClass.getClassLoader());
+            binder = (FlowScopeBinder) binderClass.newInstance();
+
+            // generated for the same fields?
+            // if not, it is left over from an older action class
+            if (binder.getFieldsHash() != fieldsHash) {
+                LOGGER.warn("ignoring stale flow scope binder {}, fields of {} have changed",
+                        binderClassName, actionClass.getName());
+                return null;
+            }
+        } catch (ClassNotFoundException e) {
+            LOGGER.debug("no flow scope binder generated for {}", actionClass.getName());
+            return null;
+        } catch (LinkageError e) {
+            // e.g. generated before the fields hash
+            LOGGER.warn("unable to load flow scope binder {}", binderClassName, e);
+            return null;
+        } catch (InstantiationException e) {
+            LOGGER.warn("unable to load flow scope binder {}", binderClassName, e);
+            return null;
+        } catch (IllegalAccessException e) {
+            LOGGER.warn("unable to load flow scope binder {}", binderClassName, e);
+            return null;
+        } catch (ClassCastException e) {
+            LOGGER.warn("unable to load flow scope binder {}", binderClassName, e);
+            return null;
+        }
+
+        LOGGER.debug("using flow scope binder {}", binderClassName);
+        return binder;
+    }
+
+    /**
+     * @param flowIns  {@link FlowIn} annotated fields
+     * @param flowOuts {@link FlowOut} annotated fields
+     * @return {@link FlowScopeBinder#getFieldsHash() fields hash}, as the
+     *         {@link FlowScopeBinderProcessor} computes it
+     */
+    private static int getFieldsHash(List<FieldBinding> flowIns, List<FieldBinding> flowOuts) {
+        List<String> entries = new ArrayList<String>();
+        for (FieldBinding field : flowIns) {
+            entries.add(FlowScopeBinderUtils.getFlowInEntry(
+                    field.getName(), field.type != null ? field.type.getCanonicalName() : null));
+        }
+        for (FieldBinding field : flowOuts)
+            entries.add(FlowScopeBinderUtils.getFlowOutEntry(field.getName()));
+
+        return FlowScopeBinderUtils.getFieldsHash(entries);
+    }
+
+    /**
+     * @param actionClass action class to be introspected
+     * @return property descriptors by name
+     */
+    private static Map<String, PropertyDescriptor> getProperties(Class<?> actionClass) {
+        Map<String, PropertyDescriptor> properties = new HashMap<String, PropertyDescriptor>();
+
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(actionClass);
+            for (PropertyDescriptor property : beanInfo.getPropertyDescriptors())
+                properties.put(property.getName(), property);
+        } catch (IntrospectionException e) {
+            // fine, will go with the value stack
+        }
+
+        return properties;
+    }
+
+    /**
+     * Walks the action class hierarchy (as
+     * {@link com.opensymphony.xwork2.util.AnnotationUtils#addAllFields(Class, Class, List)}
+     * does) to find the annotated fields.
+     *
+     * @param annotationClass annotation to be looked for
+     * @param actionClass     action class to be described
+     * @param properties      property descriptors of the action class
+     * @return {@link FieldBinding bindings} of the annotated fields
+     */
+    private static List<FieldBinding> createFieldBindings(Class<? extends Annotation> annotationClass,
+                                                          Class<?> actionClass,
+                                                          Map<String, PropertyDescriptor> properties) {
+        List<FieldBinding> bindings = new ArrayList<FieldBinding>();
+
+        for (Class<?> clazz = actionClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (field.isAnnotationPresent(annotationClass))
+                    bindings.add(new FieldBinding(field, properties.get(field.getName())));
+            }
+        }
+
+        return bindings.isEmpty()
+                ? Collections.<FieldBinding>emptyList()
+                : Collections.unmodifiableList(bindings);
+    }
+
+    /**
+     * The accessors of an annotated field.
+     */
+    static final class FieldBinding {
+
+        /**
+         * The field name, used as the flow execution scope key and as the
+         * value stack expression.
+         */
+        private final String name;
+        /**
+         * The public property getter, if any.
+         */
+        private final Method getter;
+        /**
+         * The public property setter, if any.
+         */
+        private final Method setter;
+        /**
+         * The setter parameter type (wrapped, if primitive), if any.
+         */
+        private final Class<?> type;
+
+        /**
+         * @param field    the annotated field
+         * @param property property descriptor of the field, if any
+         */
+        private FieldBinding(Field field, PropertyDescriptor property) {
+            this.name = field.getName();
+
+            Method getter = property != null ? property.getReadMethod() : null;
+            Method setter = property != null ? property.getWriteMethod() : null;
+            this.getter = getter != null && Modifier.isPublic(getter.getModifiers()) ? getter : null;
+            this.setter = setter != null && Modifier.isPublic(setter.getModifiers()) ? setter : null;
+            this.type = this.setter != null
+                    ? ClassUtils.resolvePrimitiveIfNecessary(this.setter.getParameterTypes()[0])
+                    : null;
+        }
+
+        /**
+         * @return the field name, used as the flow execution scope key
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Reads the field value, from the action through its getter if
+         * direct, through the value stack otherwise.
+         *
+         * @param action action instance
+         * @param stack  value stack
+         * @param direct whether the action can be read directly
+         * @return the field value
+         */
+        Object getValue(Object action, ValueStack stack, boolean direct) {
+            // can read the action directly?
+            // if not, let the value stack resolve the name
+            if (!direct || getter == null)
+                return stack.findValue(name);
+
+            try {
+                return getter.invoke(action);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to read " + name, e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Unable to read " + name, e.getTargetException());
+            }
+        }
+
+        /**
+         * Writes the value, to the action through its setter if direct and
+         * the value needs no type conversion, through the value stack
+         * otherwise.
+         *
+         * @param action action instance
+         * @param stack  value stack
+         * @param value  the value
+         * @param direct whether the action can be written directly
+         */
+        void setValue(Object action, ValueStack stack, Object value, boolean direct) {
+            // can write the action directly, without a type conversion?
+            // if not, let the value stack (OGNL) handle it
+            if (!direct || setter == null || !type.isInstance(value)) {
+                stack.setValue(name, value);
+                return;
+            }
+
+            try {
+                setter.invoke(action, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to write " + name, e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Unable to write " + name, e.getTargetException());
+            }
+        }
+    }
+}
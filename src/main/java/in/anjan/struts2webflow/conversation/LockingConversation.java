@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.conversation;
+
+import org.springframework.webflow.conversation.Conversation;
+import org.springframework.webflow.conversation.ConversationId;
+
+/**
+ * {@link Conversation} of the {@link LockingConversationManager}, locked
+ * by a lock of the manager rather than by its own lock.
+ */
+final class LockingConversation
+        implements Conversation {
+
+    /**
+     * The conversation kept in the session.
+     */
+    private final Conversation conversation;
+    /**
+     * The conversation manager.
+     */
+    private final LockingConversationManager conversationManager;
+    /**
+     * Key of the lock of the conversation.
+     */
+    private final LockingConversationManager.LockKey lockKey;
+    /**
+     * The lock acquired, if locked.
+     */
+    private LockingConversationManager.ConversationLock lock;
+
+    /**
+     * @param conversation        the conversation kept in the session
+     * @param conversationManager the conversation manager
+     */
+    LockingConversation(Conversation conversation, LockingConversationManager conversationManager) {
+        this.conversation = conversation;
+        this.conversationManager = conversationManager;
+        this.lockKey = conversationManager.getLockKey(conversation.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ConversationId getId() {
+        return conversation.getId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void lock() {
+        lock = conversationManager.lock(lockKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttribute(Object name) {
+        return conversation.getAttribute(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putAttribute(Object name, Object value) {
+        conversation.putAttribute(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAttribute(Object name) {
+        conversation.removeAttribute(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void end() {
+        conversation.end();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unlock() {
+        conversationManager.unlock(lockKey, lock);
+        conversationManager.rebindConversationContainer();
+    }
+}
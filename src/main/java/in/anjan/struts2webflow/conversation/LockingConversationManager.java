@@ -0,0 +1,391 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.conversation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.conversation.Conversation;
+import org.springframework.webflow.conversation.ConversationException;
+import org.springframework.webflow.conversation.ConversationId;
+import org.springframework.webflow.conversation.ConversationManager;
+import org.springframework.webflow.conversation.ConversationParameters;
+import org.springframework.webflow.conversation.impl.LockInterruptedException;
+import org.springframework.webflow.conversation.impl.LockTimeoutException;
+import org.springframework.webflow.conversation.impl.SessionBindingConversationManager;
+import org.springframework.webflow.core.collection.SharedAttributeMap;
+
+import in.anjan.struts2webflow.metrics.FlowMetrics;
+
+/**
+ * {@link ConversationManager Conversation manager} keeping the conversations
+ * in the session, as the {@link SessionBindingConversationManager} does,
+ * but locking them by locks held by the manager, rather than by locks stored
+ * along with each conversation in the session.
+ * <p/>
+ * A conversation is locked by a lock of its own, keyed by the conversation
+ * container it is kept in (by identity) and its id; so requests on different
+ * conversations never wait for each other, while requests on the same
+ * conversation are mutually exclusive, even if the session has been
+ * serialized or its id changed in between. A lock is dropped as soon as
+ * nobody holds or waits for it. Locking times out after
+ * {@link #setLockTimeoutSeconds(int)}.
+ * <p/>
+ * Keeps lock wait metrics; acquisitions, timeouts, total and max wait time;
+ * the wait times are recorded to the {@link FlowMetrics plugin metrics} too.
+ * <p/>
+ * To be handed to the flow executor, e.g.
+ * <pre>
+ * &lt;webflow:flow-executor id="flowExecutor"&gt;
+ *   &lt;webflow:flow-execution-repository conversation-manager="conversationManager"/&gt;
+ * &lt;/webflow:flow-executor&gt;
+ *
+ * &lt;bean id="conversationManager"
+ *       class="in.anjan.struts2webflow.conversation.LockingConversationManager"/&gt;
+ * </pre>
+ */
+public class LockingConversationManager
+        implements ConversationManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LockingConversationManager.class);
+
+    /**
+     * Default lock timeout in seconds, as of the
+     * {@link SessionBindingConversationManager}.
+     */
+    public static final int DEFAULT_LOCK_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Conversation manager keeping the conversations.
+     */
+    private final SessionBindingConversationManager conversationManager = new SessionBindingConversationManager();
+    /**
+     * Lock acquisitions.
+     */
+    private final AtomicLong lockAcquisitions = new AtomicLong();
+    /**
+     * Lock timeouts.
+     */
+    private final AtomicLong lockTimeouts = new AtomicLong();
+    /**
+     * Total lock wait time in nanoseconds.
+     */
+    private final AtomicLong lockWaitNanos = new AtomicLong();
+    /**
+     * Max lock wait time in nanoseconds.
+     */
+    private final AtomicLong maxLockWaitNanos = new AtomicLong();
+    /**
+     * Locks of the conversations locked or waited for, by conversation
+     * container and conversation id.
+     */
+    private final ConcurrentMap<LockKey, ConversationLock> locks = new ConcurrentHashMap<LockKey, ConversationLock>();
+    /**
+     * Lock timeout in seconds.
+     * <p/>
+     * Can be set through {@link #setLockTimeoutSeconds(int)}.
+     */
+    private int lockTimeoutSeconds = DEFAULT_LOCK_TIMEOUT_SECONDS;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Conversation beginConversation(ConversationParameters conversationParameters)
+            throws ConversationException {
+        return new LockingConversation(conversationManager.beginConversation(conversationParameters), this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Conversation getConversation(ConversationId id)
+            throws ConversationException {
+        return new LockingConversation(conversationManager.getConversation(id), this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ConversationId parseConversationId(String encodedId)
+            throws ConversationException {
+        return conversationManager.parseConversationId(encodedId);
+    }
+
+    /**
+     * @param id conversation id
+     * @return key of the lock of the conversation, in the conversation
+     *         container of the current session
+     */
+    LockKey getLockKey(ConversationId id) {
+        ExternalContext externalContext = ExternalContextHolder.getExternalContext();
+        Object container = externalContext != null
+                ? externalContext.getSessionMap().get(conversationManager.getSessionKey())
+                : null;
+        return new LockKey(container, id);
+    }
+
+    /**
+     * Acquires the lock of the conversation, keeping the metrics.
+     *
+     * @param key key of the lock
+     * @return the lock acquired, to be {@link #unlock(LockKey,
+     *         ConversationLock) unlocked}
+     * @throws LockTimeoutException     in case of timeout
+     * @throws LockInterruptedException in case of interruption
+     */
+    ConversationLock lock(LockKey key) {
+        // need a lock in use by anyone else
+        // or a new one, not one being dropped
+        ConversationLock lock;
+        while (true) {
+            lock = locks.get(key);
+            if (lock == null) {
+                ConversationLock newLock = new ConversationLock();
+                lock = locks.putIfAbsent(key, newLock);
+                if (lock == null)
+                    lock = newLock;
+            }
+            if (lock.use())
+                break;
+        }
+
+        long start = System.nanoTime();
+
+        boolean locked;
+        try {
+            locked = lock.tryLock(lockTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            release(key, lock);
+            throw new LockInterruptedException(e);
+        }
+
+        long wait = System.nanoTime() - start;
+        FlowMetrics.getInstance().recordLockWait(wait);
+        lockWaitNanos.addAndGet(wait);
+        for (long max = maxLockWaitNanos.get(); wait > max; max = maxLockWaitNanos.get())
+            if (maxLockWaitNanos.compareAndSet(max, wait))
+                break;
+
+        if (!locked) {
+            release(key, lock);
+            lockTimeouts.incrementAndGet();
+            throw new LockTimeoutException(lockTimeoutSeconds);
+        }
+
+        lockAcquisitions.incrementAndGet();
+        LOGGER.debug("conversation lock acquired in {} ns", wait);
+        return lock;
+    }
+
+    /**
+     * Releases the lock of the conversation.
+     *
+     * @param key  key of the lock
+     * @param lock the lock {@link #lock(LockKey) acquired}
+     */
+    void unlock(LockKey key, ConversationLock lock) {
+        lock.unlock();
+        release(key, lock);
+    }
+
+    /**
+     * Drops the lock once nobody holds or waits for it.
+     *
+     * @param key  key of the lock
+     * @param lock the lock
+     */
+    private void release(LockKey key, ConversationLock lock) {
+        if (lock.release())
+            locks.remove(key, lock);
+    }
+
+    /**
+     * Binds the conversation container to the session again, once a
+     * conversation is unlocked; as the {@link SessionBindingConversationManager}
+     * does, for the session replication to notice the changes.
+     */
+    void rebindConversationContainer() {
+        ExternalContext externalContext = ExternalContextHolder.getExternalContext();
+        if (externalContext == null)
+            return;
+
+        SharedAttributeMap<Object> sessionMap = externalContext.getSessionMap();
+        String sessionKey = conversationManager.getSessionKey();
+        Object container = sessionMap.get(sessionKey);
+        if (container != null)
+            sessionMap.put(sessionKey, container);
+    }
+
+    /**
+     * @return number of conversation locks held or waited for
+     */
+    public int getLockCount() {
+        return locks.size();
+    }
+
+    /**
+     * @return lock acquisitions
+     */
+    public long getLockAcquisitions() {
+        return lockAcquisitions.get();
+    }
+
+    /**
+     * @return lock timeouts
+     */
+    public long getLockTimeouts() {
+        return lockTimeouts.get();
+    }
+
+    /**
+     * @return total lock wait time in nanoseconds, timed out waits included
+     */
+    public long getLockWaitNanos() {
+        return lockWaitNanos.get();
+    }
+
+    /**
+     * @return max lock wait time in nanoseconds
+     */
+    public long getMaxLockWaitNanos() {
+        return maxLockWaitNanos.get();
+    }
+
+    /**
+     * Lock timeout in seconds, defaults to
+     * {@link #DEFAULT_LOCK_TIMEOUT_SECONDS}.
+     *
+     * @param lockTimeoutSeconds lock timeout in seconds to be set
+     */
+    public void setLockTimeoutSeconds(int lockTimeoutSeconds) {
+        this.lockTimeoutSeconds = lockTimeoutSeconds;
+    }
+
+    /**
+     * Max conversations per session, as of the
+     * {@link SessionBindingConversationManager#setMaxConversations(int)}.
+     *
+     * @param maxConversations max conversations to be set
+     */
+    public void setMaxConversations(int maxConversations) {
+        conversationManager.setMaxConversations(maxConversations);
+    }
+
+    /**
+     * Session attribute name of the conversation container, as of the
+     * {@link SessionBindingConversationManager#setSessionKey(String)}.
+     *
+     * @param sessionKey session attribute name to be set
+     */
+    public void setSessionKey(String sessionKey) {
+        conversationManager.setSessionKey(sessionKey);
+    }
+
+    /**
+     * Key of a conversation lock: the conversation container (by identity)
+     * and the conversation id.
+     */
+    static final class LockKey {
+
+        /**
+         * The conversation container, {@code null} if none.
+         */
+        private final Object container;
+        /**
+         * The conversation id.
+         */
+        private final ConversationId id;
+
+        /**
+         * @param container the conversation container, {@code null} if none
+         * @param id        the conversation id
+         */
+        LockKey(Object container, ConversationId id) {
+            this.container = container;
+            this.id = id;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof LockKey))
+                return false;
+
+            LockKey key = (LockKey) o;
+            return container == key.container && id.equals(key.id);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(container) + id.hashCode();
+        }
+    }
+
+    /**
+     * Lock of a conversation, counting its users (holders and waiters) to be
+     * dropped once there is none.
+     */
+    static final class ConversationLock
+            extends ReentrantLock {
+
+        /**
+         * Users of the lock, {@code -1} once dropped.
+         */
+        private int users;
+
+        /**
+         * @return {@code true} if in use from now on, {@code false} if
+         *         already dropped
+         */
+        synchronized boolean use() {
+            if (users < 0)
+                return false;
+
+            users++;
+            return true;
+        }
+
+        /**
+         * @return {@code true} if to be dropped, no users left
+         */
+        synchronized boolean release() {
+            if (--users > 0)
+                return false;
+
+            users = -1;
+            return true;
+        }
+    }
+}
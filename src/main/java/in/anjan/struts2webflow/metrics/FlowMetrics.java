@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The plugin metrics, as {@link Histogram histograms} by name:
+ * <ul>
+ *  <li>
+ *    {@code flow.launch.<flowId>}, flow launch latency in nanoseconds
+ *  </li>
+ *  <li>
+ *    {@code flow.resume.<flowId>}, flow resume latency in nanoseconds
+ *  </li>
+ *  <li>
+ *    {@code state.<flowId>.<stateId>}, Struts action state latency in
+ *    nanoseconds
+ *  </li>
+ *  <li>
+ *    {@code flowScope.fetch}, flow execution repository fetch latency of
+ *    the flow execution scope access, in nanoseconds
+ *  </li>
+ *  <li>
+ *    {@code repository.fetch}, client side flow execution repository fetch
+ *    latency in nanoseconds
+ *  </li>
+ *  <li>
+ *    {@code repository.snapshotSize}, flow execution snapshot size in bytes
+ *  </li>
+ *  <li>
+ *    {@code conversation.lockWait}, conversation lock wait time in
+ *    nanoseconds
+ *  </li>
+ * </ul>
+ * The counts (launches, resumes, fetches, ...) are the counts of the
+ * histograms.
+ * <p/>
+ * Recording takes a map lookup and a few atomic increments, no locking; the
+ * plugin records to the {@link #getInstance() shared instance}, to be
+ * {@link MetricsReporter reported} or {@link #setEnabled(boolean) disabled}.
+ */
+public class FlowMetrics {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlowMetrics.class);
+
+    /**
+     * Default max number of histograms, not to grow without bound on
+     * unexpected flow or state ids.
+     */
+    public static final int DEFAULT_MAX_HISTOGRAMS = 4096;
+
+    /**
+     * The shared instance.
+     */
+    private static final FlowMetrics INSTANCE = new FlowMetrics();
+
+    /**
+     * Flow launch latencies by flow id.
+     */
+    private final ConcurrentMap<String, Histogram> launches = new ConcurrentHashMap<String, Histogram>();
+    /**
+     * Flow resume latencies by flow id.
+     */
+    private final ConcurrentMap<String, Histogram> resumes = new ConcurrentHashMap<String, Histogram>();
+    /**
+     * Action state latencies by flow id and state id.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, Histogram>> actionStates =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Histogram>>();
+    /**
+     * Flow execution scope repository fetch latency.
+     */
+    private final Histogram flowScopeFetches = new Histogram();
+    /**
+     * Client side repository fetch latency.
+     */
+    private final Histogram repositoryFetches = new Histogram();
+    /**
+     * Snapshot sizes.
+     */
+    private final Histogram snapshotSizes = new Histogram();
+    /**
+     * Conversation lock wait time.
+     */
+    private final Histogram lockWaits = new Histogram();
+    /**
+     * Number of histograms by flow or state id.
+     */
+    private final AtomicInteger histograms = new AtomicInteger();
+    /**
+     * Whether to record.
+     * <p/>
+     * Can be set through {@link #setEnabled(boolean)}.
+     */
+    private volatile boolean enabled = true;
+    /**
+     * Max number of histograms by flow or state id.
+     * <p/>
+     * Can be set through {@link #setMaxHistograms(int)}.
+     */
+    private volatile int maxHistograms = DEFAULT_MAX_HISTOGRAMS;
+
+    /**
+     * @return the shared instance, the plugin records to
+     */
+    public static FlowMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param flowId flow id
+     * @param nanos  flow launch latency in nanoseconds
+     */
+    public void recordLaunch(String flowId, long nanos) {
+        if (enabled)
+            record(launches, flowId, nanos);
+    }
+
+    /**
+     * @param flowId flow id
+     * @param nanos  flow resume latency in nanoseconds
+     */
+    public void recordResume(String flowId, long nanos) {
+        if (enabled)
+            record(resumes, flowId, nanos);
+    }
+
+    /**
+     * @param flowId  flow id
+     * @param stateId action state id
+     * @param nanos   action state latency in nanoseconds
+     */
+    public void recordActionState(String flowId, String stateId, long nanos) {
+        // disabled, or nothing to record under?
+        // if yes, skip
+        if (!enabled || flowId == null || stateId == null)
+            return;
+
+        ConcurrentMap<String, Histogram> states = actionStates.get(flowId);
+        if (states == null) {
+            ConcurrentMap<String, Histogram> newStates = new ConcurrentHashMap<String, Histogram>();
+            states = actionStates.putIfAbsent(flowId, newStates);
+            if (states == null)
+                states = newStates;
+        }
+
+        record(states, stateId, nanos);
+    }
+
+    /**
+     * @param nanos flow execution scope repository fetch latency in
+     *              nanoseconds
+     */
+    public void recordFlowScopeFetch(long nanos) {
+        if (enabled)
+            flowScopeFetches.record(nanos);
+    }
+
+    /**
+     * @param nanos client side repository fetch latency in nanoseconds
+     */
+    public void recordRepositoryFetch(long nanos) {
+        if (enabled)
+            repositoryFetches.record(nanos);
+    }
+
+    /**
+     * @param bytes flow execution snapshot size in bytes
+     */
+    public void recordSnapshotSize(long bytes) {
+        if (enabled)
+            snapshotSizes.record(bytes);
+    }
+
+    /**
+     * @param nanos conversation lock wait time in nanoseconds
+     */
+    public void recordLockWait(long nanos) {
+        if (enabled)
+            lockWaits.record(nanos);
+    }
+
+    /**
+     * @return every histogram by name, sorted; live, not a copy of the values
+     */
+    public SortedMap<String, Histogram> getHistograms() {
+        SortedMap<String, Histogram> histograms = new TreeMap<String, Histogram>();
+        for (Map.Entry<String, Histogram> entry : launches.entrySet())
+            histograms.put("flow.launch." + entry.getKey(), entry.getValue());
+        for (Map.Entry<String, Histogram> entry : resumes.entrySet())
+            histograms.put("flow.resume." + entry.getKey(), entry.getValue());
+        for (Map.Entry<String, ConcurrentMap<String, Histogram>> states : actionStates.entrySet())
+            for (Map.Entry<String, Histogram> entry : states.getValue().entrySet())
+                histograms.put("state." + states.getKey() + "." + entry.getKey(), entry.getValue());
+        histograms.put("flowScope.fetch", flowScopeFetches);
+        histograms.put("repository.fetch", repositoryFetches);
+        histograms.put("repository.snapshotSize", snapshotSizes);
+        histograms.put("conversation.lockWait", lockWaits);
+
+        return histograms;
+    }
+
+    /**
+     * Records to the histogram by the id, creating it unless too many.
+     *
+     * @param histograms histograms by id
+     * @param id         flow or state id
+     * @param value      value to be recorded
+     */
+    private void record(ConcurrentMap<String, Histogram> histograms, String id, long value) {
+        // nothing to record under?
+        // if yes, skip (as a concurrent map takes no null keys)
+        if (id == null) {
+            LOGGER.debug("dropping metrics without an id");
+            return;
+        }
+
+        Histogram histogram = histograms.get(id);
+        if (histogram == null) {
+            // too many already?
+            // if yes, drop it
+            if (this.histograms.get() >= maxHistograms) {
+                LOGGER.debug("dropping metrics of {}, beyond {} histograms", id, maxHistograms);
+                return;
+            }
+
+            Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(id, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+                this.histograms.incrementAndGet();
+            }
+        }
+
+        histogram.record(value);
+    }
+
+    /**
+     * Whether to record, defaults to {@code true}.
+     *
+     * @param enabled {@code true} to record, {@code false} otherwise
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Max number of histograms by flow or state id, defaults to
+     * {@link #DEFAULT_MAX_HISTOGRAMS}; values of further flows or states are
+     * dropped.
+     *
+     * @param maxHistograms max number of histograms to be set
+     */
+    public void setMaxHistograms(int maxHistograms) {
+        this.maxHistograms = maxHistograms;
+    }
+}
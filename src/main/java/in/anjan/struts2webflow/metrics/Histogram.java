@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non negative values (latencies in nanoseconds, sizes
+ * in bytes), recording in constant time and space.
+ * <p/>
+ * Values are counted in buckets of a power of two split in eight; so the
+ * percentiles are approximate within 12.5%, while the count, the sum and the
+ * max are exact.
+ */
+public class Histogram
+        implements HistogramMXBean {
+
+    /**
+     * Sub buckets per power of two, as a shift.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+    /**
+     * Sub buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Number of buckets, enough for {@link Long#MAX_VALUE}.
+     */
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Counts by bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    /**
+     * Number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * Sum of the recorded values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+    /**
+     * Max recorded value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value, negative ones as {@code 0}.
+     *
+     * @param value value to be recorded
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        buckets.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        for (long current = max.get(); value > current; current = max.get())
+            if (max.compareAndSet(current, value))
+                break;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMean() {
+        long count = this.count.get();
+        return count > 0 ? (double) sum.get() / count : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMedian() {
+        return getPercentile(50);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long get90thPercentile() {
+        return getPercentile(90);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long get99thPercentile() {
+        return getPercentile(99);
+    }
+
+    /**
+     * @param percentile percentile, from {@code 0} to {@code 100}
+     * @return the value at the percentile, approximately; the upper bound of
+     *         its bucket, but not beyond the max
+     */
+    public long getPercentile(double percentile) {
+        // the buckets keep on changing while being read
+        // so, go by their own total
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts[i] = buckets.get(i);
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + ", mean=" + Math.round(getMean())
+                + ", p50=" + getMedian()
+                + ", p90=" + get90thPercentile()
+                + ", p99=" + get99thPercentile()
+                + ", max=" + getMax();
+    }
+
+    /**
+     * @param value non negative value
+     * @return bucket of the value
+     */
+    private static int bucket(long value) {
+        // small values?
+        // if yes, a bucket of their own
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket bucket
+     * @return max value of the bucket
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long upperBound = ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.metrics;
+
+/**
+ * Management interface of a {@link Histogram histogram}, as exposed through
+ * JMX.
+ */
+public interface HistogramMXBean {
+
+    /**
+     * @return number of recorded values
+     */
+    long getCount();
+
+    /**
+     * @return sum of the recorded values
+     */
+    long getSum();
+
+    /**
+     * @return max recorded value
+     */
+    long getMax();
+
+    /**
+     * @return mean of the recorded values
+     */
+    double getMean();
+
+    /**
+     * @return median of the recorded values, approximately
+     */
+    long getMedian();
+
+    /**
+     * @return 90th percentile of the recorded values, approximately
+     */
+    long get90thPercentile();
+
+    /**
+     * @return 99th percentile of the recorded values, approximately
+     */
+    long get99thPercentile();
+}
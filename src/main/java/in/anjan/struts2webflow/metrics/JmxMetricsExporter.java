@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * {@link MetricsExporter Metrics exporter} registering every histogram as an
+ * {@link HistogramMXBean MBean}, named
+ * {@code in.anjan.struts2webflow:type=Metrics,name="<histogram name>"}.
+ * <p/>
+ * The MBeans read the histograms live; exporting only registers the ones
+ * new since the last time. They are unregistered on destroy.
+ */
+public class JmxMetricsExporter
+        implements MetricsExporter, DisposableBean {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxMetricsExporter.class);
+
+    /**
+     * Default domain of the MBean names.
+     */
+    public static final String DEFAULT_DOMAIN = "in.anjan.struts2webflow";
+
+    /**
+     * Names of the MBeans registered.
+     */
+    private final Set<ObjectName> registered = new HashSet<ObjectName>();
+    /**
+     * MBean server to register to.
+     * <p/>
+     * Can be set through {@link #setMBeanServer(MBeanServer)}.
+     */
+    private MBeanServer mBeanServer;
+    /**
+     * Domain of the MBean names.
+     * <p/>
+     * Can be set through {@link #setDomain(String)}.
+     */
+    private String domain = DEFAULT_DOMAIN;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void export(SortedMap<String, Histogram> histograms) {
+        MBeanServer server = getMBeanServer();
+
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            try {
+                ObjectName name = new ObjectName(domain + ":type=Metrics,name=" + ObjectName.quote(entry.getKey()));
+                if (registered.contains(name))
+                    continue;
+
+                // left over by an earlier deployment?
+                // if yes, replace it
+                if (server.isRegistered(name))
+                    server.unregisterMBean(name);
+
+                server.registerMBean(entry.getValue(), name);
+                registered.add(name);
+            } catch (JMException e) {
+                LOGGER.warn("unable to register metrics MBean for " + entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void destroy() {
+        MBeanServer server = getMBeanServer();
+
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.debug("unable to unregister metrics MBean " + name, e);
+            }
+        }
+
+        registered.clear();
+    }
+
+    /**
+     * @return MBean server to register to
+     */
+    private MBeanServer getMBeanServer() {
+        return mBeanServer != null ? mBeanServer : ManagementFactory.getPlatformMBeanServer();
+    }
+
+    /**
+     * MBean server to register to, defaults to the platform one.
+     *
+     * @param mBeanServer MBean server to be set
+     */
+    public void setMBeanServer(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    /**
+     * Domain of the MBean names, defaults to {@link #DEFAULT_DOMAIN}.
+     *
+     * @param domain domain to be set
+     */
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.metrics;
+
+import java.util.SortedMap;
+
+/**
+ * Exports the {@link FlowMetrics plugin metrics} somewhere; to a log, JMX, a
+ * monitoring system, ...
+ * <p/>
+ * Called periodically by the {@link MetricsReporter metrics reporter}, from
+ * a single thread.
+ */
+public interface MetricsExporter {
+
+    /**
+     * @param histograms every histogram by name, live
+     */
+    void export(SortedMap<String, Histogram> histograms);
+}
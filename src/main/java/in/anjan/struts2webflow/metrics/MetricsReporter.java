@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Hands the {@link FlowMetrics plugin metrics} to the
+ * {@link MetricsExporter metrics exporters} periodically, on a daemon
+ * thread of its own; e.g.
+ * <pre>
+ * &lt;bean class="in.anjan.struts2webflow.metrics.MetricsReporter"&gt;
+ *   &lt;property name="exporters"&gt;
+ *     &lt;list&gt;
+ *       &lt;bean class="in.anjan.struts2webflow.metrics.JmxMetricsExporter"/&gt;
+ *     &lt;/list&gt;
+ *   &lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+public class MetricsReporter
+        implements InitializingBean, DisposableBean {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsReporter.class);
+
+    /**
+     * Default interval in seconds.
+     */
+    public static final int DEFAULT_INTERVAL_SECONDS = 60;
+
+    /**
+     * {@link FlowMetrics Metrics} to be reported.
+     * <p/>
+     * Can be set through {@link #setMetrics(FlowMetrics)}.
+     */
+    private FlowMetrics metrics = FlowMetrics.getInstance();
+    /**
+     * {@link MetricsExporter Metrics exporters} to report to.
+     * <p/>
+     * Can be set through {@link #setExporters(List)}.
+     */
+    private List<MetricsExporter> exporters = new ArrayList<MetricsExporter>();
+    /**
+     * Interval in seconds.
+     * <p/>
+     * Can be set through {@link #setIntervalSeconds(int)}.
+     */
+    private int intervalSeconds = DEFAULT_INTERVAL_SECONDS;
+    /**
+     * Scheduler of the reports.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "struts2webflow-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // report once right away
+        // so, the JMX MBeans turn up early
+        scheduler.scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        report();
+                    }
+                },
+                0,
+                intervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    /**
+     * Hands the metrics to every exporter, a failing exporter not to stop
+     * the others nor the next reports.
+     */
+    public void report() {
+        SortedMap<String, Histogram> histograms = metrics.getHistograms();
+
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.export(histograms);
+            } catch (RuntimeException e) {
+                LOGGER.warn("unable to export metrics to " + exporter, e);
+            }
+        }
+    }
+
+    /**
+     * {@link FlowMetrics Metrics} to be reported, defaults to the
+     * {@link FlowMetrics#getInstance() shared} one.
+     *
+     * @param metrics {@link FlowMetrics metrics} to be set
+     */
+    public void setMetrics(FlowMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * {@link MetricsExporter Metrics exporters} to report to.
+     *
+     * @param exporters {@link MetricsExporter metrics exporters} to be set
+     */
+    public void setExporters(List<MetricsExporter> exporters) {
+        this.exporters = exporters;
+    }
+
+    /**
+     * Interval in seconds, defaults to {@link #DEFAULT_INTERVAL_SECONDS}.
+     *
+     * @param intervalSeconds interval in seconds to be set
+     */
+    public void setIntervalSeconds(int intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in tracer of the plugin pipeline phases of a request, logging the
+ * trace of the requests slower than a threshold.
+ * <p/>
+ * Every thread has a ring buffer of its own, allocated once, where the
+ * phases are recorded as {@link System#nanoTime() timestamps}; so recording
+ * takes no allocation nor locking, and is a mere volatile read while
+ * {@link #setEnabled(boolean) disabled}. The ring buffer is a plain
+ * {@code long} array, so the container threads keeping it never pin the
+ * class loader of the web application once undeployed. A trace is started
+ * by the {@link in.anjan.struts2webflow.PausedKeyInterceptor paused key
+ * interceptor} (the outermost one, if nested), phases outside of a trace
+ * (e.g. of a flow executed asynchronously on another thread) are not
+ * recorded. Only the latest events of a trace are kept, when more than the
+ * buffer can hold.
+ * <p/>
+ * To be configured on the {@link #getInstance() shared instance}, e.g.
+ * <pre>
+ * &lt;bean class="in.anjan.struts2webflow.metrics.PhaseTracer" factory-method="getInstance"&gt;
+ *   &lt;property name="enabled" value="true"/&gt;
+ *   &lt;property name="slowThresholdMillis" value="500"/&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+public class PhaseTracer {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PhaseTracer.class);
+
+    /**
+     * Default slow request threshold in milliseconds.
+     */
+    public static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 1000;
+    /**
+     * Default capacity of the ring buffers, in events.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The shared instance.
+     */
+    private static final PhaseTracer INSTANCE = new PhaseTracer();
+
+    /**
+     * The ring buffer of every thread, {@code null} until first traced.
+     * <p/>
+     * Laid out as the number of events of the trace (beyond the capacity if
+     * wrapped), the nesting depth of the traced requests, the start of the
+     * trace in nanoseconds, followed by the events, a timestamp and the
+     * phase ordinal shifted left ({@code 1} for an end) each.
+     */
+    private static final ThreadLocal<long[]> RINGS = new ThreadLocal<long[]>();
+
+    /**
+     * Index of the number of events in a ring buffer.
+     */
+    private static final int COUNT = 0;
+    /**
+     * Index of the nesting depth in a ring buffer.
+     */
+    private static final int DEPTH = 1;
+    /**
+     * Index of the start of the trace in a ring buffer.
+     */
+    private static final int START = 2;
+    /**
+     * Index of the first event in a ring buffer.
+     */
+    private static final int EVENTS = 3;
+
+    /**
+     * Phases of the plugin pipeline.
+     */
+    public enum Phase {
+
+        /**
+         * Copy of the flow execution scope to the value stack, by the
+         * {@link in.anjan.struts2webflow.PausedKeyInterceptor paused key
+         * interceptor}.
+         */
+        FLOW_SCOPE_COPY,
+        /**
+         * Fetch of a flow execution from the repository, for the flow
+         * execution scope.
+         */
+        REPOSITORY_FETCH,
+        /**
+         * Launch of a flow execution.
+         */
+        FLOW_LAUNCH,
+        /**
+         * Resume of a flow execution.
+         */
+        FLOW_RESUME,
+        /**
+         * Execution of a Struts action of an action state.
+         */
+        STRUTS_ACTION,
+        /**
+         * Rendering of the view, execution of the Struts result.
+         */
+        VIEW_RENDERING,
+        /**
+         * Write back of the flow execution scope changes to the repository.
+         */
+        FLOW_SCOPE_WRITE_BACK
+    }
+
+    /**
+     * Whether to trace.
+     * <p/>
+     * Can be set through {@link #setEnabled(boolean)}.
+     */
+    private volatile boolean enabled = false;
+    /**
+     * Slow request threshold in nanoseconds.
+     * <p/>
+     * Can be set through {@link #setSlowThresholdMillis(long)}.
+     */
+    private volatile long slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_THRESHOLD_MILLIS);
+    /**
+     * Capacity of the ring buffers.
+     * <p/>
+     * Can be set through {@link #setCapacity(int)}.
+     */
+    private volatile int capacity = DEFAULT_CAPACITY;
+
+    /**
+     * @return the shared instance, the plugin traces to
+     */
+    public static PhaseTracer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the trace of a request on the current thread, unless already
+     * started by an outer one.
+     * <p/>
+     * To be followed by {@link #endRequest(boolean, String, String)}, in a
+     * finally block.
+     *
+     * @return {@code true} if traced, to be handed to
+     *         {@link #endRequest(boolean, String, String)}; {@code false} if
+     *         disabled
+     */
+    public boolean startRequest() {
+        if (!enabled)
+            return false;
+
+        long[] ring = RINGS.get();
+        if (ring == null) {
+            ring = newRing(capacity);
+            RINGS.set(ring);
+        }
+
+        if (ring[DEPTH]++ == 0) {
+            ring[COUNT] = 0;
+            ring[START] = System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * Ends the trace of a request on the current thread, logging it if
+     * slow; unless started by an outer one.
+     * <p/>
+     * Balances {@link #startRequest()} even if disabled or enabled in
+     * between.
+     *
+     * @param traced    whether {@link #startRequest()} traced
+     * @param namespace Struts namespace of the request
+     * @param action    Struts action of the request
+     */
+    public void endRequest(boolean traced, String namespace, String action) {
+        if (!traced)
+            return;
+
+        long[] ring = RINGS.get();
+        if (ring == null || ring[DEPTH] == 0 || --ring[DEPTH] > 0)
+            return;
+
+        long elapsed = System.nanoTime() - ring[START];
+        if (elapsed >= slowThresholdNanos && LOGGER.isWarnEnabled())
+            LOGGER.warn(dump(ring, namespace, action, elapsed));
+    }
+
+    /**
+     * Records the beginning of a phase on the current thread.
+     *
+     * @param phase the phase
+     */
+    public void begin(Phase phase) {
+        if (enabled)
+            record(phase.ordinal() << 1);
+    }
+
+    /**
+     * Records the end of a phase on the current thread.
+     *
+     * @param phase the phase
+     */
+    public void end(Phase phase) {
+        if (enabled)
+            record(phase.ordinal() << 1 | 1);
+    }
+
+    /**
+     * Records an event, if tracing.
+     *
+     * @param event the event
+     */
+    private static void record(int event) {
+        long[] ring = RINGS.get();
+        if (ring == null || ring[DEPTH] == 0)
+            return;
+
+        int index = EVENTS + (((int) ring[COUNT]++ & (size(ring) - 1)) << 1);
+        ring[index] = System.nanoTime();
+        ring[index + 1] = event;
+    }
+
+    /**
+     * @param capacity capacity in events
+     * @return a ring buffer, of a power of two events
+     */
+    private static long[] newRing(int capacity) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+
+        return new long[EVENTS + (size << 1)];
+    }
+
+    /**
+     * @param ring ring buffer
+     * @return capacity of the ring buffer in events
+     */
+    private static int size(long[] ring) {
+        return (ring.length - EVENTS) >>> 1;
+    }
+
+    /**
+     * @param ring      ring buffer
+     * @param namespace Struts namespace of the request
+     * @param action    Struts action of the request
+     * @param elapsed   elapsed time of the request in nanoseconds
+     * @return the trace, readable
+     */
+    private static String dump(long[] ring, String namespace, String action, long elapsed) {
+        Phase[] phases = Phase.values();
+        int count = (int) ring[COUNT];
+        int mask = size(ring) - 1;
+        int size = Math.min(count, mask + 1);
+        int first = count - size;
+
+        StringBuilder trace = new StringBuilder(64 + size * 48);
+        trace.append("slow request ").append(namespace).append('/').append(action)
+             .append(" took ").append(millis(elapsed)).append(" ms");
+        if (first > 0)
+            trace.append(", first ").append(first).append(" events dropped");
+
+        for (int i = first; i < count; i++) {
+            int index = EVENTS + ((i & mask) << 1);
+            int event = (int) ring[index + 1];
+            Phase phase = phases[event >>> 1];
+            boolean end = (event & 1) != 0;
+
+            trace.append("\n  +").append(millis(ring[index] - ring[START])).append(" ms ")
+                 .append(end ? "< " : "> ").append(phase);
+
+            // an end?
+            // if yes, find its beginning to tell the duration
+            if (end) {
+                for (int j = i - 1, nested = 0; j >= first; j--) {
+                    int other = (int) ring[EVENTS + ((j & mask) << 1) + 1];
+                    if (other >>> 1 != phase.ordinal())
+                        continue;
+                    if ((other & 1) != 0) {
+                        nested++;
+                    } else if (nested-- == 0) {
+                        trace.append(" (").append(millis(ring[index] - ring[EVENTS + ((j & mask) << 1)])).append(" ms)");
+                        break;
+                    }
+                }
+            }
+        }
+
+        return trace.toString();
+    }
+
+    /**
+     * @param nanos time in nanoseconds
+     * @return time in milliseconds, to microseconds
+     */
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Whether to trace, defaults to {@code false}.
+     *
+     * @param enabled {@code true} to trace, {@code false} otherwise
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Slow request threshold in milliseconds, defaults to
+     * {@link #DEFAULT_SLOW_THRESHOLD_MILLIS}; the requests taking as long are
+     * logged.
+     *
+     * @param slowThresholdMillis slow request threshold to be set
+     */
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+    }
+
+    /**
+     * Capacity of the ring buffers in events, rounded up to a power of two;
+     * defaults to {@link #DEFAULT_CAPACITY}. A phase takes two events.
+     * <p/>
+     * To be set before use, the threads already tracing keep their buffers.
+     *
+     * @param capacity capacity to be set
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 2)
+            throw new IllegalArgumentException("Capacity must be at least 2, " + capacity);
+
+        this.capacity = capacity;
+    }
+}
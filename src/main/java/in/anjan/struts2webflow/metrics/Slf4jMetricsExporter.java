@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MetricsExporter Metrics exporter} logging every histogram recorded
+ * to so far, at info level.
+ */
+public class Slf4jMetricsExporter
+        implements MetricsExporter {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(Slf4jMetricsExporter.class);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void export(SortedMap<String, Histogram> histograms) {
+        if (!LOGGER.isInfoEnabled())
+            return;
+
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet())
+            if (entry.getValue().getCount() > 0)
+                LOGGER.info("{}: {}", entry.getKey(), entry.getValue());
+    }
+}
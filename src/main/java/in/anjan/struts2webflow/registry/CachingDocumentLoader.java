@@ -0,0 +1,355 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.registry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.engine.model.builder.xml.DefaultDocumentLoader;
+import org.springframework.webflow.engine.model.builder.xml.DocumentLoader;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * {@link DocumentLoader Document loader} validating a flow definition against
+ * the Spring Web Flow schema only the first time its content is seen.
+ * <p/>
+ * The first time, a flow definition is validated (parsed once, as the
+ * {@link DefaultDocumentLoader} does) and, off the loading thread, proven to
+ * parse the same without validation; only if both documents are equal (e.g.
+ * it relies on no attribute defaulted by the schema), its checksum is kept
+ * in an index file in the {@link #setCacheDirectory(File) cache directory}.
+ * So, across restarts, the flow definitions known to parse the same without
+ * validation are merely parsed, the others validated. The checksums cover the Spring Web Flow
+ * version (or, if unknown, its jar) and the Java version too, so an upgrade
+ * validates everything again.
+ * <p/>
+ * Without a cache directory, validates every time, as the
+ * {@link DefaultDocumentLoader} does.
+ * <p/>
+ * Caches no parsed document or assembled flow model, only the verdict;
+ * parsing is a fraction of building a flow, the schema validation is what
+ * is saved.
+ */
+public class CachingDocumentLoader
+        implements DocumentLoader {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingDocumentLoader.class);
+
+    /**
+     * Name of the index file in the cache directory.
+     */
+    public static final String INDEX_FILE_NAME = "flow-checksums.idx";
+
+    /**
+     * Checksum algorithm.
+     */
+    private static final String CHECKSUM_ALGORITHM = "SHA-1";
+    /**
+     * Checksum length in bytes.
+     */
+    private static final int CHECKSUM_LENGTH = 20;
+    /**
+     * Salt of the checksums, by the index format, the Spring Web Flow
+     * version and the Java version (of the XML parser).
+     */
+    private static final byte[] CHECKSUM_SALT =
+            ("2:" + getWebFlowVersion() + ":" + System.getProperty("java.version")).getBytes(Charset.forName("UTF-8"));
+
+    /**
+     * Loader validating against the schema.
+     */
+    private final DefaultDocumentLoader validatingLoader = new DefaultDocumentLoader();
+    /**
+     * Loader not validating.
+     */
+    private final DefaultDocumentLoader loader = new DefaultDocumentLoader();
+    /**
+     * Executor of the proofs, with a single thread that dies when idle.
+     */
+    private final Executor proofExecutor =
+            new ThreadPoolExecutor(
+                    0, 1, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "struts2webflow-flow-checksum");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+    /**
+     * Directory of the index file, if any.
+     * <p/>
+     * Can be set through {@link #setCacheDirectory(File)}.
+     */
+    private File cacheDirectory;
+    /**
+     * Checksums of the flow definitions validated, as read from the index
+     * file; {@code null} until first used.
+     */
+    private Set<String> checksums;
+
+    /**
+     * Creates the loader.
+     */
+    public CachingDocumentLoader() {
+        loader.setValidating(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Document loadDocument(Resource resource)
+            throws IOException, ParserConfigurationException, SAXException {
+        if (cacheDirectory == null)
+            return validatingLoader.loadDocument(resource);
+
+        byte[] bytes;
+        InputStream in = resource.getInputStream();
+        try {
+            bytes = StreamUtils.copyToByteArray(in);
+        } finally {
+            in.close();
+        }
+
+        byte[] checksum = checksum(bytes);
+        Resource content = new ByteArrayResource(bytes, resource.getDescription());
+
+        // validated before as is?
+        // if yes, parsing will do
+        if (isValidated(checksum)) {
+            LOGGER.debug("parsing {}, validated before", resource);
+            return loader.loadDocument(content);
+        }
+
+        Document document = validatingLoader.loadDocument(content);
+        LOGGER.debug("validated {}", resource);
+
+        // prove it parses the same without validation
+        // off this thread, not to slow down the first load
+        proveLater(content, checksum);
+
+        return document;
+    }
+
+    /**
+     * Proves, on the {@link #proofExecutor proof executor}, that the flow
+     * definition parses the same with and without validation, and indexes its
+     * checksum if so.
+     * <p/>
+     * Parses both again, not to share the document handed out (a DOM is not
+     * safe for concurrent use, not even to read).
+     *
+     * @param content  the flow definition
+     * @param checksum checksum of the flow definition
+     */
+    private void proveLater(final Resource content, final byte[] checksum) {
+        Runnable proof = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // parses the same without validation?
+                    // if yes, no need to validate next time
+                    // else, the schema makes a difference (e.g. defaulted attributes)
+                    Document validated = validatingLoader.loadDocument(content);
+                    if (validated.isEqualNode(loader.loadDocument(content)))
+                        addValidated(checksum);
+                    else
+                        LOGGER.debug("{} depends on the schema, to be validated every time", content);
+                } catch (Exception e) {
+                    LOGGER.debug("unable to prove {}, to be validated next time", content, e);
+                }
+            }
+        };
+
+        // failing to prove is no failure
+        // just validating again next time
+        try {
+            proofExecutor.execute(proof);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("unable to prove {}, to be validated next time", content, e);
+        }
+    }
+
+    /**
+     * @param checksum checksum of a flow definition
+     * @return {@code true} if validated before, {@code false} otherwise
+     */
+    private synchronized boolean isValidated(byte[] checksum) {
+        return getChecksums().contains(toHex(checksum));
+    }
+
+    /**
+     * Adds the checksum of a flow definition validated to the index.
+     *
+     * @param checksum checksum of a flow definition
+     */
+    private synchronized void addValidated(byte[] checksum) {
+        if (!getChecksums().add(toHex(checksum)))
+            return;
+
+        // failing to write is no failure
+        // just validating again next time
+        try {
+            if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())
+                throw new IOException("Unable to create directory " + cacheDirectory);
+
+            OutputStream out = new FileOutputStream(new File(cacheDirectory, INDEX_FILE_NAME), true);
+            try {
+                out.write(checksum);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("unable to write flow definition checksum index", e);
+        }
+    }
+
+    /**
+     * @return checksums of the flow definitions validated, read from the
+     *         index file on first use
+     */
+    private Set<String> getChecksums() {
+        if (checksums != null)
+            return checksums;
+
+        checksums = new HashSet<String>();
+
+        File index = new File(cacheDirectory, INDEX_FILE_NAME);
+        if (!index.isFile())
+            return checksums;
+
+        try {
+            byte[] bytes;
+            InputStream in = new FileInputStream(index);
+            try {
+                bytes = StreamUtils.copyToByteArray(in);
+            } finally {
+                in.close();
+            }
+
+            // a torn last entry (e.g. crashed while writing)?
+            // if yes, ignored
+            byte[] checksum = new byte[CHECKSUM_LENGTH];
+            for (int offset = 0; offset + CHECKSUM_LENGTH <= bytes.length; offset += CHECKSUM_LENGTH) {
+                System.arraycopy(bytes, offset, checksum, 0, CHECKSUM_LENGTH);
+                checksums.add(toHex(checksum));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("unable to read flow definition checksum index", e);
+        }
+
+        LOGGER.debug("read {} flow definition checksums", checksums.size());
+        return checksums;
+    }
+
+    /**
+     * @return the Spring Web Flow version; if not in its manifest, the
+     *         location, the length and the last modified time of its jar;
+     *         if not even known, a random one, never to be matched
+     */
+    private static String getWebFlowVersion() {
+        Package webFlowPackage = FlowDefinition.class.getPackage();
+        String version = webFlowPackage != null ? webFlowPackage.getImplementationVersion() : null;
+        if (version != null)
+            return version;
+
+        try {
+            CodeSource source = FlowDefinition.class.getProtectionDomain().getCodeSource();
+            URL location = source != null ? source.getLocation() : null;
+            if (location != null && "file".equals(location.getProtocol())) {
+                File jar = new File(location.toURI());
+                return location + "@" + jar.lastModified() + ":" + jar.length();
+            }
+        } catch (URISyntaxException e) {
+            LOGGER.debug("unable to find Spring Web Flow jar", e);
+        } catch (SecurityException e) {
+            LOGGER.debug("unable to find Spring Web Flow jar", e);
+        }
+
+        LOGGER.debug("Spring Web Flow version unknown, validating every time after restart");
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * @param bytes flow definition
+     * @return checksum of the flow definition
+     */
+    private static byte[] checksum(byte[] bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+            digest.update(CHECKSUM_SALT);
+            return digest.digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to checksum flow definitions", e);
+        }
+    }
+
+    /**
+     * @param bytes bytes
+     * @return the bytes, hex encoded
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+
+    /**
+     * Directory to keep the index file in, none by default; e.g. a directory
+     * surviving the restarts but not the deploys.
+     *
+     * @param cacheDirectory cache directory to be set
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+}
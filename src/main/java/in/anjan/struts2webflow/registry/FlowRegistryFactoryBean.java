@@ -0,0 +1,317 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.registry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ResourceLoaderAware;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistryImpl;
+import org.springframework.webflow.engine.builder.DefaultFlowHolder;
+import org.springframework.webflow.engine.builder.FlowAssembler;
+import org.springframework.webflow.engine.builder.model.FlowModelFlowBuilder;
+import org.springframework.webflow.engine.builder.support.FlowBuilderContextImpl;
+import org.springframework.webflow.engine.builder.support.FlowBuilderServices;
+import org.springframework.webflow.engine.model.builder.DefaultFlowModelHolder;
+import org.springframework.webflow.engine.model.builder.xml.XmlFlowModelBuilder;
+import org.springframework.webflow.engine.model.registry.FlowModelHolder;
+import org.springframework.webflow.engine.model.registry.FlowModelRegistryImpl;
+
+/**
+ * Builds the {@link FlowDefinitionRegistry flow definition registry} of the
+ * XML flow definitions found by {@link #setFlowLocationPatterns(String[])
+ * location patterns}, as the {@code <webflow:flow-registry>} does; but with
+ * the flow definitions parsed by a {@link CachingDocumentLoader caching
+ * document loader}, so that only the changed ones are validated against the
+ * schema at startup.
+ * <p/>
+ * A flow id is the file name of its definition, less the extension; e.g.
+ * {@code /WEB-INF/flows/booking.xml} is {@code booking}. Flows are built on
+ * first use, as usual.
+ * <p/>
+ * With a {@link #setCheckIntervalSeconds(int) check interval}, the registry
+ * is a {@link ReloadableFlowDefinitionRegistry reloadable} one; rebuilt in
+ * the background and swapped in as soon as a flow definition has changed.
+ * <p/>
+ * To be used in place of the {@code <webflow:flow-registry>}, e.g.
+ * <pre>
+ * &lt;bean id="flowRegistry" class="in.anjan.struts2webflow.registry.FlowRegistryFactoryBean"&gt;
+ *   &lt;property name="flowLocationPatterns" value="/WEB-INF/flows/*.xml"/&gt;
+ *   &lt;property name="flowBuilderServices" ref="flowBuilderServices"/&gt;
+ *   &lt;property name="cacheDirectory" value="/var/cache/myapp/flows"/&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+public class FlowRegistryFactoryBean
+        implements FactoryBean<FlowDefinitionRegistry>, InitializingBean, DisposableBean, ResourceLoaderAware {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlowRegistryFactoryBean.class);
+
+    /**
+     * Default delay to destroy a replaced registry after, in seconds.
+     */
+    public static final int DEFAULT_DESTROY_DELAY_SECONDS = 300;
+
+    /**
+     * {@link CachingDocumentLoader Document loader} of the flow definitions.
+     */
+    private final CachingDocumentLoader documentLoader = new CachingDocumentLoader();
+    /**
+     * Location patterns of the flow definitions.
+     * <p/>
+     * Must be set through {@link #setFlowLocationPatterns(String[])}.
+     */
+    private String[] flowLocationPatterns;
+    /**
+     * {@link FlowBuilderServices Flow builder services} to build the flows
+     * with.
+     * <p/>
+     * Must be set through {@link #setFlowBuilderServices(FlowBuilderServices)}.
+     */
+    private FlowBuilderServices flowBuilderServices;
+    /**
+     * Parent {@link FlowDefinitionRegistry flow definition registry}, if any.
+     * <p/>
+     * Can be set through {@link #setParent(FlowDefinitionRegistry)}.
+     */
+    private FlowDefinitionRegistry parent;
+    /**
+     * Interval to check the flow definitions for changes, in seconds;
+     * {@code 0} not to check.
+     * <p/>
+     * Can be set through {@link #setCheckIntervalSeconds(int)}.
+     */
+    private int checkIntervalSeconds = 0;
+    /**
+     * Delay to destroy a replaced registry after, in seconds.
+     * <p/>
+     * Can be set through {@link #setDestroyDelaySeconds(int)}.
+     */
+    private int destroyDelaySeconds = DEFAULT_DESTROY_DELAY_SECONDS;
+    /**
+     * Resolver of the location patterns.
+     */
+    private ResourcePatternResolver resourcePatternResolver;
+    /**
+     * The {@link FlowDefinitionRegistry flow definition registry} built.
+     */
+    private FlowDefinitionRegistry registry;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+            throws IOException {
+        if (flowLocationPatterns == null || flowBuilderServices == null)
+            throw new IllegalStateException("Flow location patterns and flow builder services must be set");
+
+        // configured to check for changes?
+        // if yes, reload on change
+        registry =
+                checkIntervalSeconds > 0
+                        ? new ReloadableFlowDefinitionRegistry(this, checkIntervalSeconds, destroyDelaySeconds)
+                        : buildRegistry();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        // destroyable?
+        // (the registry interface has no destroy)
+        if (registry instanceof ReloadableFlowDefinitionRegistry)
+            ((ReloadableFlowDefinitionRegistry) registry).destroy();
+        else if (registry instanceof FlowDefinitionRegistryImpl)
+            ((FlowDefinitionRegistryImpl) registry).destroy();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowDefinitionRegistry getObject() {
+        return registry;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Class<?> getObjectType() {
+        return FlowDefinitionRegistry.class;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setResourceLoader(ResourceLoader resourceLoader) {
+        this.resourcePatternResolver = ResourcePatternUtils.getResourcePatternResolver(resourceLoader);
+    }
+
+    /**
+     * Builds a new registry of the flow definitions currently found.
+     *
+     * @return {@link FlowDefinitionRegistry flow definition registry}
+     * @throws IOException in case the flow definitions could not be found
+     */
+    FlowDefinitionRegistryImpl buildRegistry()
+            throws IOException {
+        FlowDefinitionRegistryImpl registry = new FlowDefinitionRegistryImpl();
+        registry.setParent(parent);
+
+        FlowModelRegistryImpl modelRegistry = new FlowModelRegistryImpl();
+
+        for (Map.Entry<String, Resource> entry : findFlowResources().entrySet()) {
+            String flowId = entry.getKey();
+
+            XmlFlowModelBuilder modelBuilder = new XmlFlowModelBuilder(entry.getValue(), modelRegistry);
+            modelBuilder.setDocumentLoader(documentLoader);
+
+            FlowModelHolder modelHolder = new DefaultFlowModelHolder(modelBuilder);
+            modelRegistry.registerFlowModel(flowId, modelHolder);
+
+            FlowBuilderContextImpl builderContext =
+                    new FlowBuilderContextImpl(
+                            flowId,
+                            new LocalAttributeMap<Object>(),
+                            registry,
+                            flowBuilderServices);
+            registry.registerFlowDefinition(
+                    new DefaultFlowHolder(new FlowAssembler(new FlowModelFlowBuilder(modelHolder), builderContext)));
+        }
+
+        LOGGER.debug("registered {} flows", registry.getFlowDefinitionCount());
+        return registry;
+    }
+
+    /**
+     * @return flow definitions currently found, by flow id
+     * @throws IOException in case the flow definitions could not be found
+     */
+    Map<String, Resource> findFlowResources()
+            throws IOException {
+        Map<String, Resource> resources = new LinkedHashMap<String, Resource>();
+
+        for (String pattern : flowLocationPatterns) {
+            for (Resource resource : resourcePatternResolver.getResources(pattern.trim())) {
+                String flowId = StringUtils.stripFilenameExtension(resource.getFilename());
+
+                Resource existing = resources.put(flowId, resource);
+                if (existing != null && !existing.equals(resource))
+                    throw new IllegalStateException(
+                            "Flow id '" + flowId + "' defined by both " + existing + " and " + resource);
+            }
+        }
+
+        return resources;
+    }
+
+    /**
+     * Location patterns of the flow definitions, e.g.
+     * {@code /WEB-INF/flows/**}{@code /*.xml}.
+     *
+     * @param flowLocationPatterns location patterns to be set
+     */
+    public void setFlowLocationPatterns(String[] flowLocationPatterns) {
+        this.flowLocationPatterns = flowLocationPatterns;
+    }
+
+    /**
+     * {@link FlowBuilderServices Flow builder services} to build the flows
+     * with; e.g. the {@code <webflow:flow-builder-services>}.
+     *
+     * @param flowBuilderServices {@link FlowBuilderServices flow builder
+     *                            services} to be set
+     */
+    public void setFlowBuilderServices(FlowBuilderServices flowBuilderServices) {
+        this.flowBuilderServices = flowBuilderServices;
+    }
+
+    /**
+     * Parent {@link FlowDefinitionRegistry flow definition registry}, none
+     * by default.
+     *
+     * @param parent parent {@link FlowDefinitionRegistry flow definition
+     *               registry} to be set
+     */
+    public void setParent(FlowDefinitionRegistry parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Directory to keep the checksums of the flow definitions validated in,
+     * none by default; as of the
+     * {@link CachingDocumentLoader#setCacheDirectory(File)}.
+     *
+     * @param cacheDirectory cache directory to be set
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        documentLoader.setCacheDirectory(cacheDirectory);
+    }
+
+    /**
+     * Interval to check the flow definitions for changes, in seconds;
+     * defaults to {@code 0}, not to check. The check runs in the background,
+     * listing the flow definitions and their last modified times.
+     *
+     * @param checkIntervalSeconds check interval to be set
+     */
+    public void setCheckIntervalSeconds(int checkIntervalSeconds) {
+        this.checkIntervalSeconds = checkIntervalSeconds;
+    }
+
+    /**
+     * Delay to destroy a replaced registry after, in seconds; defaults to
+     * {@link #DEFAULT_DESTROY_DELAY_SECONDS}. The flow executions launched or
+     * resumed before a reload might still be using the flows of the replaced
+     * registry meanwhile.
+     *
+     * @param destroyDelaySeconds destroy delay to be set
+     */
+    public void setDestroyDelaySeconds(int destroyDelaySeconds) {
+        this.destroyDelaySeconds = destroyDelaySeconds;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.registry;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.io.Resource;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.registry.FlowDefinitionConstructionException;
+import org.springframework.webflow.definition.registry.FlowDefinitionHolder;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistryImpl;
+import org.springframework.webflow.definition.registry.NoSuchFlowDefinitionException;
+
+/**
+ * {@link FlowDefinitionRegistry Flow definition registry} reloading the flow
+ * definitions copy on write: once a flow definition is found changed, a new
+ * registry is built on a background thread and swapped in atomically.
+ * <p/>
+ * Requests never wait for a reload nor check for changes themselves; they
+ * read the current registry through a volatile field. The flow executions
+ * launched or resumed before the swap carry on with the flow definitions
+ * they hold; the old registry is destroyed only after a
+ * {@link FlowRegistryFactoryBean#setDestroyDelaySeconds(int) delay}, for
+ * them to complete.
+ * <p/>
+ * Changes are checked every
+ * {@link FlowRegistryFactoryBean#setCheckIntervalSeconds(int) interval}, by
+ * the location, the last modified time and the length of the flow
+ * definitions found. Every flow of the new registry is built before the
+ * swap, so no request pays for (or fails on) building one; if any of them
+ * fails to build, the current registry is kept, and the build is retried on
+ * the next check.
+ * <p/>
+ * Flow definitions registered explicitly are kept in a registry of their
+ * own, the parent of every registry built, so they survive the reloads; as
+ * parent's, they are not listed by {@link #getFlowDefinitionIds()}.
+ * <p/>
+ * Created by the {@link FlowRegistryFactoryBean}. The flow builder services
+ * are not to be in development mode, which checks for changes on every
+ * request.
+ */
+public class ReloadableFlowDefinitionRegistry
+        implements FlowDefinitionRegistry {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReloadableFlowDefinitionRegistry.class);
+
+    /**
+     * {@link FlowRegistryFactoryBean Factory} to build the registries with.
+     */
+    private final FlowRegistryFactoryBean factory;
+    /**
+     * Delay to destroy a replaced registry after, in seconds.
+     */
+    private final int destroyDelaySeconds;
+    /**
+     * Flow definitions registered explicitly, the parent of every registry
+     * built.
+     */
+    private final FlowDefinitionRegistryImpl registered = new FlowDefinitionRegistryImpl();
+    /**
+     * Scheduler of the checks and the destroys.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * The current registry.
+     */
+    private volatile FlowDefinitionRegistryImpl current;
+    /**
+     * Fingerprints of the flow definitions last checked, by flow id.
+     */
+    private Map<String, String> fingerprints;
+
+    /**
+     * Builds the current registry, and starts checking for changes.
+     *
+     * @param factory              {@link FlowRegistryFactoryBean factory}
+     *                             to build the registries with
+     * @param checkIntervalSeconds interval to check for changes, in seconds
+     * @param destroyDelaySeconds  delay to destroy a replaced registry after,
+     *                             in seconds
+     * @throws IOException in case the flow definitions could not be found
+     */
+    ReloadableFlowDefinitionRegistry(FlowRegistryFactoryBean factory,
+                                     int checkIntervalSeconds,
+                                     int destroyDelaySeconds)
+            throws IOException {
+        this.factory = factory;
+        this.destroyDelaySeconds = destroyDelaySeconds;
+
+        this.fingerprints = fingerprint(factory.findFlowResources());
+        this.current = factory.buildRegistry();
+        this.registered.setParent(current.getParent());
+        this.current.setParent(registered);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "struts2webflow-flow-reload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            reload();
+                        } catch (RuntimeException e) {
+                            LOGGER.error("unable to reload flow definitions", e);
+                        }
+                    }
+                },
+                checkIntervalSeconds,
+                checkIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Checks for changes, and if any, builds a new registry and swaps it in;
+     * on the calling thread, e.g. to reload on demand.
+     *
+     * @return {@code true} if reloaded, {@code false} otherwise
+     */
+    public synchronized boolean reload() {
+        Map<String, String> newFingerprints;
+        FlowDefinitionRegistryImpl registry;
+        try {
+            newFingerprints = fingerprint(factory.findFlowResources());
+            if (newFingerprints.equals(fingerprints))
+                return false;
+
+            registry = factory.buildRegistry();
+        } catch (IOException e) {
+            LOGGER.warn("unable to check flow definitions for changes", e);
+            return false;
+        }
+
+        registry.setParent(registered);
+
+        // build every flow, unchanged ones too
+        // not to swap in a broken one, nor to build on the request path
+        for (String flowId : registry.getFlowDefinitionIds()) {
+            try {
+                registry.getFlowDefinition(flowId);
+            } catch (FlowDefinitionConstructionException e) {
+                LOGGER.error("unable to build flow " + flowId + ", keeping the flow definitions as were", e);
+                registry.destroy();
+                return false;
+            }
+        }
+
+        // swapped in?
+        // if yes, the fingerprints are of the current registry
+        // (otherwise, retry on the next check)
+        final FlowDefinitionRegistryImpl old = current;
+        current = registry;
+        fingerprints = newFingerprints;
+
+        LOGGER.info("reloaded flow definitions, {} flows", registry.getFlowDefinitionCount());
+
+        // flow executions might still be using the old one
+        // so, destroy it later
+        scheduler.schedule(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        old.destroy();
+                    }
+                },
+                destroyDelaySeconds,
+                TimeUnit.SECONDS);
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowDefinition getFlowDefinition(String flowId)
+            throws NoSuchFlowDefinitionException, FlowDefinitionConstructionException {
+        return current.getFlowDefinition(flowId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsFlowDefinition(String flowId) {
+        return current.containsFlowDefinition(flowId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getFlowDefinitionCount() {
+        return current.getFlowDefinitionCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getFlowDefinitionIds() {
+        return current.getFlowDefinitionIds();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowDefinitionRegistry getParent() {
+        return registered.getParent();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setParent(FlowDefinitionRegistry parent) {
+        registered.setParent(parent);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Survives the reloads.
+     */
+    @Override
+    public void registerFlowDefinition(FlowDefinitionHolder definitionHolder) {
+        registered.registerFlowDefinition(definitionHolder);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Survives the reloads.
+     */
+    @Override
+    public void registerFlowDefinition(FlowDefinition definition) {
+        registered.registerFlowDefinition(definition);
+    }
+
+    /**
+     * Stops checking for changes, and destroys the registries.
+     */
+    public void destroy() {
+        scheduler.shutdownNow();
+        current.destroy();
+        registered.destroy();
+    }
+
+    /**
+     * @param resources flow definitions by flow id
+     * @return fingerprints of the flow definitions, by flow id
+     */
+    private static Map<String, String> fingerprint(Map<String, Resource> resources) {
+        Map<String, String> fingerprints = new HashMap<String, String>();
+
+        for (Map.Entry<String, Resource> entry : resources.entrySet()) {
+            Resource resource = entry.getValue();
+
+            // not a file? (e.g. in a jar)
+            // if so, the description will do
+            String fingerprint;
+            try {
+                fingerprint = resource.getURL() + "@" + resource.lastModified() + ":" + resource.contentLength();
+            } catch (IOException e) {
+                fingerprint = resource.getDescription();
+            }
+
+            fingerprints.put(entry.getKey(), fingerprint);
+        }
+
+        return fingerprints;
+    }
+}
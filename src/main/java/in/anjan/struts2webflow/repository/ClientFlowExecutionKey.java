@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import org.springframework.webflow.execution.FlowExecutionKey;
+
+/**
+ * {@link FlowExecutionKey Flow execution key} of the
+ * {@link ClientFlowExecutionRepository client flow execution repository},
+ * the key is the encoded flow execution itself.
+ * <p/>
+ * A key assigned to a pausing flow execution has no encoding until the flow
+ * execution is {@link ClientFlowExecutionRepository#putFlowExecution put}.
+ * Equality is by the encoding the key has been parsed from (or identity, if
+ * assigned), so that the key stays stable in hash based collections even
+ * once re-encoded.
+ */
+final class ClientFlowExecutionKey
+        extends FlowExecutionKey {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The encoding the key has been parsed from, {@code null} if assigned.
+     */
+    private final String source;
+    /**
+     * The current encoding.
+     */
+    private volatile String encoded;
+
+    /**
+     * Creates a key to be assigned to a pausing flow execution.
+     */
+    ClientFlowExecutionKey() {
+        this.source = null;
+    }
+
+    /**
+     * @param encoded the encoding the key is parsed from
+     */
+    ClientFlowExecutionKey(String encoded) {
+        this.source = encoded;
+        this.encoded = encoded;
+    }
+
+    /**
+     * @return the current encoding, {@code null} if not put yet
+     */
+    String getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * @param encoded the current encoding
+     */
+    void setEncoded(String encoded) {
+        this.encoded = encoded;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ClientFlowExecutionKey) || source == null)
+            return false;
+
+        return source.equals(((ClientFlowExecutionKey) o).source);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return source != null ? source.hashCode() : System.identityHashCode(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        if (encoded == null)
+            throw new IllegalStateException("Flow execution key not encoded yet, flow execution must be put first");
+
+        return encoded;
+    }
+}
@@ -0,0 +1,731 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.util.Base64Utils;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.engine.impl.FlowExecutionImplFactory;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionFactory;
+import org.springframework.webflow.execution.FlowExecutionKey;
+import org.springframework.webflow.execution.FlowExecutionKeyFactory;
+import org.springframework.webflow.execution.repository.BadlyFormattedFlowExecutionKeyException;
+import org.springframework.webflow.execution.repository.FlowExecutionLock;
+import org.springframework.webflow.execution.repository.FlowExecutionRepository;
+import org.springframework.webflow.execution.repository.FlowExecutionRestorationFailureException;
+import org.springframework.webflow.execution.repository.NoSuchFlowExecutionException;
+
+import in.anjan.struts2webflow.metrics.FlowMetrics;
+
+/**
+ * {@link FlowExecutionRepository Flow execution repository} keeping nothing
+ * on the server: the {@link FlowExecution flow execution} is encoded (by a
+ * {@link SnapshotCodec snapshot codec}), compressed and signed (HMAC-SHA256
+ * by a configured secret) into the flow execution key itself, along with the
+ * time it is issued at and the id of the secret it is signed with.
+ * <p/>
+ * So, the
+ * {@link
+ *  org.springframework.webflow.executor.FlowExecutionResult#getPausedKey()
+ *  flow execution paused key}
+ * handled by the {@link in.anjan.struts2webflow.FlowAction flow action} and
+ * the {@link in.anjan.struts2webflow.PausedKeyInterceptor} carries the whole
+ * flow execution; to be round tripped through a hidden field
+ * ({@link in.anjan.struts2webflow.ParameterPausedKeyStore}) or a cookie
+ * ({@link in.anjan.struts2webflow.CookiePausedKeyStore}, mind the browser
+ * limit of about 4KB per cookie). The flow execution is signed, not
+ * encrypted: the client can read it, but can not alter it.
+ * <p/>
+ * As there is no server side state, there is no locking, and every paused
+ * key stays valid (back button works) until its
+ * {@link #setMaxAgeSeconds(long) max age}; an older one is treated as an
+ * expired conversation ({@link NoSuchFlowExecutionException}). The secrets
+ * can be {@link #setSecrets(Map) rotated}: the keys are signed with the
+ * {@link #setKeyId(String) current} one, and verified with the one they name,
+ * as long as it is still configured.
+ * <p/>
+ * Must be set as the
+ * {@link FlowExecutionImplFactory#setExecutionKeyFactory(FlowExecutionKeyFactory)
+ * execution key factory} of the {@link FlowExecutionFactory flow execution
+ * factory}; done by {@link #setFlowExecutionFactory(FlowExecutionFactory)}
+ * for the {@link FlowExecutionImplFactory}.
+ */
+public class ClientFlowExecutionRepository
+        implements FlowExecutionRepository, FlowExecutionKeyFactory {
+
+    /**
+     * Default max length of an encoded flow execution key.
+     */
+    public static final int DEFAULT_MAX_KEY_LENGTH = 16 * 1024;
+    /**
+     * Default max size of a serialized flow execution.
+     */
+    public static final int DEFAULT_MAX_SNAPSHOT_SIZE = 256 * 1024;
+    /**
+     * Default max age of a flow execution key, as the default session
+     * timeout.
+     */
+    public static final long DEFAULT_MAX_AGE_SECONDS = 30 * 60;
+    /**
+     * Id of the secret {@link #setSecret(String) set alone}.
+     */
+    public static final String DEFAULT_KEY_ID = "0";
+
+    /**
+     * MAC algorithm.
+     */
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    /**
+     * MAC length in bytes.
+     */
+    private static final int MAC_LENGTH = 32;
+    /**
+     * Max length of a secret id in bytes.
+     */
+    private static final int MAX_KEY_ID_LENGTH = 255;
+    /**
+     * Charset of the secret ids.
+     */
+    private static final Charset KEY_ID_CHARSET = Charset.forName("US-ASCII");
+    /**
+     * Format flag of an uncompressed payload.
+     */
+    private static final byte FORMAT_PLAIN = 0;
+    /**
+     * Format flag of a deflated payload.
+     */
+    private static final byte FORMAT_DEFLATED = 1;
+
+    /**
+     * No-op lock, nothing to be guarded on the server.
+     */
+    private static final FlowExecutionLock NO_OP_LOCK = new FlowExecutionLock() {
+        @Override
+        public void lock() {
+            // no-op;
+        }
+
+        @Override
+        public void unlock() {
+            // no-op;
+        }
+    };
+
+    /**
+     * {@link FlowDefinitionLocator Flow definition locator} to restore the
+     * flow executions with.
+     * <p/>
+     * Must be set through
+     * {@link #setFlowDefinitionLocator(FlowDefinitionLocator)}.
+     */
+    private FlowDefinitionLocator flowDefinitionLocator;
+    /**
+     * {@link FlowExecutionFactory Flow execution factory} to restore the flow
+     * executions with.
+     * <p/>
+     * Must be set through
+     * {@link #setFlowExecutionFactory(FlowExecutionFactory)}.
+     */
+    private FlowExecutionFactory flowExecutionFactory;
+    /**
+     * Signing keys by id.
+     * <p/>
+     * Must be set through {@link #setSecret(String)} or
+     * {@link #setSecrets(Map)}.
+     */
+    private Map<String, SecretKeySpec> secrets = Collections.emptyMap();
+    /**
+     * Id of the signing key to sign with.
+     * <p/>
+     * Can be set through {@link #setKeyId(String)}.
+     */
+    private String keyId = DEFAULT_KEY_ID;
+    /**
+     * Max age of a flow execution key in seconds, {@code 0} for no limit.
+     * <p/>
+     * Can be set through {@link #setMaxAgeSeconds(long)}.
+     */
+    private long maxAgeSeconds = DEFAULT_MAX_AGE_SECONDS;
+    /**
+     * {@link SnapshotCodec Snapshot codec} to encode the flow executions
+     * with.
+     * <p/>
+     * Can be set through {@link #setSnapshotCodec(SnapshotCodec)}.
+     */
+    private SnapshotCodec snapshotCodec = new JavaSnapshotCodec();
+    /**
+     * Whether to compress the encoded flow executions.
+     * <p/>
+     * Can be set through {@link #setCompress(boolean)}.
+     */
+    private boolean compress = true;
+    /**
+     * Max length of an encoded flow execution key.
+     * <p/>
+     * Can be set through {@link #setMaxKeyLength(int)}.
+     */
+    private int maxKeyLength = DEFAULT_MAX_KEY_LENGTH;
+    /**
+     * Max size of a serialized flow execution (uncompressed).
+     * <p/>
+     * Can be set through {@link #setMaxSnapshotSize(int)}.
+     */
+    private int maxSnapshotSize = DEFAULT_MAX_SNAPSHOT_SIZE;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionKey parseFlowExecutionKey(String encodedKey) {
+        if (encodedKey == null || encodedKey.length() == 0 || encodedKey.length() > maxKeyLength)
+            throw new BadlyFormattedFlowExecutionKeyException(encodedKey, "signed flow execution, at most " + maxKeyLength + " long");
+
+        return new ClientFlowExecutionKey(encodedKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionLock getLock(FlowExecutionKey key) {
+        return NO_OP_LOCK;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecution getFlowExecution(FlowExecutionKey key) {
+        String encoded = ((ClientFlowExecutionKey) key).getEncoded();
+
+        byte[] bytes;
+        try {
+            bytes = decodeUrlSafe(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new BadlyFormattedFlowExecutionKeyException(encoded, "signed flow execution", e);
+        }
+
+        // need to find the signing key by its id
+        // and verify the signature
+        // before deserializing anything
+        int keyIdLength = bytes.length > 0 ? bytes[0] & 0xFF : 0;
+        int payloadOffset = 1 + keyIdLength + 8;
+        int signedLength = bytes.length - MAC_LENGTH;
+        if (signedLength <= payloadOffset)
+            throw new BadlyFormattedFlowExecutionKeyException(encoded, "signed flow execution");
+
+        SecretKeySpec secret = secrets.get(new String(bytes, 1, keyIdLength, KEY_ID_CHARSET));
+        if (secret == null
+                || !MessageDigest.isEqual(
+                        Arrays.copyOfRange(bytes, signedLength, bytes.length),
+                        mac(secret, bytes, 0, signedLength)))
+            throw new BadlyFormattedFlowExecutionKeyException(encoded, "signed flow execution");
+
+        // too old?
+        // if yes, as good as an expired conversation
+        long issuedAt = readLong(bytes, 1 + keyIdLength);
+        if (maxAgeSeconds > 0 && System.currentTimeMillis() - issuedAt > maxAgeSeconds * 1000)
+            throw new NoSuchFlowExecutionException(key, null);
+
+        long start = System.nanoTime();
+        try {
+            return restore(key, bytes, payloadOffset, signedLength);
+        } catch (IOException e) {
+            throw new FlowExecutionRestorationFailureException(key, e);
+        } catch (ClassNotFoundException e) {
+            throw new FlowExecutionRestorationFailureException(key, e);
+        } finally {
+            FlowMetrics.getInstance().recordRepositoryFetch(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putFlowExecution(FlowExecution flowExecution) {
+        SecretKeySpec secret = secrets.get(keyId);
+        if (secret == null)
+            throw new IllegalStateException("Secret " + keyId + " not set for " + getClass().getName());
+
+        // the secret id and the issue time
+        // followed by the payload, all signed
+        ByteArrayOutputStream signed = new ByteArrayOutputStream(1024);
+        try {
+            byte[] keyIdBytes = keyId.getBytes(KEY_ID_CHARSET);
+            DataOutputStream header = new DataOutputStream(signed);
+            header.writeByte(keyIdBytes.length);
+            header.write(keyIdBytes);
+            header.writeLong(System.currentTimeMillis());
+            snapshot(flowExecution, signed);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode flow execution " + flowExecution, e);
+        }
+
+        byte[] bytes = new byte[signed.size() + MAC_LENGTH];
+        byte[] signedBytes = signed.toByteArray();
+        System.arraycopy(signedBytes, 0, bytes, 0, signedBytes.length);
+        System.arraycopy(mac(secret, signedBytes, 0, signedBytes.length), 0, bytes, signedBytes.length, MAC_LENGTH);
+
+        String encoded = encodeUrlSafe(bytes);
+        if (encoded.length() > maxKeyLength)
+            throw new FlowExecutionTooLargeException(
+                    "Flow execution " + flowExecution + " encoded as " + encoded.length()
+                            + " long key, limit is " + maxKeyLength);
+
+        ((ClientFlowExecutionKey) flowExecution.getKey()).setEncoded(encoded);
+        FlowMetrics.getInstance().recordSnapshotSize(encoded.length());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeFlowExecution(FlowExecution flowExecution) {
+        // no-op;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionKey getKey(FlowExecution execution) {
+        // every pause gets a key of its own
+        return new ClientFlowExecutionKey();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAllFlowExecutionSnapshots(FlowExecution execution) {
+        // no-op;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeFlowExecutionSnapshot(FlowExecution execution) {
+        // no-op;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateFlowExecutionSnapshot(FlowExecution execution) {
+        // no-op; will be encoded once put
+    }
+
+    /**
+     * Encodes the flow id, the conversation scope and the flow execution.
+     *
+     * @param flowExecution {@link FlowExecution flow execution}
+     * @param bytes         stream to write the payload to, format flag
+     *                      followed by the (compressed) data
+     * @throws IOException in case of encoding failure
+     */
+    private void snapshot(FlowExecution flowExecution, ByteArrayOutputStream bytes)
+            throws IOException {
+        bytes.write(compress ? FORMAT_DEFLATED : FORMAT_PLAIN);
+
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        try {
+            OutputStream out = compress ? new DeflaterOutputStream(bytes, deflater) : bytes;
+            DataOutputStream data = new DataOutputStream(new LimitedOutputStream(out, maxSnapshotSize));
+            data.writeUTF(flowExecution.getDefinition().getId());
+            snapshotCodec.encode(
+                    new Object[]{
+                            new LocalAttributeMap<Object>(flowExecution.getConversationScope().asMap()),
+                            flowExecution},
+                    data);
+            data.close();
+        } finally {
+            if (deflater != null)
+                deflater.end();
+        }
+    }
+
+    /**
+     * Decodes and restores the flow execution.
+     *
+     * @param key    {@link FlowExecutionKey flow execution key}
+     * @param bytes  the verified bytes
+     * @param offset offset of the payload, format flag followed by the
+     *               (compressed) data
+     * @param end    end of the payload
+     * @return {@link FlowExecution flow execution}
+     * @throws IOException            in case of decoding failure
+     * @throws ClassNotFoundException in case of a missing class
+     */
+    @SuppressWarnings("unchecked")
+    private FlowExecution restore(FlowExecutionKey key, byte[] bytes, int offset, int end)
+            throws IOException, ClassNotFoundException {
+        byte format = bytes[offset];
+        InputStream in = new ByteArrayInputStream(bytes, offset + 1, end - offset - 1);
+
+        Inflater inflater = format == FORMAT_DEFLATED ? new Inflater() : null;
+        try {
+            if (inflater != null)
+                in = new InflaterInputStream(in, inflater);
+            DataInputStream data = new DataInputStream(new LimitedInputStream(in, maxSnapshotSize));
+            String flowId = data.readUTF();
+            FlowDefinition definition = flowDefinitionLocator.getFlowDefinition(flowId);
+
+            Object[] objects = (Object[]) snapshotCodec.decode(data, definition.getClassLoader());
+            MutableAttributeMap<Object> conversationScope = (MutableAttributeMap<Object>) objects[0];
+            FlowExecution flowExecution = (FlowExecution) objects[1];
+
+            return flowExecutionFactory.restoreFlowExecution(
+                    flowExecution,
+                    definition,
+                    key,
+                    conversationScope,
+                    flowDefinitionLocator);
+        } finally {
+            if (inflater != null)
+                inflater.end();
+        }
+    }
+
+    /**
+     * @param bytes the bytes
+     * @return the bytes, Base64 encoded with the URL and file name safe
+     *         alphabet
+     */
+    private static String encodeUrlSafe(byte[] bytes) {
+        return Base64Utils.encodeToString(bytes).replace('+', '-').replace('/', '_');
+    }
+
+    /**
+     * @param encoded the bytes, Base64 encoded with the URL and file name
+     *                safe alphabet
+     * @return the bytes
+     * @throws IllegalArgumentException in case not Base64 encoded
+     */
+    private static byte[] decodeUrlSafe(String encoded) {
+        return Base64Utils.decodeFromString(encoded.replace('-', '+').replace('_', '/'));
+    }
+
+    /**
+     * @param bytes  the bytes
+     * @param offset offset of the long, big endian
+     * @return the long
+     */
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+
+        return value;
+    }
+
+    /**
+     * @param secret signing key
+     * @param bytes  the bytes
+     * @param offset offset of the data to be signed
+     * @param length length of the data to be signed
+     * @return HMAC of the data
+     */
+    private static byte[] mac(SecretKeySpec secret, byte[] bytes, int offset, int length) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(bytes, offset, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign flow execution", e);
+        }
+    }
+
+    /**
+     * {@link FlowDefinitionLocator Flow definition locator} to restore the
+     * flow executions with.
+     *
+     * @param flowDefinitionLocator {@link FlowDefinitionLocator flow
+     *                              definition locator} to be set
+     */
+    public void setFlowDefinitionLocator(FlowDefinitionLocator flowDefinitionLocator) {
+        this.flowDefinitionLocator = flowDefinitionLocator;
+    }
+
+    /**
+     * {@link FlowExecutionFactory Flow execution factory} to restore the flow
+     * executions with.
+     * <p/>
+     * Sets this as the execution key factory of the
+     * {@link FlowExecutionImplFactory}.
+     *
+     * @param flowExecutionFactory {@link FlowExecutionFactory flow execution
+     *                             factory} to be set
+     */
+    public void setFlowExecutionFactory(FlowExecutionFactory flowExecutionFactory) {
+        this.flowExecutionFactory = flowExecutionFactory;
+
+        if (flowExecutionFactory instanceof FlowExecutionImplFactory)
+            ((FlowExecutionImplFactory) flowExecutionFactory).setExecutionKeyFactory(this);
+    }
+
+    /**
+     * Secret to sign the flow executions with, as the only one by the
+     * {@link #DEFAULT_KEY_ID default id}; must be the same on every node.
+     *
+     * @param secret secret to be set
+     */
+    public void setSecret(String secret) {
+        setSecrets(Collections.singletonMap(DEFAULT_KEY_ID, secret));
+        setKeyId(DEFAULT_KEY_ID);
+    }
+
+    /**
+     * Secrets to verify the flow executions with, by id; must be the same on
+     * every node.
+     * <p/>
+     * To rotate: add the new secret and roll it out; then make it the
+     * {@link #setKeyId(String) current} one and roll it out; drop the old
+     * one once the keys signed with it are older than the
+     * {@link #setMaxAgeSeconds(long) max age}.
+     *
+     * @param secrets secrets to be set, by id (at most 255 ASCII characters)
+     * @throws IllegalArgumentException in case of an invalid id
+     */
+    public void setSecrets(Map<String, String> secrets) {
+        Map<String, SecretKeySpec> keys = new HashMap<String, SecretKeySpec>();
+        for (Map.Entry<String, String> secret : secrets.entrySet()) {
+            String id = secret.getKey();
+            if (id == null || id.getBytes(KEY_ID_CHARSET).length > MAX_KEY_ID_LENGTH
+                    || !id.equals(new String(id.getBytes(KEY_ID_CHARSET), KEY_ID_CHARSET)))
+                throw new IllegalArgumentException("Invalid secret id '" + id + "', must be ASCII, at most "
+                        + MAX_KEY_ID_LENGTH + " long");
+
+            try {
+                keys.put(id, new SecretKeySpec(secret.getValue().getBytes("UTF-8"), MAC_ALGORITHM));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        this.secrets = keys;
+    }
+
+    /**
+     * Id of the secret to sign the flow executions with, defaults to
+     * {@link #DEFAULT_KEY_ID}.
+     *
+     * @param keyId id of a {@link #setSecrets(Map) secret} to be set
+     */
+    public void setKeyId(String keyId) {
+        this.keyId = keyId;
+    }
+
+    /**
+     * Max age of a flow execution key, defaults to
+     * {@link #DEFAULT_MAX_AGE_SECONDS}; an older one is rejected as an
+     * expired conversation.
+     *
+     * @param maxAgeSeconds max age in seconds to be set, {@code 0} for no
+     *                      limit
+     */
+    public void setMaxAgeSeconds(long maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * {@link SnapshotCodec Snapshot codec} to encode the flow executions
+     * with, defaults to the {@link JavaSnapshotCodec Java snapshot codec}.
+     *
+     * @param snapshotCodec {@link SnapshotCodec snapshot codec} to be set
+     */
+    public void setSnapshotCodec(SnapshotCodec snapshotCodec) {
+        this.snapshotCodec = snapshotCodec;
+    }
+
+    /**
+     * Whether to compress the encoded flow executions, defaults to
+     * {@code true}.
+     *
+     * @param compress {@code true} to compress, {@code false} otherwise
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Max length of an encoded flow execution key, defaults to
+     * {@link #DEFAULT_MAX_KEY_LENGTH}; putting a larger flow execution fails
+     * with {@link FlowExecutionTooLargeException}.
+     *
+     * @param maxKeyLength max length to be set
+     */
+    public void setMaxKeyLength(int maxKeyLength) {
+        this.maxKeyLength = maxKeyLength;
+    }
+
+    /**
+     * Max size of a serialized flow execution (uncompressed), defaults to
+     * {@link #DEFAULT_MAX_SNAPSHOT_SIZE}; guards against decompression bombs
+     * too.
+     *
+     * @param maxSnapshotSize max size to be set
+     */
+    public void setMaxSnapshotSize(int maxSnapshotSize) {
+        this.maxSnapshotSize = maxSnapshotSize;
+    }
+
+    /**
+     * Output stream failing once more than the limit is written.
+     */
+    private static final class LimitedOutputStream extends FilterOutputStream {
+
+        /**
+         * Bytes left to be written.
+         */
+        private long remaining;
+
+        /**
+         * @param out   underlying output stream
+         * @param limit max bytes to be written
+         */
+        LimitedOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.remaining = limit;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(int b)
+                throws IOException {
+            consume(1);
+            out.write(b);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException {
+            consume(len);
+            out.write(b, off, len);
+        }
+
+        /**
+         * @param length bytes to be written
+         */
+        private void consume(int length) {
+            remaining -= length;
+            if (remaining < 0)
+                throw new FlowExecutionTooLargeException("Flow execution snapshot exceeds the max snapshot size");
+        }
+    }
+
+    /**
+     * Input stream failing once more than the limit is read.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        /**
+         * Bytes left to be read.
+         */
+        private long remaining;
+
+        /**
+         * @param in    underlying input stream
+         * @param limit max bytes to be read
+         */
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read()
+                throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                consume(1);
+            return b;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0)
+                consume(read);
+            return read;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long skip(long n)
+                throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0)
+                consume(skipped);
+            return skipped;
+        }
+
+        /**
+         * @param length bytes read
+         * @throws IOException once the limit is exceeded
+         */
+        private void consume(long length)
+                throws IOException {
+            remaining -= length;
+            if (remaining < 0)
+                throw new IOException("Flow execution snapshot exceeds the max snapshot size");
+        }
+    }
+}
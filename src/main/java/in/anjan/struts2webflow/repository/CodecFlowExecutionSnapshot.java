@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+
+/**
+ * {@link FlowExecutionSnapshot Flow execution snapshot} created by the
+ * {@link CodecFlowExecutionSnapshotFactory codec flow execution snapshot
+ * factory}, holding the encoded flow execution.
+ */
+final class CodecFlowExecutionSnapshot
+        extends FlowExecutionSnapshot {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The encoded flow execution.
+     */
+    private final byte[] data;
+    /**
+     * Whether the data is compressed.
+     */
+    private final boolean compressed;
+
+    /**
+     * @param data       the encoded flow execution
+     * @param compressed {@code true} if the data is compressed,
+     *                   {@code false} otherwise
+     */
+    CodecFlowExecutionSnapshot(byte[] data, boolean compressed) {
+        this.data = data;
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return the encoded flow execution
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return {@code true} if the data is compressed, {@code false} otherwise
+     */
+    boolean isCompressed() {
+        return compressed;
+    }
+}
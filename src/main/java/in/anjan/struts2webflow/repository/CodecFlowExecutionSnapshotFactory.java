@@ -0,0 +1,338 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.springframework.util.StreamUtils;
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionFactory;
+import org.springframework.webflow.execution.FlowExecutionKey;
+import org.springframework.webflow.execution.FlowExecutionKeyFactory;
+import org.springframework.webflow.execution.repository.FlowExecutionRestorationFailureException;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshotFactory;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotCreationException;
+
+import in.anjan.struts2webflow.metrics.FlowMetrics;
+
+/**
+ * {@link FlowExecutionSnapshotFactory Flow execution snapshot factory}
+ * encoding the flow executions through a {@link SnapshotCodec snapshot
+ * codec}, the {@link CompactSnapshotCodec compact snapshot codec} by
+ * default; in place of the
+ * {@link
+ *  org.springframework.webflow.execution.repository.snapshot.SerializedFlowExecutionSnapshotFactory
+ *  serialized flow execution snapshot factory}.
+ * <p/>
+ * With {@link #setMaxDeltas(int) deltas} enabled, a flow execution restored
+ * and paused again during a request is stored as the
+ * {@link SnapshotDelta delta} of its encoding from the base snapshot it
+ * came from, rather than in full; so a long flow keeps one full snapshot
+ * and small deltas of it, instead of near identical copies. A new full
+ * snapshot is taken (compaction) once the max deltas are taken from a base,
+ * or a delta would be more than half the full snapshot as stored
+ * (compressed, if {@link #setCompress(boolean) compressing}).
+ * <p/>
+ * To be handed to the
+ * {@link
+ *  org.springframework.webflow.execution.repository.impl.DefaultFlowExecutionRepository
+ *  default flow execution repository}.
+ */
+public class CodecFlowExecutionSnapshotFactory
+        implements FlowExecutionSnapshotFactory {
+
+    /**
+     * {@link FlowExecutionFactory Flow execution factory} to restore the flow
+     * executions with.
+     */
+    private final FlowExecutionFactory flowExecutionFactory;
+    /**
+     * {@link FlowDefinitionLocator Flow definition locator} to restore the
+     * flow executions with.
+     */
+    private final FlowDefinitionLocator flowDefinitionLocator;
+    /**
+     * Name of the request attribute holding the bases of the flow executions
+     * restored during the request.
+     */
+    private final String basesAttributeName =
+            CodecFlowExecutionSnapshotFactory.class.getName() + ".BASES." + System.identityHashCode(this);
+    /**
+     * {@link SnapshotCodec Snapshot codec} to encode the flow executions
+     * with.
+     * <p/>
+     * Can be set through {@link #setSnapshotCodec(SnapshotCodec)}.
+     */
+    private SnapshotCodec snapshotCodec = new CompactSnapshotCodec();
+    /**
+     * Whether to compress the encoded flow executions.
+     * <p/>
+     * Can be set through {@link #setCompress(boolean)}.
+     */
+    private boolean compress = true;
+    /**
+     * Max deltas to be taken from a base snapshot, {@code 0} to take full
+     * snapshots only.
+     * <p/>
+     * Can be set through {@link #setMaxDeltas(int)}.
+     */
+    private int maxDeltas;
+
+    /**
+     * @param flowExecutionFactory  {@link FlowExecutionFactory flow execution
+     *                              factory} to restore the flow executions
+     *                              with
+     * @param flowDefinitionLocator {@link FlowDefinitionLocator flow
+     *                              definition locator} to restore the flow
+     *                              executions with
+     */
+    public CodecFlowExecutionSnapshotFactory(FlowExecutionFactory flowExecutionFactory,
+                                             FlowDefinitionLocator flowDefinitionLocator) {
+        this.flowExecutionFactory = flowExecutionFactory;
+        this.flowDefinitionLocator = flowDefinitionLocator;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecutionSnapshot createSnapshot(FlowExecution flowExecution)
+            throws SnapshotCreationException {
+        byte[] encoded;
+        byte[] data;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            snapshotCodec.encode(flowExecution, bytes);
+            encoded = bytes.toByteArray();
+            data = compress ? deflate(encoded) : encoded;
+
+            // restored from a base still to be taken deltas from?
+            // if yes, a delta will do; unless too large
+            // compared to the full snapshot as stored
+            Map<FlowExecution, Base> bases = getBases();
+            Base base = bases != null ? bases.get(flowExecution) : null;
+            if (base != null && base.deltas < maxDeltas) {
+                byte[] delta = SnapshotDelta.diff(base.encoded, encoded);
+                if (delta.length * 2 < data.length) {
+                    FlowMetrics.getInstance().recordSnapshotSize(delta.length);
+                    bases.put(flowExecution, new Base(base.snapshot, base.encoded, base.deltas + 1));
+                    return new DeltaFlowExecutionSnapshot(base.snapshot, delta, base.deltas + 1);
+                }
+            }
+        } catch (IOException e) {
+            throw new SnapshotCreationException(flowExecution, "Could not encode flow execution", e);
+        }
+
+        CodecFlowExecutionSnapshot snapshot = new CodecFlowExecutionSnapshot(data, compress);
+        FlowMetrics.getInstance().recordSnapshotSize(data.length);
+
+        // the new full snapshot is the base from now on
+        Map<FlowExecution, Base> bases = getBases();
+        if (bases != null)
+            bases.put(flowExecution, new Base(snapshot, encoded, 0));
+
+        return snapshot;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlowExecution restoreExecution(FlowExecutionSnapshot snapshot,
+                                          String flowId,
+                                          FlowExecutionKey key,
+                                          MutableAttributeMap<Object> conversationScope,
+                                          FlowExecutionKeyFactory keyFactory)
+            throws FlowExecutionRestorationFailureException {
+        FlowDefinition definition = flowDefinitionLocator.getFlowDefinition(flowId);
+
+        Base base;
+        FlowExecution flowExecution;
+        try {
+            byte[] encoded;
+            if (snapshot instanceof DeltaFlowExecutionSnapshot) {
+                DeltaFlowExecutionSnapshot deltaSnapshot = (DeltaFlowExecutionSnapshot) snapshot;
+                base = new Base(deltaSnapshot.getBase(), decompress(deltaSnapshot.getBase()), deltaSnapshot.getSequence());
+                encoded = SnapshotDelta.apply(base.encoded, deltaSnapshot.getDelta());
+            } else {
+                CodecFlowExecutionSnapshot codecSnapshot = (CodecFlowExecutionSnapshot) snapshot;
+                base = new Base(codecSnapshot, decompress(codecSnapshot), 0);
+                encoded = base.encoded;
+            }
+
+            flowExecution = (FlowExecution) snapshotCodec.decode(
+                    new ByteArrayInputStream(encoded),
+                    definition.getClassLoader());
+        } catch (IOException e) {
+            throw new FlowExecutionRestorationFailureException(key, e);
+        } catch (ClassNotFoundException e) {
+            throw new FlowExecutionRestorationFailureException(key, e);
+        }
+
+        flowExecution = flowExecutionFactory.restoreFlowExecution(
+                flowExecution,
+                definition,
+                key,
+                conversationScope,
+                flowDefinitionLocator);
+
+        // remember the base
+        // to take a delta from once paused again
+        Map<FlowExecution, Base> bases = getBases();
+        if (bases != null)
+            bases.put(flowExecution, base);
+
+        return flowExecution;
+    }
+
+    /**
+     * @return bases of the flow executions restored during the request,
+     *         {@code null} if deltas are not to be taken or there is no
+     *         request
+     */
+    @SuppressWarnings("unchecked")
+    private Map<FlowExecution, Base> getBases() {
+        if (maxDeltas <= 0)
+            return null;
+
+        ExternalContext externalContext = ExternalContextHolder.getExternalContext();
+        if (externalContext == null)
+            return null;
+
+        MutableAttributeMap<Object> requestMap = externalContext.getRequestMap();
+        Map<FlowExecution, Base> bases = (Map<FlowExecution, Base>) requestMap.get(basesAttributeName);
+        if (bases == null) {
+            bases = new IdentityHashMap<FlowExecution, Base>();
+            requestMap.put(basesAttributeName, bases);
+        }
+        return bases;
+    }
+
+    /**
+     * @param encoded the encoded flow execution
+     * @return the encoded flow execution, compressed
+     * @throws IOException in case of compression failure
+     */
+    private static byte[] deflate(byte[] encoded)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded.length / 2 + 16);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+            out.write(encoded);
+            out.close();
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param snapshot full snapshot
+     * @return the encoded flow execution, decompressed if needed
+     * @throws IOException in case of decompression failure
+     */
+    private static byte[] decompress(CodecFlowExecutionSnapshot snapshot)
+            throws IOException {
+        if (!snapshot.isCompressed())
+            return snapshot.getData();
+
+        Inflater inflater = new Inflater();
+        try {
+            InputStream in = new InflaterInputStream(new ByteArrayInputStream(snapshot.getData()), inflater);
+            return StreamUtils.copyToByteArray(in);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * {@link SnapshotCodec Snapshot codec} to encode the flow executions
+     * with, defaults to the {@link CompactSnapshotCodec compact snapshot
+     * codec}.
+     *
+     * @param snapshotCodec {@link SnapshotCodec snapshot codec} to be set
+     */
+    public void setSnapshotCodec(SnapshotCodec snapshotCodec) {
+        this.snapshotCodec = snapshotCodec;
+    }
+
+    /**
+     * Whether to compress the encoded flow executions, defaults to
+     * {@code true}.
+     *
+     * @param compress {@code true} to compress, {@code false} otherwise
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Max deltas to be taken from a base snapshot before taking a full one
+     * again, defaults to {@code 0}, full snapshots only.
+     *
+     * @param maxDeltas max deltas to be set
+     */
+    public void setMaxDeltas(int maxDeltas) {
+        this.maxDeltas = maxDeltas;
+    }
+
+    /**
+     * Base snapshot of a flow execution, to take deltas from.
+     */
+    private static final class Base {
+
+        /**
+         * The base snapshot.
+         */
+        private final CodecFlowExecutionSnapshot snapshot;
+        /**
+         * The encoded flow execution of the base snapshot, uncompressed.
+         */
+        private final byte[] encoded;
+        /**
+         * Deltas taken from the base snapshot.
+         */
+        private final int deltas;
+
+        /**
+         * @param snapshot the base snapshot
+         * @param encoded  the encoded flow execution of the base snapshot
+         * @param deltas   deltas taken from the base snapshot
+         */
+        Base(CodecFlowExecutionSnapshot snapshot, byte[] encoded, int deltas) {
+            this.snapshot = snapshot;
+            this.encoded = encoded;
+            this.deltas = deltas;
+        }
+    }
+}
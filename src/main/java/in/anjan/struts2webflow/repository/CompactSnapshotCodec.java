@@ -0,0 +1,933 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Constructor;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.util.ClassUtils;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+
+/**
+ * {@link SnapshotCodec Snapshot codec} writing a compact binary encoding of
+ * the flow execution object graph.
+ * <ul>
+ * <li>
+ * Classes are written as small ids of a class registry; the common JDK
+ * types, the Web Flow scopes and the flow execution are registered upfront,
+ * more can be registered through {@link #setRegisteredClasses(List)}. Any
+ * other enum or {@link Externalizable} class is written by name once per
+ * snapshot.
+ * </li>
+ * <li>
+ * Objects are tracked by identity, so shared references and cycles are
+ * kept, repeated objects written once.
+ * </li>
+ * <li>
+ * Numbers and lengths are written as variable length integers.
+ * </li>
+ * <li>
+ * {@link Externalizable} objects (e.g. the flow execution and its
+ * sessions) write themselves straight into the compact encoding.
+ * </li>
+ * <li>
+ * Any other object falls back to the standard Java serialization, all of
+ * them through one shared object stream appended to the compact encoding;
+ * so identity is kept among them too, though not between a fallback object
+ * and the compact encoding.
+ * </li>
+ * </ul>
+ * <p/>
+ * Both ends must have the same class registry.
+ */
+public class CompactSnapshotCodec
+        implements SnapshotCodec {
+
+    /**
+     * Class names registered upfront, the order is part of the encoding.
+     * <p/>
+     * Classes not available are skipped, keeping their id.
+     */
+    private static final String[] BUILT_IN_CLASS_NAMES = {
+            "java.lang.String",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Boolean",
+            "java.lang.Short",
+            "java.lang.Byte",
+            "java.lang.Character",
+            "java.lang.Double",
+            "java.lang.Float",
+            "java.util.Date",
+            "java.lang.Object[]",
+            "java.util.ArrayList",
+            "java.util.LinkedList",
+            "java.util.HashMap",
+            "java.util.LinkedHashMap",
+            "java.util.HashSet",
+            "java.util.LinkedHashSet",
+            "org.springframework.webflow.core.collection.LocalAttributeMap",
+            "org.springframework.webflow.engine.impl.FlowExecutionImpl",
+            "org.springframework.webflow.engine.impl.FlowSessionImpl",
+            "org.springframework.webflow.engine.impl.FlowExecutionStatus"
+    };
+
+    /**
+     * Head of a {@code null}.
+     */
+    private static final int NULL = 0;
+    /**
+     * Head of a reference to an object written already, followed by its
+     * handle.
+     */
+    private static final int REFERENCE = 1;
+    /**
+     * Head of an object written to the Java serialization fallback.
+     */
+    private static final int SERIALIZED = 2;
+    /**
+     * Head of an object of a class not written yet, followed by the class
+     * name.
+     */
+    private static final int NEW_CLASS = 3;
+    /**
+     * Head of an object of the first class id.
+     */
+    private static final int FIRST_CLASS_ID = 4;
+
+    /**
+     * Charset of the strings.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Ways to write an object.
+     */
+    private enum Kind {
+        STRING, INTEGER, LONG, BOOLEAN, SHORT, BYTE, CHARACTER, DOUBLE, FLOAT, DATE,
+        OBJECT_ARRAY, COLLECTION, MAP, ATTRIBUTE_MAP, ENUM, EXTERNALIZABLE
+    }
+
+    /**
+     * Kinds of the classes written by value.
+     */
+    private static final Map<Class<?>, Kind> VALUE_KINDS;
+
+    static {
+        Map<Class<?>, Kind> valueKinds = new HashMap<Class<?>, Kind>();
+        valueKinds.put(String.class, Kind.STRING);
+        valueKinds.put(Integer.class, Kind.INTEGER);
+        valueKinds.put(Long.class, Kind.LONG);
+        valueKinds.put(Boolean.class, Kind.BOOLEAN);
+        valueKinds.put(Short.class, Kind.SHORT);
+        valueKinds.put(Byte.class, Kind.BYTE);
+        valueKinds.put(Character.class, Kind.CHARACTER);
+        valueKinds.put(Double.class, Kind.DOUBLE);
+        valueKinds.put(Float.class, Kind.FLOAT);
+        valueKinds.put(Date.class, Kind.DATE);
+        valueKinds.put(Object[].class, Kind.OBJECT_ARRAY);
+        valueKinds.put(LocalAttributeMap.class, Kind.ATTRIBUTE_MAP);
+        VALUE_KINDS = Collections.unmodifiableMap(valueKinds);
+    }
+
+    /**
+     * Class registry.
+     */
+    private volatile Registry registry;
+
+    /**
+     * Creates a codec with the built-in class registry.
+     */
+    public CompactSnapshotCodec() {
+        this.registry = new Registry(Collections.<Class<?>>emptyList());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encode(Object object, OutputStream out)
+            throws IOException {
+        ByteArrayOutputStream compact = new ByteArrayOutputStream(1024);
+        CompactOutput compactOut = new CompactOutput(compact, registry);
+        compactOut.writeObject(object);
+        compactOut.flush();
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(compact.size());
+        compact.writeTo(data);
+        compactOut.writeSerializedTo(data);
+        data.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object decode(InputStream in, ClassLoader classLoader)
+            throws IOException, ClassNotFoundException {
+        DataInputStream data = new DataInputStream(in);
+        int length = data.readInt();
+        if (length < 0)
+            throw new StreamCorruptedException("Invalid compact snapshot length " + length);
+
+        byte[] compact = readFully(data, length);
+
+        return new CompactInput(new ByteArrayInputStream(compact), data, registry, classLoader).readObject();
+    }
+
+    /**
+     * Reads as many bytes as there are, up to the length; never allocating
+     * more than read, so a corrupted length fails on the end of the stream
+     * rather than on memory.
+     *
+     * @param in     input stream to be read from
+     * @param length number of bytes to be read
+     * @return the bytes read
+     * @throws IOException in case of the end of the stream before the length
+     */
+    private static byte[] readFully(InputStream in, int length)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(length, 8192));
+        byte[] buffer = new byte[Math.min(length, 8192)];
+        for (int left = length; left > 0; ) {
+            int read = in.read(buffer, 0, Math.min(left, buffer.length));
+            if (read < 0)
+                throw new EOFException("Compact snapshot of " + length + " bytes ends after "
+                        + (length - left) + " bytes");
+            bytes.write(buffer, 0, read);
+            left -= read;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Classes to be registered after the built-in ones, to be written by id
+     * rather than by name; the order is part of the encoding.
+     * <p/>
+     * Only enums, {@link Externalizable} classes and collections or maps
+     * with a no-arg constructor can be registered.
+     *
+     * @param registeredClasses classes to be registered
+     */
+    public void setRegisteredClasses(List<Class<?>> registeredClasses) {
+        this.registry = new Registry(registeredClasses);
+    }
+
+    /**
+     * @param type class
+     * @return the kind of the class, {@code null} if to be serialized
+     */
+    private static Kind kindOf(Class<?> type) {
+        Kind kind = VALUE_KINDS.get(type);
+        if (kind != null)
+            return kind;
+
+        if (type.isEnum())
+            return Kind.ENUM;
+        if (Externalizable.class.isAssignableFrom(type))
+            return Kind.EXTERNALIZABLE;
+        if (Collection.class.isAssignableFrom(type))
+            return Kind.COLLECTION;
+        if (Map.class.isAssignableFrom(type))
+            return Kind.MAP;
+
+        return null;
+    }
+
+    /**
+     * A class, with the way to write it.
+     */
+    private static final class ClassEntry {
+
+        /**
+         * The class.
+         */
+        private final Class<?> type;
+        /**
+         * The way to write it.
+         */
+        private final Kind kind;
+        /**
+         * No-arg constructor to instantiate it, if needed by the kind.
+         */
+        private final Constructor<?> constructor;
+
+        /**
+         * @param type the class
+         * @param kind the way to write it
+         * @throws NoSuchMethodException if the kind needs a no-arg
+         *                               constructor, but none exists
+         */
+        ClassEntry(Class<?> type, Kind kind)
+                throws NoSuchMethodException {
+            this.type = type;
+            this.kind = kind;
+
+            if (kind == Kind.COLLECTION || kind == Kind.MAP || kind == Kind.EXTERNALIZABLE) {
+                this.constructor = type.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } else {
+                this.constructor = null;
+            }
+        }
+
+        /**
+         * @return new instance
+         * @throws IOException in case of instantiation failure
+         */
+        Object newInstance()
+                throws IOException {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                throw new IOException("Unable to instantiate " + type.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * The class registry, immutable.
+     */
+    private static final class Registry {
+
+        /**
+         * Class entries by id, {@code null} if not available.
+         */
+        private final List<ClassEntry> entries = new ArrayList<ClassEntry>();
+        /**
+         * Class ids by class.
+         */
+        private final Map<Class<?>, Integer> ids = new HashMap<Class<?>, Integer>();
+
+        /**
+         * @param registeredClasses classes to be registered after the
+         *                          built-in ones
+         */
+        Registry(List<Class<?>> registeredClasses) {
+            ClassLoader classLoader = CompactSnapshotCodec.class.getClassLoader();
+            for (String className : BUILT_IN_CLASS_NAMES) {
+                // class available?
+                // if yes, register it
+                // else, keep its id anyway
+                Class<?> type = null;
+                try {
+                    type = ClassUtils.forName(className, classLoader);
+                } catch (ClassNotFoundException e) {
+                    // skip;
+                } catch (LinkageError e) {
+                    // skip;
+                }
+                register(type, false);
+            }
+
+            for (Class<?> type : registeredClasses)
+                register(type, true);
+        }
+
+        /**
+         * @param type   class to be registered, {@code null} to reserve the
+         *               id only
+         * @param strict {@code true} to fail on a class not to be
+         *               registered, {@code false} to reserve the id only
+         */
+        private void register(Class<?> type, boolean strict) {
+            ClassEntry entry = null;
+            Kind kind = type != null ? kindOf(type) : null;
+            if (kind != null) {
+                try {
+                    entry = new ClassEntry(type, kind);
+                } catch (NoSuchMethodException e) {
+                    if (strict)
+                        throw new IllegalArgumentException("Class " + type.getName() + " has no no-arg constructor", e);
+                }
+            } else if (type != null && strict) {
+                throw new IllegalArgumentException("Class " + type.getName() + " can not be registered");
+            }
+
+            if (entry != null)
+                ids.put(type, entries.size());
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Compact encoding output, handed to the {@link Externalizable} objects
+     * too.
+     */
+    private static final class CompactOutput
+            extends DataOutputStream
+            implements ObjectOutput {
+
+        /**
+         * The class registry.
+         */
+        private final Registry registry;
+        /**
+         * Ids of the classes written by name, by class.
+         */
+        private final Map<Class<?>, Integer> namedClassIds = new HashMap<Class<?>, Integer>();
+        /**
+         * Handles of the objects written, by identity.
+         */
+        private final Map<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+        /**
+         * Java serialization fallback output, created on first use.
+         */
+        private ByteArrayOutputStream serialized;
+        /**
+         * Object stream of the Java serialization fallback.
+         */
+        private ObjectOutputStream serializedOut;
+
+        /**
+         * @param out      underlying output stream
+         * @param registry the class registry
+         */
+        CompactOutput(OutputStream out, Registry registry) {
+            super(out);
+            this.registry = registry;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeObject(Object object)
+                throws IOException {
+            if (object == null) {
+                writeVarInt(NULL);
+                return;
+            }
+
+            Integer handle = handles.get(object);
+            if (handle != null) {
+                writeVarInt(REFERENCE);
+                writeVarInt(handle);
+                return;
+            }
+
+            Class<?> type = object instanceof Enum ? ((Enum<?>) object).getDeclaringClass() : object.getClass();
+
+            Kind kind;
+            Integer id = registry.ids.get(type);
+            if (id == null)
+                id = namedClassIds.get(type);
+
+            // registered or written already?
+            // if yes, need its id only
+            // else, need its name; unless to be serialized
+            if (id != null) {
+                kind = id < registry.entries.size() ? registry.entries.get(id).kind : namedKindOf(type);
+                writeVarInt(FIRST_CLASS_ID + id);
+            } else {
+                kind = namedKindOf(type);
+                if (kind == null) {
+                    handles.put(object, handles.size());
+                    writeVarInt(SERIALIZED);
+                    serializedOut().writeObject(object);
+                    return;
+                }
+
+                namedClassIds.put(type, registry.entries.size() + namedClassIds.size());
+                writeVarInt(NEW_CLASS);
+                writeString(type.getName());
+            }
+
+            handles.put(object, handles.size());
+            writeValue(kind, object);
+        }
+
+        /**
+         * @param kind   the way to write the object
+         * @param object the object
+         * @throws IOException in case of encoding failure
+         */
+        private void writeValue(Kind kind, Object object)
+                throws IOException {
+            switch (kind) {
+                case STRING:
+                    writeString((String) object);
+                    break;
+                case INTEGER:
+                    writeVarInt(zigZag((Integer) object));
+                    break;
+                case LONG:
+                    writeVarLong(zigZag((Long) object));
+                    break;
+                case BOOLEAN:
+                    writeBoolean((Boolean) object);
+                    break;
+                case SHORT:
+                    writeShort((Short) object);
+                    break;
+                case BYTE:
+                    writeByte((Byte) object);
+                    break;
+                case CHARACTER:
+                    writeChar((Character) object);
+                    break;
+                case DOUBLE:
+                    writeDouble((Double) object);
+                    break;
+                case FLOAT:
+                    writeFloat((Float) object);
+                    break;
+                case DATE:
+                    writeVarLong(zigZag(((Date) object).getTime()));
+                    break;
+                case OBJECT_ARRAY:
+                    Object[] array = (Object[]) object;
+                    writeVarInt(array.length);
+                    for (Object element : array)
+                        writeObject(element);
+                    break;
+                case COLLECTION:
+                    Collection<?> collection = (Collection<?>) object;
+                    writeVarInt(collection.size());
+                    for (Object element : collection)
+                        writeObject(element);
+                    break;
+                case MAP:
+                    writeEntries((Map<?, ?>) object);
+                    break;
+                case ATTRIBUTE_MAP:
+                    writeEntries(((LocalAttributeMap<?>) object).asMap());
+                    break;
+                case ENUM:
+                    writeString(((Enum<?>) object).name());
+                    break;
+                case EXTERNALIZABLE:
+                    ((Externalizable) object).writeExternal(this);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown kind " + kind);
+            }
+        }
+
+        /**
+         * @param map map whose entries to be written
+         * @throws IOException in case of encoding failure
+         */
+        private void writeEntries(Map<?, ?> map)
+                throws IOException {
+            writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeObject(entry.getKey());
+                writeObject(entry.getValue());
+            }
+        }
+
+        /**
+         * @param value string to be written, as UTF-8 bytes
+         * @throws IOException in case of encoding failure
+         */
+        private void writeString(String value)
+                throws IOException {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes);
+        }
+
+        /**
+         * @param value unsigned value to be written, 7 bits per byte
+         * @throws IOException in case of encoding failure
+         */
+        private void writeVarInt(int value)
+                throws IOException {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        /**
+         * @param value unsigned value to be written, 7 bits per byte
+         * @throws IOException in case of encoding failure
+         */
+        private void writeVarLong(long value)
+                throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        /**
+         * @return object stream of the Java serialization fallback
+         * @throws IOException in case of failure
+         */
+        private ObjectOutputStream serializedOut()
+                throws IOException {
+            if (serializedOut == null) {
+                serialized = new ByteArrayOutputStream(1024);
+                serializedOut = new ObjectOutputStream(serialized);
+            }
+            return serializedOut;
+        }
+
+        /**
+         * @param out output stream the Java serialization fallback to be
+         *            written to, if used
+         * @throws IOException in case of failure
+         */
+        void writeSerializedTo(OutputStream out)
+                throws IOException {
+            if (serializedOut == null)
+                return;
+
+            serializedOut.close();
+            serialized.writeTo(out);
+        }
+    }
+
+    /**
+     * Compact encoding input, handed to the {@link Externalizable} objects
+     * too.
+     */
+    private static final class CompactInput
+            extends DataInputStream
+            implements ObjectInput {
+
+        /**
+         * The class registry.
+         */
+        private final Registry registry;
+        /**
+         * Class loader to resolve the classes with.
+         */
+        private final ClassLoader classLoader;
+        /**
+         * Classes read by name, by id less the registry size.
+         */
+        private final List<ClassEntry> namedClasses = new ArrayList<ClassEntry>();
+        /**
+         * Objects read, by handle.
+         */
+        private final List<Object> handles = new ArrayList<Object>();
+        /**
+         * Input stream of the Java serialization fallback.
+         */
+        private final InputStream serialized;
+        /**
+         * Object stream of the Java serialization fallback, created on first
+         * use.
+         */
+        private ObjectInputStream serializedIn;
+
+        /**
+         * @param in          compact encoding input stream, in memory (the
+         *                    bytes available are the bytes left)
+         * @param serialized  Java serialization fallback input stream
+         * @param registry    the class registry
+         * @param classLoader class loader to resolve the classes with
+         */
+        CompactInput(InputStream in, InputStream serialized, Registry registry, ClassLoader classLoader) {
+            super(in);
+            this.serialized = serialized;
+            this.registry = registry;
+            this.classLoader = classLoader;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object readObject()
+                throws IOException, ClassNotFoundException {
+            int head = readVarInt();
+            switch (head) {
+                case NULL:
+                    return null;
+                case REFERENCE:
+                    int reference = readVarInt();
+                    if (reference >= handles.size())
+                        throw new StreamCorruptedException("Invalid handle " + reference);
+                    return handles.get(reference);
+                case SERIALIZED:
+                    return handle(serializedIn().readObject());
+                case NEW_CLASS:
+                    ClassEntry named = readNamedClass();
+                    namedClasses.add(named);
+                    return readValue(named);
+                default:
+                    return readValue(classEntry(head - FIRST_CLASS_ID));
+            }
+        }
+
+        /**
+         * @param id class id
+         * @return class entry
+         * @throws IOException in case of an invalid id
+         */
+        private ClassEntry classEntry(int id)
+                throws IOException {
+            ClassEntry entry = null;
+            if (id < registry.entries.size())
+                entry = registry.entries.get(id);
+            else if (id - registry.entries.size() < namedClasses.size())
+                entry = namedClasses.get(id - registry.entries.size());
+
+            if (entry == null)
+                throw new StreamCorruptedException("Invalid class id " + id);
+            return entry;
+        }
+
+        /**
+         * @return class entry of the class name read
+         * @throws IOException            in case of a class not to be read
+         *                                by name
+         * @throws ClassNotFoundException in case of a missing class
+         */
+        private ClassEntry readNamedClass()
+                throws IOException, ClassNotFoundException {
+            String className = readString();
+            Class<?> type = ClassUtils.forName(className, classLoader);
+
+            // only enums and externalizables are written by name,
+            // never instantiate anything else
+            Kind kind = namedKindOf(type);
+            if (kind == null)
+                throw new InvalidClassException(className, "not to be read by name");
+
+            try {
+                return new ClassEntry(type, kind);
+            } catch (NoSuchMethodException e) {
+                throw new InvalidClassException(className, "no no-arg constructor");
+            }
+        }
+
+        /**
+         * @param entry class entry of the object
+         * @return the object read
+         * @throws IOException            in case of decoding failure
+         * @throws ClassNotFoundException in case of a missing class
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object readValue(ClassEntry entry)
+                throws IOException, ClassNotFoundException {
+            switch (entry.kind) {
+                case STRING:
+                    return handle(readString());
+                case INTEGER:
+                    return handle(unZigZag(readVarInt()));
+                case LONG:
+                    return handle(unZigZag(readVarLong()));
+                case BOOLEAN:
+                    return handle(readBoolean());
+                case SHORT:
+                    return handle(readShort());
+                case BYTE:
+                    return handle(readByte());
+                case CHARACTER:
+                    return handle(readChar());
+                case DOUBLE:
+                    return handle(readDouble());
+                case FLOAT:
+                    return handle(readFloat());
+                case DATE:
+                    return handle(new Date(unZigZag(readVarLong())));
+                case OBJECT_ARRAY:
+                    // every element takes a byte at least
+                    Object[] array = new Object[readLength()];
+                    handle(array);
+                    for (int i = 0; i < array.length; i++)
+                        array[i] = readObject();
+                    return array;
+                case COLLECTION:
+                    Collection collection = (Collection) handle(entry.newInstance());
+                    for (int i = readVarInt(); i > 0; i--)
+                        collection.add(readObject());
+                    return collection;
+                case MAP:
+                    Map map = (Map) handle(entry.newInstance());
+                    for (int i = readVarInt(); i > 0; i--)
+                        map.put(readObject(), readObject());
+                    return map;
+                case ATTRIBUTE_MAP:
+                    LocalAttributeMap<Object> attributes = new LocalAttributeMap<Object>();
+                    handle(attributes);
+                    for (int i = readVarInt(); i > 0; i--)
+                        attributes.put((String) readObject(), readObject());
+                    return attributes;
+                case ENUM:
+                    return handle(Enum.valueOf((Class) entry.type, readString()));
+                case EXTERNALIZABLE:
+                    Externalizable externalizable = (Externalizable) handle(entry.newInstance());
+                    externalizable.readExternal(this);
+                    return externalizable;
+                default:
+                    throw new IllegalStateException("Unknown kind " + entry.kind);
+            }
+        }
+
+        /**
+         * @param object object read
+         * @return the object, given the next handle
+         */
+        private Object handle(Object object) {
+            handles.add(object);
+            return object;
+        }
+
+        /**
+         * @return string read, from UTF-8 bytes
+         * @throws IOException in case of decoding failure
+         */
+        private String readString()
+                throws IOException {
+            byte[] bytes = new byte[readLength()];
+            readFully(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        /**
+         * @return length read, validated against the bytes left
+         * @throws IOException in case of a length beyond the bytes left
+         */
+        private int readLength()
+                throws IOException {
+            int length = readVarInt();
+            if (length < 0 || length > available())
+                throw new StreamCorruptedException("Invalid length " + length + ", " + available() + " bytes left");
+            return length;
+        }
+
+        /**
+         * @return unsigned value read, 7 bits per byte
+         * @throws IOException in case of decoding failure
+         */
+        private int readVarInt()
+                throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new StreamCorruptedException("Invalid variable length integer");
+        }
+
+        /**
+         * @return unsigned value read, 7 bits per byte
+         * @throws IOException in case of decoding failure
+         */
+        private long readVarLong()
+                throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new StreamCorruptedException("Invalid variable length long");
+        }
+
+        /**
+         * @return object stream of the Java serialization fallback
+         * @throws IOException in case of failure
+         */
+        private ObjectInputStream serializedIn()
+                throws IOException {
+            if (serializedIn == null)
+                serializedIn = new ConfigurableObjectInputStream(serialized, classLoader);
+            return serializedIn;
+        }
+    }
+
+    /**
+     * @param type class not registered
+     * @return the kind of the class if to be written by name, {@code null}
+     *         if to be serialized
+     */
+    private static Kind namedKindOf(Class<?> type) {
+        Kind kind = kindOf(type);
+        if (kind == Kind.ENUM)
+            return kind;
+        if (kind != Kind.EXTERNALIZABLE)
+            return null;
+
+        // no no-arg constructor?
+        // if yes, leave it to the Java serialization to fail
+        try {
+            type.getDeclaredConstructor();
+            return kind;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param value signed value
+     * @return the value, small magnitudes as small unsigned values
+     */
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * @param value signed value
+     * @return the value, small magnitudes as small unsigned values
+     */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * @param value value encoded by {@link #zigZag(int)}
+     * @return the signed value
+     */
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @param value value encoded by {@link #zigZag(long)}
+     * @return the signed value
+     */
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
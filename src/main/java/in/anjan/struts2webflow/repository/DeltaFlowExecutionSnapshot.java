@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+
+/**
+ * {@link FlowExecutionSnapshot Flow execution snapshot} created by the
+ * {@link CodecFlowExecutionSnapshotFactory codec flow execution snapshot
+ * factory}, holding the {@link SnapshotDelta delta} of the encoded flow
+ * execution from a base snapshot.
+ * <p/>
+ * The base snapshot is referenced, not copied; so it is shared by all the
+ * deltas from it, in memory as well as once the session is serialized.
+ */
+final class DeltaFlowExecutionSnapshot
+        extends FlowExecutionSnapshot {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The base snapshot.
+     */
+    private final CodecFlowExecutionSnapshot base;
+    /**
+     * The delta from the base.
+     */
+    private final byte[] delta;
+    /**
+     * Number of the delta since the base, starting from {@code 1}.
+     */
+    private final int sequence;
+
+    /**
+     * @param base     the base snapshot
+     * @param delta    the delta from the base
+     * @param sequence number of the delta since the base
+     */
+    DeltaFlowExecutionSnapshot(CodecFlowExecutionSnapshot base, byte[] delta, int sequence) {
+        this.base = base;
+        this.delta = delta;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return the base snapshot
+     */
+    CodecFlowExecutionSnapshot getBase() {
+        return base;
+    }
+
+    /**
+     * @return the delta from the base
+     */
+    byte[] getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return number of the delta since the base
+     */
+    int getSequence() {
+        return sequence;
+    }
+}
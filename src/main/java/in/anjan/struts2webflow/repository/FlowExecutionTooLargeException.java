@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import org.springframework.webflow.execution.repository.FlowExecutionRepositoryException;
+
+/**
+ * Thrown when an encoded flow execution exceeds the size limit of the
+ * {@link ClientFlowExecutionRepository client flow execution repository}.
+ */
+public class FlowExecutionTooLargeException
+        extends FlowExecutionRepositoryException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message the message
+     */
+    public FlowExecutionTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+
+/**
+ * {@link SnapshotCodec Snapshot codec} using the standard Java
+ * serialization, as the
+ * {@link
+ *  org.springframework.webflow.execution.repository.snapshot.SerializedFlowExecutionSnapshot
+ *  serialized flow execution snapshot}
+ * does.
+ */
+public class JavaSnapshotCodec
+        implements SnapshotCodec {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encode(Object object, OutputStream out)
+            throws IOException {
+        ObjectOutputStream objects = new ObjectOutputStream(out);
+        objects.writeObject(object);
+        objects.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object decode(InputStream in, ClassLoader classLoader)
+            throws IOException, ClassNotFoundException {
+        return new ConfigurableObjectInputStream(in, classLoader).readObject();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes the object graph of a flow execution snapshot, as written by
+ * the {@link ClientFlowExecutionRepository client flow execution repository}
+ * and the {@link CodecFlowExecutionSnapshotFactory codec flow execution
+ * snapshot factory}.
+ * <p/>
+ * Implementations must be thread-safe. The encoding is always the last
+ * thing written to the stream, so it can be read up to the end.
+ *
+ * @see JavaSnapshotCodec
+ * @see CompactSnapshotCodec
+ */
+public interface SnapshotCodec {
+
+    /**
+     * @param object object to be encoded
+     * @param out    output stream to be written to, left open
+     * @throws IOException in case of encoding failure
+     */
+    void encode(Object object, OutputStream out)
+            throws IOException;
+
+    /**
+     * @param in          input stream to be read from, left open
+     * @param classLoader class loader to resolve the classes with
+     * @return decoded object
+     * @throws IOException            in case of decoding failure
+     * @throws ClassNotFoundException in case of a missing class
+     */
+    Object decode(InputStream in, ClassLoader classLoader)
+            throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary delta between two encoded snapshots, as a sequence of copies from
+ * the base and inserts of new bytes.
+ * <p/>
+ * The base is indexed by fixed size blocks; the target is scanned with a
+ * rolling hash, every block match extended both ways as far as the bytes
+ * agree.
+ */
+final class SnapshotDelta {
+
+    /**
+     * Block size of the base index.
+     */
+    private static final int BLOCK_SIZE = 16;
+    /**
+     * Rolling hash multiplier.
+     */
+    private static final int PRIME = 31;
+    /**
+     * Multiplier of the byte leaving the rolling hash,
+     * {@code PRIME ^ (BLOCK_SIZE - 1)}.
+     */
+    private static final int LEAVING_MULTIPLIER;
+
+    static {
+        int multiplier = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++)
+            multiplier *= PRIME;
+        LEAVING_MULTIPLIER = multiplier;
+    }
+
+    /**
+     * Operation inserting the bytes following it.
+     */
+    private static final int INSERT = 0;
+    /**
+     * Operation copying from the base at the offset following it.
+     */
+    private static final int COPY = 1;
+
+    private SnapshotDelta() {
+    }
+
+    /**
+     * @param base   base bytes
+     * @param target target bytes
+     * @return delta turning the base into the target
+     */
+    static byte[] diff(byte[] base, byte[] target) {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream(256);
+        writeVarInt(delta, target.length);
+
+        // index the base blocks, first occurrence wins
+        Map<Integer, Integer> blocks = new HashMap<Integer, Integer>(base.length / BLOCK_SIZE * 2 + 1);
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+            Integer hash = hash(base, offset);
+            if (!blocks.containsKey(hash))
+                blocks.put(hash, offset);
+        }
+
+        int literalStart = 0;
+        int position = 0;
+        int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (position + BLOCK_SIZE <= target.length) {
+            Integer offset = blocks.get(hash);
+            if (offset != null && regionMatches(base, offset, target, position)) {
+                // extend the match backwards into the pending literal
+                int baseStart = offset;
+                int targetStart = position;
+                while (baseStart > 0 && targetStart > literalStart
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart--;
+                    targetStart--;
+                }
+
+                // and forwards as far as it goes
+                int baseEnd = offset + BLOCK_SIZE;
+                int targetEnd = position + BLOCK_SIZE;
+                while (baseEnd < base.length && targetEnd < target.length
+                        && base[baseEnd] == target[targetEnd]) {
+                    baseEnd++;
+                    targetEnd++;
+                }
+
+                writeInsert(delta, target, literalStart, targetStart - literalStart);
+                writeVarInt(delta, (baseEnd - baseStart) << 1 | COPY);
+                writeVarInt(delta, baseStart);
+
+                position = targetEnd;
+                literalStart = position;
+                if (position + BLOCK_SIZE <= target.length)
+                    hash = hash(target, position);
+            } else {
+                if (position + BLOCK_SIZE < target.length)
+                    hash = (hash - (target[position] & 0xFF) * LEAVING_MULTIPLIER) * PRIME
+                            + (target[position + BLOCK_SIZE] & 0xFF);
+                position++;
+            }
+        }
+        writeInsert(delta, target, literalStart, target.length - literalStart);
+
+        return delta.toByteArray();
+    }
+
+    /**
+     * @param base  base bytes
+     * @param delta delta from {@link #diff(byte[], byte[])}
+     * @return target bytes
+     * @throws IOException in case of a corrupted delta
+     */
+    static byte[] apply(byte[] base, byte[] delta)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+
+        int targetLength = readVarInt(in);
+        if (targetLength < 0)
+            throw new StreamCorruptedException("Invalid snapshot delta target length " + targetLength);
+
+        byte[] target = new byte[targetLength];
+        int position = 0;
+        while (position < target.length) {
+            int operation = readVarInt(in);
+            int length = operation >>> 1;
+            if (length > target.length - position)
+                throw new StreamCorruptedException("Invalid snapshot delta length " + length);
+
+            if ((operation & 1) == COPY) {
+                int offset = readVarInt(in);
+                if (offset < 0 || offset > base.length - length)
+                    throw new StreamCorruptedException("Invalid snapshot delta offset " + offset);
+                System.arraycopy(base, offset, target, position, length);
+            } else {
+                in.readFully(target, position, length);
+            }
+            position += length;
+        }
+
+        return target;
+    }
+
+    /**
+     * @param bytes  bytes
+     * @param offset offset of the block
+     * @return hash of the block
+     */
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i++)
+            hash = hash * PRIME + (bytes[i] & 0xFF);
+        return hash;
+    }
+
+    /**
+     * @param base         base bytes
+     * @param baseOffset   offset of the block in the base
+     * @param target       target bytes
+     * @param targetOffset offset of the block in the target
+     * @return {@code true} if the blocks are equal, {@code false} otherwise
+     */
+    private static boolean regionMatches(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            if (base[baseOffset + i] != target[targetOffset + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @param delta  delta being written
+     * @param target target bytes
+     * @param offset offset of the bytes to be inserted
+     * @param length length of the bytes to be inserted
+     */
+    private static void writeInsert(ByteArrayOutputStream delta, byte[] target, int offset, int length) {
+        if (length == 0)
+            return;
+
+        writeVarInt(delta, length << 1 | INSERT);
+        delta.write(target, offset, length);
+    }
+
+    /**
+     * @param out   output to be written to
+     * @param value unsigned value to be written, 7 bits per byte
+     */
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * @param in input to be read from
+     * @return unsigned value read, 7 bits per byte
+     * @throws IOException in case of a corrupted delta
+     */
+    private static int readVarInt(DataInputStream in)
+            throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new StreamCorruptedException("Invalid variable length integer");
+    }
+}
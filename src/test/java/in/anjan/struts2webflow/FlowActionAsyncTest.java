@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.opensymphony.xwork2.config.entities.InterceptorMapping;
+
+import in.anjan.struts2webflow.annotations.AnnotationFlowScopeInterceptor;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link FlowAction flow action} executes asynchronously only when
+ * no flow scope interceptor would run its pre result listener ahead of the
+ * flow execution.
+ */
+public class FlowActionAsyncTest {
+
+    /**
+     * Tests a stack without a flow scope interceptor executes asynchronously.
+     */
+    @Test
+    public void withoutFlowScopeInterceptor() {
+        assertTrue(FlowAction.isAsyncCompatible(Collections.<InterceptorMapping>emptyList()));
+        assertTrue(FlowAction.isAsyncCompatible(Arrays.asList(
+                new InterceptorMapping("pausedKey", new PausedKeyInterceptor()))));
+    }
+
+    /**
+     * Tests a stack with the {@link FlowScopeInterceptor} executes
+     * synchronously.
+     */
+    @Test
+    public void withFlowScopeInterceptor() {
+        assertFalse(FlowAction.isAsyncCompatible(Arrays.asList(
+                new InterceptorMapping("pausedKey", new PausedKeyInterceptor()),
+                new InterceptorMapping("flowScope", new FlowScopeInterceptor()))));
+    }
+
+    /**
+     * Tests a stack with the {@link AnnotationFlowScopeInterceptor} executes
+     * synchronously.
+     */
+    @Test
+    public void withAnnotationFlowScopeInterceptor() {
+        assertFalse(FlowAction.isAsyncCompatible(Arrays.asList(
+                new InterceptorMapping("annotationFlowScope", new AnnotationFlowScopeInterceptor()))));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import org.junit.Test;
+
+import org.springframework.webflow.execution.FlowExecutionOutcome;
+import org.springframework.webflow.executor.FlowExecutionResult;
+import org.springframework.webflow.test.MockRequestContext;
+
+import in.anjan.struts2webflow.metrics.FlowMetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link FlowMetrics plugin metrics} are recorded without the flow
+ * or state id at hand, and never fail the flow request.
+ */
+public class FlowMetricsRecordingTest {
+
+    /**
+     * Tests a resume by a flow action without the flow id is recorded under
+     * the flow id of the resumed flow execution.
+     */
+    @Test
+    public void resumeWithoutFlowId() {
+        FlowExecutionResult result = FlowExecutionResult.createPausedResult("resumed", "e1s2");
+
+        FlowAction.recordExecution(null, "e1s1", result, 1000L);
+
+        assertEquals(1L, FlowMetrics.getInstance().getHistograms().get("flow.resume.resumed").getCount());
+    }
+
+    /**
+     * Tests a failed resume by a flow action without the flow id is not
+     * recorded, and does not fail.
+     */
+    @Test
+    public void failedResumeWithoutFlowId() {
+        FlowAction.recordExecution(null, "e1s1", null, 1000L);
+
+        assertFalse(FlowMetrics.getInstance().getHistograms().containsKey("flow.resume.null"));
+    }
+
+    /**
+     * Tests an ended resume (no paused key) is recorded under the flow id of
+     * the resumed flow execution too.
+     */
+    @Test
+    public void endedResumeWithoutFlowId() {
+        FlowExecutionResult result =
+                FlowExecutionResult.createEndedResult("ended", new FlowExecutionOutcome("end", null));
+
+        FlowAction.recordExecution(null, "e1s1", result, 1000L);
+
+        assertTrue(FlowMetrics.getInstance().getHistograms().containsKey("flow.resume.ended"));
+    }
+
+    /**
+     * Tests a Struts action executed out of any state (e.g. on-start) is
+     * recorded under the Struts action, and does not fail.
+     */
+    @Test
+    public void actionOutOfState() {
+        MockRequestContext context = new MockRequestContext();
+        context.getMockFlowExecutionContext().getMockActiveSession().setState(null);
+        String flowId = context.getActiveFlow().getId();
+
+        StrutsActionAction.recordActionState(context, "audit", System.nanoTime());
+
+        assertTrue(FlowMetrics.getInstance().getHistograms().containsKey("state." + flowId + ".audit"));
+    }
+
+    /**
+     * Tests the metrics skip, rather than fail, on a missing id.
+     */
+    @Test
+    public void missingIds() {
+        FlowMetrics metrics = FlowMetrics.getInstance();
+
+        metrics.recordLaunch(null, 1000L);
+        metrics.recordResume(null, 1000L);
+        metrics.recordActionState(null, "state", 1000L);
+        metrics.recordActionState("flow", null, 1000L);
+
+        assertFalse(metrics.getHistograms().containsKey("flow.launch.null"));
+        assertFalse(metrics.getHistograms().containsKey("flow.resume.null"));
+    }
+}
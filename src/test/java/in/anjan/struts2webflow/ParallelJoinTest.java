@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+import in.anjan.struts2webflow.ParallelStrutsActionAction.Join;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link Join join rules} of a parallel action state are parsed
+ * from the {@code join} attribute whatever the default locale.
+ */
+public class ParallelJoinTest {
+
+    /**
+     * Tests the join rules parse in any case, trimmed.
+     */
+    @Test
+    public void anyCase() {
+        assertEquals(Join.ALL_SUCCESS, Join.parse("all_success"));
+        assertEquals(Join.FIRST, Join.parse(" First "));
+        assertEquals(Join.UNANIMOUS, Join.parse("UNANIMOUS"));
+    }
+
+    /**
+     * Tests the join rules parse under a Turkish default locale, upper
+     * casing {@code i} to a dotted capital I.
+     */
+    @Test
+    public void turkishLocale() {
+        Locale oldLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertEquals(Join.FIRST, Join.parse("first"));
+            assertEquals(Join.UNANIMOUS, Join.parse("unanimous"));
+        } finally {
+            Locale.setDefault(oldLocale);
+        }
+    }
+
+    /**
+     * Tests an unknown join rule fails, naming the attribute.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown() {
+        Join.parse("any");
+    }
+}
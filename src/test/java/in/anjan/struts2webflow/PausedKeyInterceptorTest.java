@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.apache.struts2.dispatcher.HttpParameters;
+
+import org.junit.Test;
+
+import com.opensymphony.xwork2.ActionContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the {@link PausedKeyInterceptor} sets the paused key kept in the
+ * session to the value stack, not the submitted one, while the
+ * {@link SessionPausedKeyStore session store} itself prefers the submitted
+ * one.
+ */
+public class PausedKeyInterceptorTest {
+
+    /**
+     * Tests the session paused key is the one read, even if one is submitted.
+     */
+    @Test
+    public void sessionOverParameter() {
+        SessionPausedKeyStore store = new SessionPausedKeyStore();
+        ActionContext context = createContext("submitted");
+        store.setPausedKey(context, "stored");
+
+        assertEquals("stored", PausedKeyInterceptor.getStoredPausedKey(store, context));
+        assertEquals("submitted", store.getPausedKey(context));
+    }
+
+    /**
+     * Tests a submitted paused key is not read if none is in the session.
+     */
+    @Test
+    public void parameterOnly() {
+        ActionContext context = createContext("submitted");
+
+        assertNull(PausedKeyInterceptor.getStoredPausedKey(new SessionPausedKeyStore(), context));
+    }
+
+    /**
+     * Tests another store is read as is.
+     */
+    @Test
+    public void parameterStore() {
+        ActionContext context = createContext("submitted");
+
+        assertEquals("submitted", PausedKeyInterceptor.getStoredPausedKey(new ParameterPausedKeyStore(), context));
+    }
+
+    /**
+     * @param pausedKey paused key submitted
+     * @return action context with an empty session and the paused key
+     *         submitted
+     */
+    private static ActionContext createContext(String pausedKey) {
+        ActionContext context = new ActionContext(new HashMap<String, Object>());
+        context.setSession(new HashMap<String, Object>());
+        context.setParameters(HttpParameters.create(
+                Collections.singletonMap(FlowAction.DEFAULT_PAUSED_KEY_EXPRESSION, pausedKey)).build());
+        return context;
+    }
+}
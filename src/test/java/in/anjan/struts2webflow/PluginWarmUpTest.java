@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow;
+
+import org.junit.Test;
+
+import org.springframework.webflow.engine.Flow;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link PluginWarmUp plugin warm-up} requires a flow registry,
+ * and launches only the flows marked side effect free.
+ */
+public class PluginWarmUpTest {
+
+    /**
+     * Tests the warm-up fails fast without a flow registry.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void withoutFlowRegistry() {
+        new PluginWarmUp().afterPropertiesSet();
+    }
+
+    /**
+     * Tests a flow marked side effect free, typed or not.
+     */
+    @Test
+    public void sideEffectFree() {
+        Flow typed = new Flow("typed");
+        typed.getAttributes().put(PluginWarmUp.SIDE_EFFECT_FREE_ATTRIBUTE_NAME, Boolean.TRUE);
+        Flow untyped = new Flow("untyped");
+        untyped.getAttributes().put(PluginWarmUp.SIDE_EFFECT_FREE_ATTRIBUTE_NAME, "true");
+
+        assertTrue(PluginWarmUp.isSideEffectFree(typed));
+        assertTrue(PluginWarmUp.isSideEffectFree(untyped));
+    }
+
+    /**
+     * Tests a flow not marked, or marked otherwise, is not side effect free.
+     */
+    @Test
+    public void notSideEffectFree() {
+        Flow flow = new Flow("unmarked");
+        assertFalse(PluginWarmUp.isSideEffectFree(flow));
+
+        flow.getAttributes().put(PluginWarmUp.SIDE_EFFECT_FREE_ATTRIBUTE_NAME, "false");
+        assertFalse(PluginWarmUp.isSideEffectFree(flow));
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link CompactSnapshotCodec compact snapshot codec} round trips.
+ */
+public class CompactSnapshotCodecTest {
+
+    /**
+     * The codec.
+     */
+    private final CompactSnapshotCodec codec = new CompactSnapshotCodec();
+
+    /**
+     * Tests the values written by value.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test
+    public void values()
+            throws Exception {
+        Object[] values = {
+                null, "", "snapshot é中", 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Long.MIN_VALUE, 42L, true, (short) -7, (byte) 3, 'c', 1.5d, -0.25f, new Date(123456789L)};
+
+        assertArrayEquals(values, (Object[]) roundTrip(values));
+    }
+
+    /**
+     * Tests the collections and maps, attribute maps included.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collections()
+            throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("list", new ArrayList<Object>(Arrays.asList(1, "two", null)));
+        map.put("set", new LinkedHashSet<Object>(Arrays.asList("a", "b")));
+        LocalAttributeMap<Object> attributes = new LocalAttributeMap<Object>();
+        attributes.put("map", map);
+        attributes.put("empty", new HashMap<Object, Object>());
+
+        LocalAttributeMap<Object> decoded = (LocalAttributeMap<Object>) roundTrip(attributes);
+        assertEquals(attributes.asMap(), decoded.asMap());
+    }
+
+    /**
+     * Tests the cycles and shared references are kept.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void cycles()
+            throws Exception {
+        List<Object> list = new ArrayList<Object>();
+        Map<String, Object> shared = new HashMap<String, Object>();
+        shared.put("owner", list);
+        list.add(list);
+        list.add(shared);
+        list.add(shared);
+
+        List<Object> decoded = (List<Object>) roundTrip(list);
+        assertSame(decoded, decoded.get(0));
+        assertSame(decoded.get(1), decoded.get(2));
+        assertSame(decoded, ((Map<String, Object>) decoded.get(1)).get("owner"));
+    }
+
+    /**
+     * Tests the enums, written by name once.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test
+    public void enums()
+            throws Exception {
+        Object[] values = {TimeUnit.SECONDS, TimeUnit.DAYS, TimeUnit.SECONDS, Phase.ANONYMOUS};
+
+        Object[] decoded = (Object[]) roundTrip(values);
+        assertArrayEquals(values, decoded);
+        assertSame(TimeUnit.SECONDS, decoded[2]);
+        assertSame(Phase.ANONYMOUS, decoded[3]);
+    }
+
+    /**
+     * Tests the {@link Externalizable} objects, nested and shared.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test
+    public void externalizables()
+            throws Exception {
+        Node child = new Node("child", null);
+        Node parent = new Node("parent", child);
+        child.next = parent;
+
+        Object[] decoded = (Object[]) roundTrip(new Object[]{parent, child});
+        Node decodedParent = (Node) decoded[0];
+        assertEquals("parent", decodedParent.name);
+        assertEquals("child", decodedParent.next.name);
+        assertSame(decoded[1], decodedParent.next);
+        assertSame(decodedParent, decodedParent.next.next);
+    }
+
+    /**
+     * Tests the registered classes are written by id.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test
+    public void registered()
+            throws Exception {
+        CompactSnapshotCodec unregistered = new CompactSnapshotCodec();
+        codec.setRegisteredClasses(Collections.<Class<?>>singletonList(Node.class));
+
+        Node node = new Node("node", null);
+        assertEquals("node", ((Node) roundTrip(node)).name);
+        assertTrue(encode(codec, node).length < encode(unregistered, node).length);
+    }
+
+    /**
+     * Tests the other objects fall back to the Java serialization, sharing
+     * identity among themselves.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test
+    public void fallback()
+            throws Exception {
+        Value value = new Value(new BigDecimal("12.50"));
+        Object[] values = {value, "compact", value, new BigDecimal("3")};
+
+        Object[] decoded = (Object[]) roundTrip(values);
+        assertEquals(new BigDecimal("12.50"), ((Value) decoded[0]).amount);
+        assertEquals("compact", decoded[1]);
+        assertSame(decoded[0], decoded[2]);
+        assertEquals(new BigDecimal("3"), decoded[3]);
+    }
+
+    /**
+     * Tests an empty graph, a {@code null}.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test
+    public void empty()
+            throws Exception {
+        assertNull(roundTrip(null));
+    }
+
+    /**
+     * Tests a compact length beyond the input fails on the end of the stream.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test(expected = EOFException.class)
+    public void truncated()
+            throws Exception {
+        byte[] encoded = encode(codec, "truncated");
+        decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    /**
+     * Tests a huge compact length fails on the end of the stream, not on
+     * memory.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test(expected = EOFException.class)
+    public void hugeLength()
+            throws Exception {
+        decode(new byte[]{0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 4});
+    }
+
+    /**
+     * Tests a string length beyond the bytes left is rejected.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test(expected = StreamCorruptedException.class)
+    public void corruptedStringLength()
+            throws Exception {
+        // string class id, then a length of 2^28
+        decode(new byte[]{0, 0, 0, 6, 4, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1});
+    }
+
+    /**
+     * Tests an array length beyond the bytes left is rejected.
+     *
+     * @throws Exception in case of failure
+     */
+    @Test(expected = StreamCorruptedException.class)
+    public void corruptedArrayLength()
+            throws Exception {
+        // object array class id, then a length of 2^28
+        decode(new byte[]{0, 0, 0, 6, 14, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1});
+    }
+
+    /**
+     * @param object object to be encoded and decoded
+     * @return the object decoded
+     * @throws Exception in case of failure
+     */
+    private Object roundTrip(Object object)
+            throws Exception {
+        return decode(encode(codec, object));
+    }
+
+    /**
+     * @param codec  codec to encode with
+     * @param object object to be encoded
+     * @return the encoded object
+     * @throws IOException in case of failure
+     */
+    private static byte[] encode(CompactSnapshotCodec codec, Object object)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.encode(object, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes encoded object
+     * @return the object decoded
+     * @throws Exception in case of failure
+     */
+    private Object decode(byte[] bytes)
+            throws Exception {
+        return codec.decode(new ByteArrayInputStream(bytes), getClass().getClassLoader());
+    }
+
+    /**
+     * An enum not registered.
+     */
+    private enum Phase {
+        ANONYMOUS {
+            @Override
+            public String toString() {
+                return "anonymous";
+            }
+        }
+    }
+
+    /**
+     * An {@link Externalizable} node, to be linked into cycles.
+     */
+    public static final class Node
+            implements Externalizable {
+
+        /**
+         * The name.
+         */
+        private String name;
+        /**
+         * The next node, if any.
+         */
+        private Node next;
+
+        /**
+         * For the decoding.
+         */
+        public Node() {
+        }
+
+        /**
+         * @param name the name
+         * @param next the next node, if any
+         */
+        Node(String name, Node next) {
+            this.name = name;
+            this.next = next;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeExternal(ObjectOutput out)
+                throws IOException {
+            out.writeUTF(name);
+            out.writeObject(next);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void readExternal(ObjectInput in)
+                throws IOException, ClassNotFoundException {
+            name = in.readUTF();
+            next = (Node) in.readObject();
+        }
+    }
+
+    /**
+     * A {@link Serializable} value, to fall back to the Java serialization.
+     */
+    private static final class Value
+            implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The amount.
+         */
+        private final BigDecimal amount;
+
+        /**
+         * @param amount the amount
+         */
+        Value(BigDecimal amount) {
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Anjan Pradhan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.anjan.struts2webflow.repository;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link SnapshotDelta snapshot delta} round trips.
+ */
+public class SnapshotDeltaTest {
+
+    /**
+     * Source of the random bytes, seeded to be repeatable.
+     */
+    private final Random random = new Random(42);
+
+    /**
+     * Tests identical bytes come down to a single copy.
+     *
+     * @throws IOException in case of failure
+     */
+    @Test
+    public void identical()
+            throws IOException {
+        byte[] base = randomBytes(4096);
+
+        byte[] delta = roundTrip(base, base.clone());
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 16);
+    }
+
+    /**
+     * Tests a few changed bytes in the middle.
+     *
+     * @throws IOException in case of failure
+     */
+    @Test
+    public void changed()
+            throws IOException {
+        byte[] base = randomBytes(4096);
+        byte[] target = base.clone();
+        target[100] ^= 1;
+        target[2000] ^= 1;
+        target[4095] ^= 1;
+
+        byte[] delta = roundTrip(base, target);
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 64);
+    }
+
+    /**
+     * Tests bytes inserted and removed, shifting the rest.
+     *
+     * @throws IOException in case of failure
+     */
+    @Test
+    public void shifted()
+            throws IOException {
+        byte[] base = randomBytes(4096);
+        byte[] inserted = concat(
+                Arrays.copyOfRange(base, 0, 1000),
+                randomBytes(7),
+                Arrays.copyOfRange(base, 1000, base.length));
+        byte[] removed = concat(
+                Arrays.copyOfRange(base, 0, 1000),
+                Arrays.copyOfRange(base, 1013, base.length));
+
+        assertTrue(roundTrip(base, inserted).length < 64);
+        assertTrue(roundTrip(base, removed).length < 64);
+    }
+
+    /**
+     * Tests the blocks of the base moved around.
+     *
+     * @throws IOException in case of failure
+     */
+    @Test
+    public void reordered()
+            throws IOException {
+        byte[] base = randomBytes(4096);
+        byte[] target = concat(
+                Arrays.copyOfRange(base, 3000, base.length),
+                Arrays.copyOfRange(base, 0, 3000));
+
+        assertTrue(roundTrip(base, target).length < 64);
+    }
+
+    /**
+     * Tests nothing in common, shorter than a block and empty either side.
+     *
+     * @throws IOException in case of failure
+     */
+    @Test
+    public void edges()
+            throws IOException {
+        roundTrip(randomBytes(4096), randomBytes(4096));
+        roundTrip(randomBytes(5), randomBytes(3));
+        roundTrip(new byte[0], randomBytes(100));
+        roundTrip(randomBytes(100), new byte[0]);
+        roundTrip(new byte[0], new byte[0]);
+    }
+
+    /**
+     * Tests repetitive bytes, many blocks of the same hash.
+     *
+     * @throws IOException in case of failure
+     */
+    @Test
+    public void repetitive()
+            throws IOException {
+        byte[] base = new byte[4096];
+        byte[] target = new byte[5000];
+        target[2500] = 1;
+
+        roundTrip(base, target);
+    }
+
+    /**
+     * Tests random edits of random bytes.
+     *
+     * @throws IOException in case of failure
+     */
+    @Test
+    public void randomEdits()
+            throws IOException {
+        for (int i = 0; i < 200; i++) {
+            byte[] base = randomBytes(random.nextInt(2048));
+            byte[] target = base;
+            for (int edits = random.nextInt(5); edits > 0; edits--) {
+                int at = target.length > 0 ? random.nextInt(target.length) : 0;
+                int cut = Math.min(random.nextInt(32), target.length - at);
+                target = concat(
+                        Arrays.copyOfRange(target, 0, at),
+                        randomBytes(random.nextInt(32)),
+                        Arrays.copyOfRange(target, at + cut, target.length));
+            }
+
+            roundTrip(base, target);
+        }
+    }
+
+    /**
+     * Tests a delta copying past the end of the base is rejected.
+     *
+     * @throws IOException in case of failure
+     */
+    @Test(expected = StreamCorruptedException.class)
+    public void corrupted()
+            throws IOException {
+        byte[] base = randomBytes(4096);
+
+        SnapshotDelta.apply(Arrays.copyOf(base, 100), SnapshotDelta.diff(base, base));
+    }
+
+    /**
+     * Diffs and applies back.
+     *
+     * @param base   base bytes
+     * @param target target bytes
+     * @return the delta
+     * @throws IOException in case of failure
+     */
+    private byte[] roundTrip(byte[] base, byte[] target)
+            throws IOException {
+        byte[] delta = SnapshotDelta.diff(base, target);
+        assertArrayEquals(target, SnapshotDelta.apply(base, delta));
+        return delta;
+    }
+
+    /**
+     * @param length number of bytes
+     * @return random bytes
+     */
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param arrays the arrays
+     * @return the arrays one after another
+     */
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays)
+            length += array.length;
+
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, bytes, offset, array.length);
+            offset += array.length;
+        }
+        return bytes;
+    }
+}